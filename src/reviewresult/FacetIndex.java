@@ -0,0 +1,271 @@
+package reviewresult;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import reviewresult.persistent.ReviewItem;
+import reviewresult.persistent.ReviewStatus;
+import utils.IntBitmap;
+
+import java.util.*;
+
+/**
+ * Facets of live reviews: every author, tag, status and module name gets an id, and every id has a bitmap
+ * of ordinals of the reviews which have this value. Values are compared ignoring case.
+ * Filters are intersections of bitmaps, facet counts are their cardinalities.
+ */
+public class FacetIndex {
+    public enum Facet {
+        AUTHOR, TAG, STATUS, MODULE
+    }
+
+    public interface ModuleResolver {
+        @Nullable
+        String getModuleName(@NotNull Review review);
+    }
+
+    private final ModuleResolver moduleResolver;
+    private final Map<Review, Integer> ordinals = new HashMap<Review, Integer>();
+    private final List<Review> reviews = new ArrayList<Review>();
+    //ordinals of removed reviews, reused to keep bitmaps dense
+    private IntBitmap freeOrdinals = new IntBitmap();
+    private IntBitmap all = new IntBitmap();
+    private final Map<Facet, Dictionary> dictionaries = new EnumMap<Facet, Dictionary>(Facet.class);
+    //ids of the values of every review, per facet
+    private final Map<Review, int[][]> reviewValues = new HashMap<Review, int[][]>();
+    //file of every review when its module was resolved
+    private final Map<Review, String> filePaths = new HashMap<Review, String>();
+
+    private static class Dictionary {
+        private final Map<String, Integer> ids = new HashMap<String, Integer>();
+        private final List<String> values = new ArrayList<String>();
+        private final List<IntBitmap> bitmaps = new ArrayList<IntBitmap>();
+
+        private int getOrCreateId(String value) {
+            final String key = value.toLowerCase();
+            Integer id = ids.get(key);
+            if(id == null) {
+                id = values.size();
+                ids.put(key, id);
+                values.add(value);
+                bitmaps.add(new IntBitmap());
+            }
+            return id;
+        }
+
+        @Nullable
+        private IntBitmap getBitmap(String value) {
+            final Integer id = ids.get(value.toLowerCase());
+            return id == null ? null : bitmaps.get(id);
+        }
+    }
+
+    public FacetIndex(@NotNull ModuleResolver moduleResolver) {
+        this.moduleResolver = moduleResolver;
+        for(Facet facet : Facet.values()) {
+            dictionaries.put(facet, new Dictionary());
+        }
+    }
+
+    /**
+     * Adds the review or updates its values if it was added before
+     */
+    public void add(@NotNull Review review) {
+        remove(review);
+        final int ordinal = allocateOrdinal(review);
+        final int[][] values = new int[Facet.values().length][];
+        values[Facet.AUTHOR.ordinal()] = addValues(Facet.AUTHOR, getAuthors(review), ordinal);
+        values[Facet.TAG.ordinal()] = addValues(Facet.TAG, review.getTags(), ordinal);
+        values[Facet.STATUS.ordinal()] = addValues(Facet.STATUS, getStatus(review), ordinal);
+        final String module = moduleResolver.getModuleName(review);
+        values[Facet.MODULE.ordinal()] = addValues(Facet.MODULE,
+                module == null ? Collections.<String>emptyList() : Collections.singletonList(module), ordinal);
+        reviewValues.put(review, values);
+        filePaths.put(review, review.getFilePath());
+    }
+
+    /**
+     * Adds the review again if its authors, tags, status or file were changed since it was added
+     */
+    public void update(@NotNull Review review) {
+        final int[][] values = reviewValues.get(review);
+        if(values != null && equal(filePaths.get(review), review.getFilePath())
+                && hasValues(Facet.AUTHOR, getAuthors(review), values)
+                && hasValues(Facet.TAG, review.getTags(), values)
+                && hasValues(Facet.STATUS, getStatus(review), values)) return;
+        add(review);
+    }
+
+    public void remove(@NotNull Review review) {
+        final Integer ordinal = ordinals.remove(review);
+        if(ordinal == null) return;
+        final int[][] values = reviewValues.remove(review);
+        filePaths.remove(review);
+        for(Facet facet : Facet.values()) {
+            final List<IntBitmap> bitmaps = dictionaries.get(facet).bitmaps;
+            for(int id : values[facet.ordinal()]) {
+                bitmaps.get(id).remove(ordinal);
+            }
+        }
+        reviews.set(ordinal, null);
+        all.remove(ordinal);
+        freeOrdinals.add(ordinal);
+    }
+
+    public void clear() {
+        ordinals.clear();
+        reviews.clear();
+        reviewValues.clear();
+        filePaths.clear();
+        for(Facet facet : Facet.values()) {
+            dictionaries.put(facet, new Dictionary());
+        }
+        freeOrdinals = new IntBitmap();
+        all = new IntBitmap();
+    }
+
+    /**
+     * @return copy of ordinals of reviews with the value
+     */
+    @NotNull
+    public IntBitmap find(@NotNull Facet facet, @NotNull String value) {
+        final IntBitmap bitmap = dictionaries.get(facet).getBitmap(value);
+        return bitmap == null ? new IntBitmap() : bitmap.copy();
+    }
+
+    /**
+     * @return the first value the review has or null
+     */
+    @Nullable
+    public String getValue(@NotNull Facet facet, @NotNull Review review) {
+        final int[][] values = reviewValues.get(review);
+        if(values == null || values[facet.ordinal()].length == 0) return null;
+        return dictionaries.get(facet).values.get(values[facet.ordinal()][0]);
+    }
+
+    /**
+     * @return copy of ordinals of all reviews
+     */
+    @NotNull
+    public IntBitmap getAll() {
+        return all.copy();
+    }
+
+    @NotNull
+    public IntBitmap toBitmap(@NotNull Collection<Review> reviews) {
+        final IntBitmap bitmap = new IntBitmap();
+        for(Review review : reviews) {
+            final Integer ordinal = ordinals.get(review);
+            if(ordinal != null) {
+                bitmap.add(ordinal);
+            }
+        }
+        return bitmap;
+    }
+
+    @NotNull
+    public List<Review> getReviews(@NotNull IntBitmap bitmap) {
+        final List<Review> result = new ArrayList<Review>(bitmap.getCardinality());
+        bitmap.forEach(new IntBitmap.IntProcessor() {
+            public boolean process(int ordinal) {
+                if(ordinal < reviews.size() && reviews.get(ordinal) != null) {
+                    result.add(reviews.get(ordinal));
+                }
+                return true;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return values which live reviews have, with the numbers of these reviews
+     */
+    @NotNull
+    public Map<String, Integer> getCounts(@NotNull Facet facet) {
+        final Dictionary dictionary = dictionaries.get(facet);
+        final Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+        for(int id = 0; id < dictionary.values.size(); id++) {
+            final int count = dictionary.bitmaps.get(id).getCardinality();
+            if(count > 0) {
+                counts.put(dictionary.values.get(id), count);
+            }
+        }
+        return counts;
+    }
+
+    private int allocateOrdinal(Review review) {
+        int ordinal;
+        if(freeOrdinals.isEmpty()) {
+            ordinal = reviews.size();
+            reviews.add(review);
+        } else {
+            final int[] first = {0};
+            freeOrdinals.forEach(new IntBitmap.IntProcessor() {
+                public boolean process(int value) {
+                    first[0] = value;
+                    return false;
+                }
+            });
+            ordinal = first[0];
+            freeOrdinals.remove(ordinal);
+            reviews.set(ordinal, review);
+        }
+        ordinals.put(review, ordinal);
+        all.add(ordinal);
+        return ordinal;
+    }
+
+    private int[] addValues(Facet facet, Collection<String> values, int ordinal) {
+        final Dictionary dictionary = dictionaries.get(facet);
+        final Set<Integer> ids = new LinkedHashSet<Integer>();
+        for(String value : values) {
+            if(value == null) continue;
+            final int id = dictionary.getOrCreateId(value);
+            dictionary.bitmaps.get(id).add(ordinal);
+            ids.add(id);
+        }
+        final int[] result = new int[ids.size()];
+        int i = 0;
+        for(Integer id : ids) {
+            result[i++] = id;
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the review has exactly these values of the facet, in this order
+     */
+    private boolean hasValues(Facet facet, Collection<String> values, int[][] reviewValues) {
+        final Dictionary dictionary = dictionaries.get(facet);
+        final Set<Integer> ids = new LinkedHashSet<Integer>();
+        for(String value : values) {
+            if(value == null) continue;
+            final Integer id = dictionary.ids.get(value.toLowerCase());
+            if(id == null) return false;
+            ids.add(id);
+        }
+        final int[] current = reviewValues[facet.ordinal()];
+        if(ids.size() != current.length) return false;
+        int i = 0;
+        for(Integer id : ids) {
+            if(id != current[i++]) return false;
+        }
+        return true;
+    }
+
+    private static boolean equal(@Nullable String first, @Nullable String second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
+    private static List<String> getStatus(Review review) {
+        final ReviewStatus status = review.getReviewBean().getStatus();
+        return status == null ? Collections.<String>emptyList() : Collections.singletonList(status.name());
+    }
+
+    private static List<String> getAuthors(Review review) {
+        final List<String> authors = new ArrayList<String>();
+        for(ReviewItem item : review.getReviewItems()) {
+            authors.add(item.getAuthor());
+        }
+        return authors;
+    }
+}
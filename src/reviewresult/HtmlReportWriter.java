@@ -0,0 +1,166 @@
+package reviewresult;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.IssueNavigationConfiguration;
+import com.intellij.openapi.vcs.IssueNavigationLink;
+import com.intellij.util.io.URLUtil;
+import org.jetbrains.annotations.NotNull;
+import reviewresult.persistent.ReviewsState;
+import reviewresult.persistent.ReviewsXmlWriter;
+import utils.Util;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.*;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.*;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the HTML report of reviews. The stylesheet is compiled once. HTML of a file is kept with the list
+ * of reviews it was made from and is made again only when ReviewManager replaces that list or issue navigation
+ * links of the project are changed.
+ */
+class HtmlReportWriter {
+    private static final Logger LOG = Logger.getInstance(HtmlReportWriter.class.getName());
+    private static final String STYLESHEET = "/web/report.xsl";
+    private static final String PLACEHOLDER = "<!--reviews-->";
+
+    private static Templates templates;
+    //stylesheets loaded by document()
+    private static final Map<String, byte[]> resources = new HashMap<String, byte[]>();
+
+    private final Project project;
+    private final Map<String, Fragment> fragments = new HashMap<String, Fragment>();
+    //issue navigation links the fragments were made with
+    private String issueLinks;
+    //page before and after reviews of files
+    private String header;
+    private String footer;
+
+    private static class Fragment {
+        private final ReviewsState.FileReviewsList list;
+        private final String html;
+
+        private Fragment(ReviewsState.FileReviewsList list, String html) {
+            this.list = list;
+            this.html = html;
+        }
+    }
+
+    HtmlReportWriter(@NotNull Project project) {
+        this.project = project;
+    }
+
+    /**
+     * Writes reviews as XML in a comment, so the report can be imported, and then as HTML
+     */
+    void write(@NotNull List<ReviewsState.FileReviewsList> lists, @NotNull Writer writer)
+                                                        throws IOException, TransformerException, XMLStreamException {
+        writer.write("<!--");
+        ReviewsXmlWriter.write(lists, writer);
+        writer.write("-->");
+        if(header == null) {
+            final String page = transform(Collections.<ReviewsState.FileReviewsList>emptyList(), false);
+            final int index = page.indexOf(PLACEHOLDER);
+            header = page.substring(0, index);
+            footer = page.substring(index + PLACEHOLDER.length());
+        }
+        writer.write(header);
+        final String currentIssueLinks = getIssueLinks();
+        if(!currentIssueLinks.equals(issueLinks)) {
+            fragments.clear();
+            issueLinks = currentIssueLinks;
+        }
+        final Map<String, Fragment> written = new HashMap<String, Fragment>(lists.size());
+        for(ReviewsState.FileReviewsList list : lists) {
+            Fragment fragment = fragments.get(list.getFilePath());
+            if(fragment == null || fragment.list != list) {
+                final String html = transform(Collections.singletonList(list), true);
+                fragment = new Fragment(list, Util.getInstance(project).getHTMLContents(html));
+            }
+            written.put(list.getFilePath(), fragment);
+            writer.write(fragment.html);
+        }
+        //files without reviews are forgotten
+        fragments.clear();
+        fragments.putAll(written);
+        writer.write(footer);
+    }
+
+    private String getIssueLinks() {
+        final StringBuilder links = new StringBuilder();
+        for(IssueNavigationLink link : IssueNavigationConfiguration.getInstance(project).getLinks()) {
+            links.append(link.getIssueRegexp()).append('\n').append(link.getLinkRegexp()).append('\n');
+        }
+        return links.toString();
+    }
+
+    private static String transform(List<ReviewsState.FileReviewsList> lists, boolean fragment)
+                                                        throws IOException, TransformerException, XMLStreamException {
+        final StringWriter xml = new StringWriter();
+        ReviewsXmlWriter.write(lists, xml);
+        final Transformer transformer = getTemplates().newTransformer();
+        transformer.setURIResolver(new ResourceResolver());
+        transformer.setParameter("fragment", Boolean.valueOf(fragment));
+        if(!fragment) {
+            transformer.setParameter("placeholder", PLACEHOLDER);
+        }
+        final StringWriter html = new StringWriter();
+        transformer.transform(new StreamSource(new StringReader(xml.toString())), new StreamResult(html));
+        return html.toString();
+    }
+
+    private static synchronized Templates getTemplates() throws IOException, TransformerConfigurationException {
+        if(templates == null) {
+            final TransformerFactory transformerFactory = TransformerFactory.newInstance();
+            transformerFactory.setURIResolver(new ResourceResolver());
+            final URL xsltUrl = HtmlReportWriter.class.getResource(STYLESHEET);
+            templates = transformerFactory.newTemplates(new StreamSource(URLUtil.openStream(xsltUrl)));
+        }
+        return templates;
+    }
+
+    /**
+     * Finds "file://name" in the web folder of the plugin
+     */
+    private static class ResourceResolver implements URIResolver {
+        @Override
+        public Source resolve(String href, String base) throws TransformerException {
+            final String name = "/web/" + href.substring(7);
+            synchronized (resources) {
+                byte[] bytes = resources.get(name);
+                if(bytes == null) {
+                    try {
+                        bytes = readResource(name);
+                    } catch (IOException e) {
+                        LOG.error(e);
+                        return null;
+                    }
+                    resources.put(name, bytes);
+                }
+                return new StreamSource(new ByteArrayInputStream(bytes));
+            }
+        }
+
+        private static byte[] readResource(String name) throws IOException {
+            final InputStream stream = URLUtil.openStream(HtmlReportWriter.class.getResource(name));
+            try {
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[4096];
+                int read;
+                while((read = stream.read(buffer)) >= 0) {
+                    bytes.write(buffer, 0, read);
+                }
+                return bytes.toByteArray();
+            } finally {
+                stream.close();
+            }
+        }
+    }
+}
@@ -50,6 +50,21 @@ public class Review{
         }
     }
 
+    private Review(Review review) {
+        reviewBean = review.reviewBean.copy();
+        project = review.project;
+        filePath = review.filePath;
+        fileName = review.fileName;
+    }
+
+    /**
+     * @return copy of the review which equals to it and is not changed by the user, so it can be read on another thread
+     */
+    @NotNull
+    public Review createSnapshot() {
+        return new Review(this);
+    }
+
     public Review(Project project, int start, int end, VirtualFile virtualFile) {
         this.project = project;
         VirtualFile baseDir = project.getBaseDir();
@@ -118,7 +133,7 @@ public class Review{
         if(!reviewBean.isValid()) return -1;
         Document document = Util.getInstance(project).getDocument(filePath);
         if(document == null) return -1;
-        if(reviewBean.getContext().getStart()  > document.getText().length()) return -1;
+        if(reviewBean.getContext().getStart()  > document.getTextLength()) return -1;
         return document.getLineNumber(reviewBean.getContext().getStart());
     }
 
@@ -217,15 +232,15 @@ public class Review{
     }
 
     public String getLineBefore() {
-        return reviewBean.getContext().getLineBefore();
+        return reviewBean.getContext().getLineBeforeHtml();
     }
 
     public String getLine() {
-        return reviewBean.getContext().getLine();
+        return reviewBean.getContext().getLineHtml();
     }
 
     public String getLineAfter() {
-        return reviewBean.getContext().getLineAfter();
+        return reviewBean.getContext().getLineAfterHtml();
     }
 
     public boolean isDeleted() {
@@ -242,11 +257,6 @@ public class Review{
         reviewBean.getContext().setContext(Util.getInstance(project).getDocument(filePath));
     }
 
-    public void checkContext() {
-        reviewBean.getContext().
-                checkContext(Util.getInstance(project).getDocument(filePath));
-    }
-
     @Override
     public boolean equals(Object o) {
            if (this == o) return true;
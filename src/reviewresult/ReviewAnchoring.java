@@ -0,0 +1,368 @@
+package reviewresult;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.util.TextRange;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import reviewresult.persistent.Context;
+import reviewresult.persistent.ReviewBean;
+import utils.DocumentHashes;
+import utils.PatternMatcher;
+
+import java.util.*;
+
+/**
+ * Finds new offsets of all reviews of a file at once.
+ * Lines of the saved context of the reviews are matched with lines of the document by patience diff:
+ * lines which are unique on both sides are matched first, then equal lines next to matched ones.
+ * Every review then follows the matched lines it consists of or the lines around it.
+ * Reviews which can't be placed this way are searched by their saved text, see {@link #relocate}.
+ *
+ * Saved context is copied when the anchoring is created, so it may be used after beans were changed.
+ */
+public class ReviewAnchoring {
+    private static final int PATTERNS_PER_REVIEW = 3;
+
+    private final List<Anchor> anchors = new ArrayList<Anchor>();
+    private final int[] oldLines;
+    private final long[] oldHashes;
+
+    public ReviewAnchoring(@NotNull Collection<ReviewBean> beans) {
+        final TreeMap<Integer, Long> lines = new TreeMap<Integer, Long>();
+        final Set<Integer> conflicts = new HashSet<Integer>();
+        for(ReviewBean bean : beans) {
+            final Anchor anchor = Anchor.create(bean);
+            if(anchor != null) {
+                anchors.add(anchor);
+                anchor.collectLines(lines, conflicts);
+            }
+        }
+        for(Integer line : conflicts) {
+            lines.remove(line);
+        }
+        oldLines = new int[lines.size()];
+        oldHashes = new long[lines.size()];
+        int i = 0;
+        for(Map.Entry<Integer, Long> entry : lines.entrySet()) {
+            oldLines[i] = entry.getKey();
+            oldHashes[i] = entry.getValue();
+            i++;
+        }
+    }
+
+    /**
+     * @param change changed part of the document, reviews outside of it are moved without diff
+     * @return new ranges of the reviews which were found in the document
+     */
+    @NotNull
+    public Map<ReviewBean, TextRange> anchor(@NotNull Document document, @Nullable DocumentHashes.Change change) {
+        final Map<ReviewBean, TextRange> result = new HashMap<ReviewBean, TextRange>();
+        final List<Anchor> unplaced = new ArrayList<Anchor>();
+        int[] matches = null;
+        for(Anchor anchor : anchors) {
+            ProgressManager.checkCanceled();
+            if(change != null && change.isBeforeChange(anchor.end)) {
+                result.put(anchor.bean, new TextRange(anchor.start, anchor.end));
+            } else if(change != null && change.isAfterChange(anchor.start)) {
+                result.put(anchor.bean, new TextRange(anchor.start + change.getShift(), anchor.end + change.getShift()));
+            } else {
+                if(matches == null) {
+                    matches = match(DocumentHashes.getInstance(document));
+                }
+                final TextRange range = anchor.findRange(document, oldLines, matches);
+                if(range != null) {
+                    result.put(anchor.bean, range);
+                } else {
+                    unplaced.add(anchor);
+                }
+            }
+        }
+        if(!unplaced.isEmpty()) {
+            relocate(document, unplaced, matches, result);
+        }
+        return result;
+    }
+
+    /**
+     * Searches the saved reviewed text of every review, and the lines before and after it,
+     * in a single pass over the document. The occurrence nearest to the expected position wins.
+     */
+    private void relocate(Document document, final List<Anchor> unplaced, int[] matches,
+                          Map<ReviewBean, TextRange> result) {
+        final List<String> patterns = new ArrayList<String>();
+        final int[] expected = new int[unplaced.size()];
+        for(int i = 0; i < unplaced.size(); i++) {
+            final Anchor anchor = unplaced.get(i);
+            patterns.add(getPattern(anchor.line));
+            patterns.add(getPattern(anchor.before));
+            patterns.add(getPattern(anchor.after));
+            expected[i] = anchor.getExpectedOffset(document, oldLines, matches);
+        }
+        final int[] found = new int[patterns.size()];
+        final int[] distances = new int[patterns.size()];
+        Arrays.fill(found, -1);
+        new PatternMatcher(patterns, true).search(document.getCharsSequence(), 0, document.getTextLength(),
+                                                  new PatternMatcher.MatchProcessor() {
+            public boolean process(int pattern, int start) {
+                final int index = pattern / PATTERNS_PER_REVIEW;
+                final Anchor anchor = unplaced.get(index);
+                int offset = start;
+                if(pattern % PATTERNS_PER_REVIEW == 1) {
+                    offset += anchor.before.length();
+                } else if(pattern % PATTERNS_PER_REVIEW == 2) {
+                    offset -= anchor.line.length();
+                }
+                final int distance = Math.abs(offset - expected[index]);
+                if(offset >= 0 && (found[pattern] < 0 || distance < distances[pattern])) {
+                    found[pattern] = offset;
+                    distances[pattern] = distance;
+                }
+                return true;
+            }
+        });
+        for(int i = 0; i < unplaced.size(); i++) {
+            for(int pattern = i * PATTERNS_PER_REVIEW; pattern < (i + 1) * PATTERNS_PER_REVIEW; pattern++) {
+                if(found[pattern] >= 0) {
+                    final int start = Math.min(found[pattern], document.getTextLength());
+                    final int end = Math.min(start + unplaced.get(i).line.length(), document.getTextLength());
+                    result.put(unplaced.get(i).bean, new TextRange(start, end));
+                    break;
+                }
+            }
+        }
+    }
+
+    private static String getPattern(String text) {
+        return "".equals(text.trim()) ? "" : text;
+    }
+
+    /**
+     * @return for every known old line number of the document line it matches or -1
+     */
+    private int[] match(DocumentHashes hashes) {
+        final long[] newHashes = new long[hashes.getLineCount()];
+        for(int line = 0; line < newHashes.length; line++) {
+            newHashes[line] = hashes.getLineHash(line);
+        }
+        final int[] matches = new int[oldLines.length];
+        Arrays.fill(matches, -1);
+        match(newHashes, matches, 0, oldLines.length, 0, newHashes.length, -1, -1, Integer.MAX_VALUE);
+        return matches;
+    }
+
+    /**
+     * Matches old lines [aStart, aEnd) with document lines [bStart, bEnd).
+     * Lines before the ranges are matched at prevOld, lines after them at nextOld (old line numbers).
+     */
+    private void match(long[] newHashes, int[] matches, int aStart, int aEnd, int bStart, int bEnd,
+                       int prevOld, int prevNew, int nextOld) {
+        //equal lines which follow the previous match or precede the next one on both sides
+        while(aStart < aEnd && bStart < bEnd && oldLines[aStart] == prevOld + 1 && bStart == prevNew + 1
+                && oldHashes[aStart] == newHashes[bStart]) {
+            matches[aStart] = bStart;
+            prevOld = oldLines[aStart++];
+            prevNew = bStart++;
+        }
+        while(aStart < aEnd && bStart < bEnd && oldLines[aEnd - 1] == nextOld - 1
+                && oldHashes[aEnd - 1] == newHashes[bEnd - 1]) {
+            matches[--aEnd] = --bEnd;
+            nextOld = oldLines[aEnd];
+        }
+        if(aStart >= aEnd || bStart >= bEnd) return;
+
+        //[count in old lines, old index, count in document lines, document line]
+        final Map<Long, int[]> occurrences = new HashMap<Long, int[]>();
+        for(int a = aStart; a < aEnd; a++) {
+            int[] occurrence = occurrences.get(oldHashes[a]);
+            if(occurrence == null) {
+                occurrence = new int[4];
+                occurrences.put(oldHashes[a], occurrence);
+            }
+            occurrence[0]++;
+            occurrence[1] = a;
+        }
+        for(int b = bStart; b < bEnd; b++) {
+            final int[] occurrence = occurrences.get(newHashes[b]);
+            if(occurrence != null) {
+                occurrence[2]++;
+                occurrence[3] = b;
+            }
+        }
+        final List<int[]> unique = new ArrayList<int[]>();
+        for(int a = aStart; a < aEnd; a++) {
+            final int[] occurrence = occurrences.get(oldHashes[a]);
+            if(occurrence[0] == 1 && occurrence[2] == 1) {
+                unique.add(new int[]{a, occurrence[3]});
+            }
+        }
+        int a = aStart;
+        int b = bStart;
+        for(int[] pair : longestIncreasing(unique)) {
+            matches[pair[0]] = pair[1];
+            match(newHashes, matches, a, pair[0], b, pair[1], prevOld, prevNew, oldLines[pair[0]]);
+            prevOld = oldLines[pair[0]];
+            prevNew = pair[1];
+            a = pair[0] + 1;
+            b = pair[1] + 1;
+        }
+        if(a != aStart) {
+            match(newHashes, matches, a, aEnd, b, bEnd, prevOld, prevNew, nextOld);
+        }
+    }
+
+    /**
+     * @return the longest subsequence of pairs ordered by old index whose document lines increase
+     */
+    private static List<int[]> longestIncreasing(List<int[]> pairs) {
+        final int size = pairs.size();
+        final int[] tails = new int[size];
+        final int[] previous = new int[size];
+        int length = 0;
+        for(int i = 0; i < size; i++) {
+            final int line = pairs.get(i)[1];
+            int low = 0;
+            int high = length;
+            while(low < high) {
+                final int middle = (low + high) >>> 1;
+                if(pairs.get(tails[middle])[1] < line) low = middle + 1; else high = middle;
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if(low == length) length++;
+        }
+        final LinkedList<int[]> result = new LinkedList<int[]>();
+        for(int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            result.addFirst(pairs.get(i));
+        }
+        return result;
+    }
+
+    private static class Anchor {
+        private final ReviewBean bean;
+        private final int start;
+        private final int end;
+        private final int startLine;
+        private final int endLine;
+        private final int startColumn;
+        private final int endColumn;
+        private final String before;
+        private final String line;
+        private final String after;
+        private final String text;
+        private final int firstLine;
+        private final boolean firstLineComplete;
+        private final boolean lastLineComplete;
+
+        private Anchor(ReviewBean bean, Context context) {
+            this.bean = bean;
+            start = context.getStart();
+            end = context.getEnd();
+            before = context.getLineBefore();
+            line = context.getLine();
+            after = context.getLineAfter();
+            text = before + line + after;
+            startLine = context.getLineNumber() - 1;
+            endLine = startLine + countLineBreaks(line);
+            firstLine = startLine - countLineBreaks(before);
+            if("".equals(before)) {
+                //the review starts in the first line or its context is unknown
+                startColumn = startLine == 0 ? start : 0;
+                firstLineComplete = startLine == 0 && start == 0;
+            } else {
+                startColumn = before.length() - before.lastIndexOf('\n') - 1;
+                firstLineComplete = before.indexOf('\n') >= 0;
+            }
+            endColumn = line.indexOf('\n') >= 0 ? line.length() - line.lastIndexOf('\n') - 1 : startColumn + line.length();
+            lastLineComplete = !"".equals(after);
+        }
+
+        @Nullable
+        private static Anchor create(ReviewBean bean) {
+            final Context context = bean.getContext();
+            if(context == null || context.getLineNumber() <= 0 || context.getStart() < 0) return null;
+            return new Anchor(bean, context);
+        }
+
+        private void collectLines(Map<Integer, Long> lines, Set<Integer> conflicts) {
+            int lineStart = 0;
+            for(int line = firstLine; lineStart <= text.length(); line++) {
+                int lineEnd = text.indexOf('\n', lineStart);
+                final boolean last = lineEnd < 0;
+                if(last) lineEnd = text.length();
+                if((line != firstLine || firstLineComplete) && (!last || lastLineComplete) && line >= 0) {
+                    final long hash = DocumentHashes.hashLine(text, lineStart, lineEnd);
+                    final Long known = lines.get(line);
+                    if(known == null) {
+                        lines.put(line, hash);
+                    } else if(known != hash) {
+                        conflicts.add(line);
+                    }
+                }
+                lineStart = lineEnd + 1;
+            }
+        }
+
+        @Nullable
+        private TextRange findRange(Document document, int[] oldLines, int[] matches) {
+            int newStart = -1;
+            for(int line = startLine; line <= endLine && newStart < 0; line++) {
+                final int matched = getMatch(oldLines, matches, line);
+                if(matched >= 0) newStart = matched - (line - startLine);
+            }
+            if(newStart < 0) {
+                final int before = getMatch(oldLines, matches, startLine - 1);
+                final int after = getMatch(oldLines, matches, endLine + 1);
+                if(before >= 0) {
+                    newStart = before + 1;
+                } else if(after >= 0) {
+                    newStart = after - 1 - (endLine - startLine);
+                }
+            }
+            int newEnd = -1;
+            for(int line = endLine; line >= startLine && newEnd < 0; line--) {
+                final int matched = getMatch(oldLines, matches, line);
+                if(matched >= 0) newEnd = matched + (endLine - line);
+            }
+            if(newEnd < newStart) newEnd = newStart + (endLine - startLine);
+            if(newStart < 0 || newEnd >= document.getLineCount()) return null;
+            final int startOffset = getOffset(document, newStart, startColumn);
+            return new TextRange(startOffset, Math.max(startOffset, getOffset(document, newEnd, endColumn)));
+        }
+
+        private int getExpectedOffset(Document document, int[] oldLines, int[] matches) {
+            int expectedLine = startLine;
+            final int index = Arrays.binarySearch(oldLines, startLine);
+            final int insertion = index >= 0 ? index : -index - 1;
+            int above = insertion - 1;
+            while(above >= 0 && matches[above] < 0) above--;
+            int below = insertion;
+            while(below < oldLines.length && matches[below] < 0) below++;
+            if(above >= 0) {
+                expectedLine = matches[above] + (startLine - oldLines[above]);
+            } else if(below < oldLines.length) {
+                expectedLine = matches[below] - (oldLines[below] - startLine);
+            }
+            if(document.getLineCount() == 0) return 0;
+            return getOffset(document, Math.max(0, Math.min(expectedLine, document.getLineCount() - 1)), startColumn);
+        }
+
+        private static int getMatch(int[] oldLines, int[] matches, int line) {
+            final int index = Arrays.binarySearch(oldLines, line);
+            return index >= 0 ? matches[index] : -1;
+        }
+
+        private static int getOffset(Document document, int line, int column) {
+            final int lineStart = document.getLineStartOffset(line);
+            return lineStart + Math.min(column, document.getLineEndOffset(line) - lineStart);
+        }
+
+        private static int countLineBreaks(String text) {
+            int count = 0;
+            for(int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+                count++;
+            }
+            return count;
+        }
+    }
+}
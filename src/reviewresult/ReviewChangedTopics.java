@@ -9,6 +9,7 @@ import com.intellij.util.messages.Topic;
  */
 public class ReviewChangedTopics {
     public static final Topic<ReviewsChangedListener> REVIEW_STATUS = new Topic<ReviewsChangedListener>("review", ReviewsChangedListener.class);
+    public static final Topic<ReviewsBatchListener> REVIEWS_BATCH = new Topic<ReviewsBatchListener>("reviews batch", ReviewsBatchListener.class);
 
     private ReviewChangedTopics() {}
 }
@@ -0,0 +1,30 @@
+package reviewresult;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Change of one review in a batch of review events
+ */
+public class ReviewDelta {
+    public enum Kind {
+        ADDED, CHANGED, DELETED
+    }
+
+    private final Review review;
+    private final Kind kind;
+
+    public ReviewDelta(@NotNull Review review, @NotNull Kind kind) {
+        this.review = review;
+        this.kind = kind;
+    }
+
+    @NotNull
+    public Review getReview() {
+        return review;
+    }
+
+    @NotNull
+    public Kind getKind() {
+        return kind;
+    }
+}
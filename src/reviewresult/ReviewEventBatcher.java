@@ -0,0 +1,103 @@
+package reviewresult;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.util.Alarm;
+
+import java.util.*;
+
+/**
+ * Passes review events to REVIEW_STATUS listeners at once and collects them for REVIEWS_BATCH listeners.
+ * Events of the same review are merged into one delta. A batch is published after a short delay
+ * or when the last bulk operation ends, but not while a bulk operation is running.
+ */
+class ReviewEventBatcher implements ReviewsChangedListener {
+    private static final int DELAY = 100;
+
+    private final Project project;
+    private final ReviewsChangedListener publisher;
+    private final Map<Review, ReviewDelta> pending = new LinkedHashMap<Review, ReviewDelta>();
+    private final Alarm alarm;
+    private int bulkDepth;
+    private boolean scheduled;
+
+    private final Runnable flush = new Runnable() {
+        public void run() {
+            flush();
+        }
+    };
+
+    ReviewEventBatcher(Project project, ReviewsChangedListener publisher) {
+        this.project = project;
+        this.publisher = publisher;
+        alarm = new Alarm(Alarm.ThreadToUse.SWING_THREAD, project);
+    }
+
+    public void reviewAdded(Review review) {
+        publisher.reviewAdded(review);
+        add(review, ReviewDelta.Kind.ADDED);
+    }
+
+    public void reviewDeleted(Review review) {
+        publisher.reviewDeleted(review);
+        add(review, ReviewDelta.Kind.DELETED);
+    }
+
+    public void reviewChanged(Review newReview) {
+        publisher.reviewChanged(newReview);
+        add(newReview, ReviewDelta.Kind.CHANGED);
+    }
+
+    synchronized void beginBulk() {
+        bulkDepth++;
+    }
+
+    synchronized void endBulk() {
+        bulkDepth--;
+        if(bulkDepth == 0 && !pending.isEmpty()) {
+            alarm.cancelAllRequests();
+            scheduled = true;
+            alarm.addRequest(flush, 0);
+        }
+    }
+
+    private synchronized void add(Review review, ReviewDelta.Kind kind) {
+        final ReviewDelta delta = pending.get(review);
+        final ReviewDelta.Kind merged = delta == null ? kind : merge(delta.getKind(), kind);
+        if(merged == null) {
+            pending.remove(review);
+        } else {
+            pending.put(review, new ReviewDelta(review, merged));
+        }
+        if(bulkDepth == 0 && !scheduled) {
+            scheduled = true;
+            alarm.addRequest(flush, DELAY);
+        }
+    }
+
+    /**
+     * @return kind of both changes or null if they cancel each other
+     */
+    private static ReviewDelta.Kind merge(ReviewDelta.Kind first, ReviewDelta.Kind second) {
+        switch (first) {
+            case ADDED:
+                return second == ReviewDelta.Kind.DELETED ? null : ReviewDelta.Kind.ADDED;
+            case DELETED:
+                return second == ReviewDelta.Kind.ADDED ? ReviewDelta.Kind.CHANGED : ReviewDelta.Kind.DELETED;
+            default:
+                return second == ReviewDelta.Kind.DELETED ? ReviewDelta.Kind.DELETED : ReviewDelta.Kind.CHANGED;
+        }
+    }
+
+    private void flush() {
+        final List<ReviewDelta> deltas;
+        synchronized (this) {
+            scheduled = false;
+            if(bulkDepth > 0 || pending.isEmpty()) return;
+            deltas = new ArrayList<ReviewDelta>(pending.values());
+            pending.clear();
+        }
+        if(project.isDisposed()) return;
+        project.getMessageBus().syncPublisher(ReviewChangedTopics.REVIEWS_BATCH).
+                                                            reviewsChanged(Collections.unmodifiableList(deltas));
+    }
+}
@@ -1,38 +1,51 @@
 package reviewresult;
 
+import com.intellij.concurrency.JobLauncher;
 import com.intellij.ide.startup.StartupManagerEx;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.components.AbstractProjectComponent;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.event.DocumentAdapter;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.fileEditor.FileEditorManagerAdapter;
+import com.intellij.openapi.fileEditor.FileEditorManagerListener;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
 import com.intellij.openapi.project.DumbAware;
 import com.intellij.openapi.project.DumbAwareRunnable;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootManager;
 import com.intellij.openapi.startup.StartupManager;
+import com.intellij.openapi.util.EmptyRunnable;
+import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.vfs.*;
-import com.intellij.util.io.URLUtil;
-import com.intellij.util.xmlb.XmlSerializer;
-import org.jdom.Element;
-import org.jdom.JDOMException;
-import org.jdom.input.SAXBuilder;
-import org.jdom.output.Format;
-import org.jdom.output.XMLOutputter;
+import com.intellij.util.Processor;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import reviewresult.persistent.ReviewBean;
+import reviewresult.persistent.ReviewItem;
 import reviewresult.persistent.ReviewsState;
+import reviewresult.persistent.ReviewsXmlReader;
+import reviewresult.persistent.ReviewsXmlWriter;
+import ui.gutterpoint.DocumentReviewTracker;
 import ui.gutterpoint.ReviewPointManager;
+import utils.DocumentHashes;
 import utils.ReviewsBundle;
 import utils.Util;
 
-import javax.xml.transform.*;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
-import java.io.File;
-import java.io.IOException;
-import java.io.StringReader;
-import java.io.StringWriter;
-import java.net.URL;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.TransformerException;
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * User: Alisa.Afonina
@@ -44,20 +57,64 @@ public class ReviewManager extends AbstractProjectComponent implements DumbAware
     private static final Logger LOG = Logger.getInstance(ReviewManager.class.getName());
     private final StartupManagerEx startupManager;
 
-    private Map<String, List<Review>> filePath2reviews = new HashMap<String, List<Review>>();
-    private List<Review> removed = new ArrayList<Review>();
-    private List<String> availableTags = new ArrayList<String>();
-    private final ReviewsChangedListener eventPublisher;
+    private final ReviewStore store = new ReviewStore(new FacetIndex(new FacetIndex.ModuleResolver() {
+        @Nullable
+        public String getModuleName(@NotNull Review review) {
+            return ReviewManager.this.getModuleName(review);
+        }
+    }));
+    private final Map<String, ReviewsState.FileReviewsList> snapshots = new LinkedHashMap<String, ReviewsState.FileReviewsList>();
+    //loaded reviews of files which have not been opened yet, turned into Review objects by ensureLoaded()
+    private final Map<String, ReviewsState.FileReviewsList> pending = new LinkedHashMap<String, ReviewsState.FileReviewsList>();
+    private boolean pendingFacetsCollected;
+    //loaded reviews of changed files, placed when ContextCheckTask finds their new offsets
+    private final Map<String, ReviewsState.FileReviewsList> checking = new HashMap<String, ReviewsState.FileReviewsList>();
+    //checksums of files changed while offsets of their reviews were not tracked, the offsets still match this text
+    private final Map<String, String> untrackedChecksums = new HashMap<String, String>();
+    //tags and authors of reviews which are not created yet and tags added by user, the rest is in the facet index
+    private final Set<String> availableTags = new LinkedHashSet<String>();
+    private final Set<String> authors = new LinkedHashSet<String>();
+    private final ReviewEventBatcher eventPublisher;
+    private final HtmlReportWriter reportWriter;
+    //changed when reviews are replaced without events, listeners which keep reviews should reload them
+    private int reloadCount;
 
     private boolean saveReviewsToPatch = true;
-    private List<String> authors = new ArrayList<String>();
 
     public ReviewManager(@NotNull final Project project, final StartupManager startupManager) {
         super(project);
         this.startupManager = (StartupManagerEx)startupManager;
 
         VirtualFileManager.getInstance().addVirtualFileListener(new ReviewVirtualFileListener(), project);
-        eventPublisher = project.getMessageBus().syncPublisher(ReviewChangedTopics.REVIEW_STATUS);
+        EditorFactory.getInstance().getEventMulticaster().addDocumentListener(new DocumentAdapter() {
+            @Override
+            public void beforeDocumentChange(DocumentEvent event) {
+                Document document = event.getDocument();
+                if(DocumentReviewTracker.findInstance(document) != null) return;
+                VirtualFile file = FileDocumentManager.getInstance().getFile(document);
+                if(file != null) {
+                    rememberUntrackedChecksum(Util.getFilePath(myProject, file), document);
+                }
+            }
+
+            @Override
+            public void documentChanged(DocumentEvent event) {
+                VirtualFile file = FileDocumentManager.getInstance().getFile(event.getDocument());
+                if(file != null) {
+                    contentsChanged(file);
+                }
+            }
+        }, project);
+        project.getMessageBus().connect(project).subscribe(FileEditorManagerListener.FILE_EDITOR_MANAGER,
+                                                           new FileEditorManagerAdapter() {
+            @Override
+            public void fileOpened(FileEditorManager source, VirtualFile file) {
+                ensureLoaded(Util.getFilePath(myProject, file));
+            }
+        });
+        eventPublisher = new ReviewEventBatcher(project,
+                                project.getMessageBus().syncPublisher(ReviewChangedTopics.REVIEW_STATUS));
+        reportWriter = new HtmlReportWriter(project);
 
     }
 
@@ -67,24 +124,46 @@ public class ReviewManager extends AbstractProjectComponent implements DumbAware
 
 
     public List<ReviewsState.FileReviewsList> getState() {
-        List<ReviewsState.FileReviewsList> result = new ArrayList<ReviewsState.FileReviewsList>();
-
-        for (Map.Entry<String, List<Review>> entry : filePath2reviews.entrySet()) {
+        for (String filePath : store.pollDirtyFiles()) {
             List<ReviewBean> resultBeans = new ArrayList<ReviewBean>();
-            for (Review review : entry.getValue()) {
+            for (Review review : store.getReviews(filePath)) {
                 resultBeans.add(review.getReviewBean());
             }
-            for(Review removedReview : removed) {
-                if(removedReview.getFilePath().equals(entry.getKey())) {
-                    resultBeans.add(removedReview.getReviewBean());
-                }
+            for(Review removedReview : store.getRemovedReviews(filePath)) {
+                resultBeans.add(removedReview.getReviewBean());
+            }
+            if(resultBeans.isEmpty()) {
+                snapshots.remove(filePath);
+            } else {
+                String checksum = untrackedChecksums.containsKey(filePath) ? untrackedChecksums.get(filePath)
+                                                                            : Util.getInstance(myProject).getCheckSum(filePath);
+                snapshots.put(filePath, new ReviewsState.FileReviewsList(filePath, checksum, resultBeans));
             }
-            final String filePath = entry.getKey();
-            result.add(new ReviewsState.FileReviewsList(filePath,
-                    Util.getInstance(myProject).getCheckSum(filePath),
-                    resultBeans));
         }
-        return result;
+        //files which were not opened or are checked in background are saved as they were loaded
+        Map<String, ReviewsState.FileReviewsList> result = new LinkedHashMap<String, ReviewsState.FileReviewsList>(snapshots);
+        for(ReviewsState.FileReviewsList list : pending.values()) {
+            addLoadedList(result, list);
+        }
+        for(ReviewsState.FileReviewsList list : checking.values()) {
+            addLoadedList(result, list);
+        }
+        return new ArrayList<ReviewsState.FileReviewsList>(result.values());
+    }
+
+    private static void addLoadedList(Map<String, ReviewsState.FileReviewsList> result, ReviewsState.FileReviewsList list) {
+        ReviewsState.FileReviewsList snapshot = result.get(list.getFilePath());
+        if(snapshot == null) {
+            result.put(list.getFilePath(), list);
+            return;
+        }
+        List<ReviewBean> beans = new ArrayList<ReviewBean>(snapshot.getReviewBeans());
+        for(ReviewBean bean : list.getReviewBeans()) {
+            if(!beans.contains(bean)) {
+                beans.add(bean);
+            }
+        }
+        result.put(list.getFilePath(), new ReviewsState.FileReviewsList(list.getFilePath(), snapshot.getChecksum(), beans));
     }
 
     public void loadState(List<ReviewsState.FileReviewsList> reviewBeans) {
@@ -95,25 +174,33 @@ public class ReviewManager extends AbstractProjectComponent implements DumbAware
         loadReviews(reviewBeans, true);
     }
 
-    public void loadReviews(final List<ReviewsState.FileReviewsList> lists, boolean isPartOfState) {
+    public void loadReviews(final List<ReviewsState.FileReviewsList> lists, final boolean isPartOfState) {
         if(!isPartOfState) {
-            filePath2reviews = new HashMap<String, List<Review>>();
+            reloadCount++;
+            store.clear();
+            pending.clear();
+            checking.clear();
+            untrackedChecksums.clear();
+            availableTags.clear();
+            authors.clear();
+            pendingFacetsCollected = false;
+            for(ReviewsState.FileReviewsList list : lists) {
+                pending.put(list.getFilePath(), list);
+            }
         }
         final Runnable runnable = new DumbAwareRunnable() {
             public void run() {
-                for(ReviewsState.FileReviewsList list : lists) {
-                    String filePath = list.getFilePath();
-
-                    boolean checkSumIsCorrect = list.getChecksum().equals(
-                                                        Util.getInstance(myProject).getCheckSum(filePath));
-                    for (ReviewBean reviewBean : list.getReviewBeans()) {
-                        final Review review = new Review(reviewBean, myProject, filePath);
-                        if(!checkSumIsCorrect)
-                            review.checkContext();
-                        placeReview(review);
+                if(isPartOfState) {
+                    for(ReviewsState.FileReviewsList list : lists) {
+                        ensureLoaded(list.getFilePath());
                     }
+                    hydrate(lists, false);
+                } else {
+                    for(VirtualFile file : FileEditorManager.getInstance(myProject).getOpenFiles()) {
+                        ensureLoaded(Util.getFilePath(myProject, file));
                     }
                 }
+            }
         };
         if (startupManager.startupActivityPassed()) {
             runnable.run();
@@ -123,54 +210,133 @@ public class ReviewManager extends AbstractProjectComponent implements DumbAware
         }
     }
 
+    /**
+     * Creates reviews of the file from the loaded state, if it was not done yet
+     */
+    public void ensureLoaded(@Nullable String filePath) {
+        if(filePath == null || pending.isEmpty() || !startupManager.startupActivityPassed()) return;
+        ReviewsState.FileReviewsList list = pending.remove(filePath);
+        if(list != null) {
+            hydrate(Collections.singletonList(list), true);
+        }
+    }
+
+    public void ensureAllLoaded() {
+        if(pending.isEmpty() || !startupManager.startupActivityPassed()) return;
+        List<ReviewsState.FileReviewsList> lists = new ArrayList<ReviewsState.FileReviewsList>(pending.values());
+        pending.clear();
+        hydrate(lists, true);
+    }
+
+    /**
+     * Creates reviews from the loaded lists. Reviews of changed files are placed after their context is checked,
+     * in background if checkInBackground is set
+     */
+    private void hydrate(List<ReviewsState.FileReviewsList> lists, boolean checkInBackground) {
+        beginBulkUpdate();
+        try {
+            placeLoadedReviews(lists, checkInBackground);
+        } finally {
+            endBulkUpdate();
+        }
+    }
+
+    private void placeLoadedReviews(List<ReviewsState.FileReviewsList> lists, boolean checkInBackground) {
+        List<FileContextCheck> checks = new ArrayList<FileContextCheck>();
+        for(ReviewsState.FileReviewsList list : lists) {
+            String filePath = list.getFilePath();
+            Document document = Util.getInstance(myProject).getDocument(filePath);
+            DocumentHashes.Change change = document == null ? null :
+                                           DocumentHashes.getInstance(document).getChangeSince(list.getChecksum());
+            if(document == null || change != null && change.isEmpty()) {
+                placeReviews(createReviews(list, null));
+                continue;
+            }
+            ReviewAnchoring anchoring = new ReviewAnchoring(list.getReviewBeans());
+            if(checkInBackground) {
+                checking.put(filePath, list);
+                checks.add(new FileContextCheck(list, document, change, anchoring));
+            } else {
+                placeReviews(createReviews(list, anchoring.anchor(document, change)));
+            }
+        }
+        if(!checks.isEmpty()) {
+            new ContextCheckTask(checks).queue();
+        }
+    }
+
+    /**
+     * @param ranges new offsets of the loaded reviews found by ReviewAnchoring, or null to keep the saved ones
+     */
+    private List<Review> createReviews(ReviewsState.FileReviewsList list, @Nullable Map<ReviewBean, TextRange> ranges) {
+        if(ranges != null) {
+            for(ReviewBean reviewBean : list.getReviewBeans()) {
+                TextRange range = ranges.get(reviewBean);
+                if(range != null) {
+                    reviewBean.getContext().setStart(range.getStartOffset());
+                    reviewBean.getContext().setEnd(range.getEndOffset());
+                }
+            }
+        }
+        List<Review> reviews = new ArrayList<Review>();
+        for (ReviewBean reviewBean : list.getReviewBeans()) {
+            reviews.add(new Review(reviewBean, myProject, list.getFilePath()));
+        }
+        return reviews;
+    }
+
+    private void placeReviews(List<Review> reviews) {
+        beginBulkUpdate();
+        try {
+            for(Review review : reviews) {
+                placeReview(review);
+            }
+        } finally {
+            endBulkUpdate();
+        }
+    }
+
+    /**
+     * Batched review events are held until the matching endBulkUpdate(), brackets may be nested
+     */
+    public void beginBulkUpdate() {
+        eventPublisher.beginBulk();
+    }
+
+    public void endBulkUpdate() {
+        eventPublisher.endBulk();
+    }
+
 
     public void placeReview(Review newReview) {
-            List<Review> reviewList = filePath2reviews.get(newReview.getFilePath());
-            if(reviewList == null || reviewList.isEmpty()) {
-                    reviewList = new ArrayList<Review>();
-            }
-            int existingReviewIndex = reviewList.indexOf(newReview);
-            int nonExistingReviewIndex = removed.indexOf(newReview);
-            if(nonExistingReviewIndex >= 0) {
-                Review review = removed.get(nonExistingReviewIndex);
+            ensureLoaded(newReview.getFilePath());
+            Review existingReview = store.getLiveReview(newReview.getFilePath(), newReview);
+            Review removedReview = store.getRemovedReview(newReview);
+            if(removedReview != null) {
                 if(newReview.isValid()) {
-                    selectReviewState(review, newReview);
+                    selectReviewState(removedReview, newReview);
                     return;
                 }
             }
-            if(existingReviewIndex >= 0) {
-                Review review = reviewList.get(existingReviewIndex);
+            if(existingReview != null) {
                 //state of review changed from valid to invalid
                 if(!newReview.isValid()) {
-                    //selectReviewState(review, newReview);
-                    removeReview(review);
+                    //selectReviewState(existingReview, newReview);
+                    removeReview(existingReview);
                     return;
                 } else {
                     //review exists and is valid, but something changed
-                    mergeReviews(review, newReview);
+                    mergeReviews(existingReview, newReview);
                 }
             }
              else {
                 if(newReview.isValid() && !newReview.isDeleted()) {
-                    if(reviewList.isEmpty()) {
-                        filePath2reviews.put(newReview.getFilePath(), reviewList);
-                    }
-                    reviewList.add(newReview);
-                    addTags(newReview.getTags());
-                    for(String author : newReview.getAuthors()) {
-                        if(!authors.contains(author))
-                            authors.add(author);
-                    }
+                    store.add(newReview);
                     eventPublisher.reviewAdded(newReview);
                 }
                 else {
-                    if(!removed.contains(newReview)) {
-                        addTags(newReview.getTags());
-                        for(String author : newReview.getAuthors()) {
-                        if(!authors.contains(author))
-                            authors.add(author);
-                        }
-                        removed.add(newReview);
+                    if(removedReview == null) {
+                        store.remove(newReview);
                     }
                     return;
                 }
@@ -180,9 +346,24 @@ public class ReviewManager extends AbstractProjectComponent implements DumbAware
     }
 
     public void changeReview(Review review) {
+        store.reindex(review);
         eventPublisher.reviewChanged(review);
     }
 
+    /**
+     * Reports changes of several reviews in one batch
+     */
+    public void changeReviews(Collection<Review> reviews) {
+        beginBulkUpdate();
+        try {
+            for(Review review : reviews) {
+                changeReview(review);
+            }
+        } finally {
+            endBulkUpdate();
+        }
+    }
+
     private void mergeReviews(Review oldReview, Review newReview) {
         if(!oldReview.getReviewBean().hasEqualContents(newReview.getReviewBean())) {
             if(Messages.showYesNoDialog(ReviewsBundle.message("reviews.reviewAlreadyExistsQuestion"),
@@ -195,6 +376,7 @@ public class ReviewManager extends AbstractProjectComponent implements DumbAware
     }
 
     public void updateReview(Review review) {
+        store.reindex(review);
         eventPublisher.reviewChanged(review);
     }
 
@@ -217,25 +399,25 @@ public class ReviewManager extends AbstractProjectComponent implements DumbAware
         }
         eventPublisher.reviewDeleted(review);
         ReviewPointManager.getInstance(myProject).reloadReviewPoint(review);
-        removed.add(review);
-        filePath2reviews.get(review.getFilePath()).remove(review);
+        store.remove(review);
     }
 
     public void undoReviewRemoval(Review review) {
         if(review.isDeleted()) {
             review.setDeleted(false);
             review.setValid(true);
-            removed.remove(review);
+            store.restore(review);
+            //placeReview() reports the review as added, so indices of live reviews add it without a reload
             //filePath2reviews.get(review.getFilePath()).add(review);
             placeReview(review);
         }
     }
 
     public void removeAll(String filepath) {
-        List<Review> reviews = filePath2reviews.get(filepath);
-        if(!(reviews == null || reviews.isEmpty())) {
-            List<Review> removableReviews = new ArrayList<Review>(reviews);
-            for (Review review : removableReviews) {
+        ensureLoaded(filepath);
+        List<Review> reviews = store.getReviews(filepath);
+        if(!reviews.isEmpty()) {
+            for (Review review : reviews) {
                 removeReview(review);
             }
         } else {
@@ -249,9 +431,10 @@ public class ReviewManager extends AbstractProjectComponent implements DumbAware
 
     @Nullable
     public List<Review> getValidReviews(String filepath) {
+        ensureLoaded(filepath);
         ArrayList<Review> reviewsList = new ArrayList<Review>();
-        List<Review> reviews = filePath2reviews.get(filepath);
-        if(reviews == null || reviews.isEmpty()) return reviews;
+        if(!store.containsFile(filepath)) return null;
+        List<Review> reviews = store.getReviews(filepath);
         for(Review review : reviews) {
             if(review.isValid()) {
                 reviewsList.add(review);
@@ -261,8 +444,9 @@ public class ReviewManager extends AbstractProjectComponent implements DumbAware
     }
 
     private List<ReviewBean> getReviewsForFile(String filepath) {
-        List<Review> reviewsPart = filePath2reviews.get(filepath);
-        if(reviewsPart != null && !reviewsPart.isEmpty()) {
+        ensureLoaded(filepath);
+        List<Review> reviewsPart = store.getReviews(filepath);
+        if(!reviewsPart.isEmpty()) {
             List<ReviewBean> reviewBeans = new ArrayList<ReviewBean>();
             for(Review review : reviewsPart) {
                 reviewBeans.add(review.getReviewBean());
@@ -271,33 +455,53 @@ public class ReviewManager extends AbstractProjectComponent implements DumbAware
         }
         return null;
     }
+    public int getReloadCount() {
+        return reloadCount;
+    }
+
+    public boolean containsReview(Review review) {
+        return store.getLiveReview(review.getFilePath(), review) == review;
+    }
+
     @Nullable
     public Set<String> getFileNames() {
-        return filePath2reviews.keySet();
+        return store.getFilePaths();
     }
 
     public int getReviewCount(@NotNull Collection<VirtualFile> virtualFiles) {
         int reviewCount = 0;
         if(!saveReviewsToPatch) return reviewCount;
         for(VirtualFile file : virtualFiles) {
-                List<Review> reviews = filePath2reviews.get(Util.getFilePath(myProject, file));
-                if(!(reviews == null || reviews.isEmpty())) {
-                    reviewCount += reviews.size();
-                }
+                String filePath = Util.getFilePath(myProject, file);
+                ensureLoaded(filePath);
+                reviewCount += store.getReviewCount(filePath);
             }
         return reviewCount;
     }
 
+    @Nullable
     public Review getReviewInLine(String url, int line) {
-        List<Review> reviews = filePath2reviews.get(url);
-        if(!(reviews == null || reviews.isEmpty())) {
-            for(Review review : reviews) {
-                if(review.getLineNumber() == line) return review;
-            }
+        ensureLoaded(url);
+        if(!store.containsFile(url)) return null;
+        return getReviewInLine(url, Util.getInstance(myProject).getDocument(url), line);
+    }
+
+    @Nullable
+    public Review getReviewInLine(String url, @Nullable Document document, int line) {
+        if(document == null || line < 0 || line >= document.getLineCount()) return null;
+        ensureLoaded(url);
+        for(Review review : store.getReviewsInRange(url, document.getLineStartOffset(line), document.getLineEndOffset(line))) {
+            if(review.getReviewBean().isValid()) return review;
         }
         return null;
     }
 
+    @NotNull
+    public List<Review> getReviewsAtOffset(String url, int offset) {
+        ensureLoaded(url);
+        return store.getReviewsOverlapping(url, offset, offset);
+    }
+
     @NotNull
     @Override
     public String getComponentName() {
@@ -316,48 +520,30 @@ public class ReviewManager extends AbstractProjectComponent implements DumbAware
         this.saveReviewsToPatch = saveReviewsToPatch;
     }
 
-   public String getExportText(boolean prettyFormat) {
-        ReviewsState.State state = new ReviewsState.State();
-        state.setReviews(getState());
-        final String reportText = serialize(state);
-        if(prettyFormat) {
-            if(state.getReviews().isEmpty()) return null;
-            return  getHTMLReport(reportText);
-        }
-        return reportText;
-   }
-
-   public String getHTMLReport(String reportText) {
+    /**
+     * Writes reviews to the file as XML or as HTML report
+     * @return false if there are no reviews for the report
+     */
+    public boolean exportReviews(@NotNull VirtualFile file, boolean prettyFormat) throws IOException {
+        final List<ReviewsState.FileReviewsList> reviews = getState();
+        if(prettyFormat && reviews.isEmpty()) return false;
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(file.getOutputStream(this), "UTF-8"));
         try {
-            URL xsltUrl = getClass().getResource("/web/report.xsl");
-            Source xslSource = new StreamSource(URLUtil.openStream(xsltUrl));
-            TransformerFactory transformerFactory = TransformerFactory.newInstance();
-            transformerFactory.setURIResolver(new URIResolver() {
-                @Override
-                public Source resolve(String href, String base) throws TransformerException {
-                    URL url = getClass().getResource("/web/" + href.substring(7));
-                    try {
-                        return new StreamSource(URLUtil.openStream(url));
-                    } catch (IOException e) {
-                        LOG.error(e);
-                    }
-                    return null;
-                }
-            });
-            StringWriter stringWriter = new StringWriter();
-            transformerFactory.newTransformer(xslSource).transform(
-                    new StreamSource(new StringReader(reportText)),
-                    new StreamResult(stringWriter)
-            );
-            return "<!--" + reportText + "-->" + Util.getInstance(myProject).getHTMLContents(stringWriter.toString());
-        } catch (IOException e) {
-           LOG.error(e);
-        } catch (TransformerConfigurationException e) {
-           LOG.error(e);
+            if(prettyFormat) {
+                reportWriter.write(reviews, writer);
+            } else {
+                ReviewsXmlWriter.write(reviews, writer);
+            }
+        } catch (XMLStreamException e) {
+            LOG.error(e);
+            throw new IOException(e.getMessage());
         } catch (TransformerException e) {
-           LOG.error(e);
+            LOG.error(e);
+            throw new IOException(e.getMessage());
+        } finally {
+            writer.close();
         }
-        return null;
+        return true;
     }
 
     public String getExportTextForFile(String filepath) {
@@ -366,42 +552,40 @@ public class ReviewManager extends AbstractProjectComponent implements DumbAware
        ReviewsState.FileReviewsList fileReviewsList = new ReviewsState.FileReviewsList(filepath,
                                                                                        Util.getInstance(myProject).getCheckSum(filepath),
                                                                                        reviewsForFile);
-       ReviewsState.State state = new ReviewsState.State();
-       state.getReviews().add(fileReviewsList);
-       return serialize(state);
+       return serialize(Collections.singletonList(fileReviewsList));
    }
 
-    public String serialize(Object state) {
-        String result = "";
-        Element addedElement = XmlSerializer.serialize(state);
-        XMLOutputter outputter = new XMLOutputter(Format.getPrettyFormat());
-        result += outputter.outputString(addedElement);
-        return result;
+    public String serialize(List<ReviewsState.FileReviewsList> reviews) {
+        StringWriter writer = new StringWriter();
+        try {
+            ReviewsXmlWriter.write(reviews, writer);
+        } catch (XMLStreamException e) {
+            LOG.error(e);
+            return "";
+        }
+        return writer.toString();
     }
 
     public void importReviewsForFile(String path, String content) {
         VirtualFile file = myProject.getBaseDir().findFileByRelativePath(path);
             if(file == null) return;
             try {
-                SAXBuilder builder = new SAXBuilder();
-                Element root = builder.build(new StringReader(content)).getRootElement();
-                ReviewsState.State state = XmlSerializer.deserialize(root, ReviewsState.State.class);
+                ReviewsState.State state = ReviewsXmlReader.read(new StringReader(content));
                 ReviewManager reviewManager = ReviewManager.getInstance(myProject);
                 reviewManager.loadReviewsForFile(state.getReviews());
-            } catch(JDOMException e) {
+            } catch(XMLStreamException e) {
                 LOG.error(e);
             } catch(NullPointerException e) {
                 LOG.error(e);
-            } catch (IOException e) {
-                LOG.error(e);
             }
     }
 
     public String[] getAuthors() {
-        if(!authors.contains(System.getProperty("user.name"))) {
-            authors.add(System.getProperty("user.name"));
-        }
-        return authors.toArray(new String[authors.size()]);
+        collectPendingFacets();
+        Set<String> result = new LinkedHashSet<String>(store.getFacets().getCounts(FacetIndex.Facet.AUTHOR).keySet());
+        result.addAll(authors);
+        result.add(System.getProperty("user.name"));
+        return result.toArray(new String[result.size()]);
     }
 
     public void addTags(List<String> tags) {
@@ -409,15 +593,96 @@ public class ReviewManager extends AbstractProjectComponent implements DumbAware
     }
 
     public String[] getAvailableTags() {
-        return availableTags.toArray(new String[availableTags.size()]);
+        collectPendingFacets();
+        Set<String> result = new LinkedHashSet<String>(store.getFacets().getCounts(FacetIndex.Facet.TAG).keySet());
+        result.addAll(availableTags);
+        return result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * @return numbers of live reviews per value of the facet
+     */
+    @NotNull
+    public Map<String, Integer> getFacetCounts(@NotNull FacetIndex.Facet facet) {
+        return store.getFacets().getCounts(facet);
+    }
+
+    @NotNull
+    public FacetIndex getFacets() {
+        return store.getFacets();
+    }
+
+    @Nullable
+    public String getModuleName(@NotNull Review review) {
+        VirtualFile file = Util.getInstance(myProject).getVirtualFile(review.getFilePath());
+        if(file == null) return null;
+        Module module = ProjectRootManager.getInstance(myProject).getFileIndex().getModuleForFile(file);
+        return module == null ? null : module.getName();
+    }
+
+    private void collectPendingFacets() {
+        if(pendingFacetsCollected) return;
+        pendingFacetsCollected = true;
+        for(ReviewsState.FileReviewsList list : pending.values()) {
+            for(ReviewBean bean : list.getReviewBeans()) {
+                availableTags.addAll(bean.getTags());
+                for(ReviewItem item : bean.getReviewItems()) {
+                    authors.add(item.getAuthor());
+                }
+            }
+        }
     }
 
     public void undoMultipleReviewRemoval(String filepath) {
-        for(Review review : removed) {
-            if(review.getFilePath().equals(filepath)) {
-                undoReviewRemoval(review);
+        ensureLoaded(filepath);
+        for(Review review : store.getRemovedReviews(filepath)) {
+            undoReviewRemoval(review);
+        }
+    }
+
+    /**
+     * Keeps the checksum of the text before the change, so reviews of the file are anchored again
+     * when it is opened or loaded next time
+     */
+    private void rememberUntrackedChecksum(@Nullable String filePath, @NotNull Document document) {
+        if(filePath == null || !store.containsFile(filePath) || untrackedChecksums.containsKey(filePath)) return;
+        untrackedChecksums.put(filePath, DocumentHashes.getInstance(document).getChecksum());
+    }
+
+    /**
+     * Finds reviews of a file changed while it was not shown in an editor, before their points are created
+     */
+    public void anchorUntrackedReviews(@Nullable String filePath) {
+        if(filePath == null || !untrackedChecksums.containsKey(filePath)) return;
+        Document document = Util.getInstance(myProject).getDocument(filePath);
+        if(document == null) return;
+        String checksum = untrackedChecksums.remove(filePath);
+        List<Review> reviews = new ArrayList<Review>(store.getReviews(filePath));
+        reviews.addAll(store.getRemovedReviews(filePath));
+        List<ReviewBean> beans = new ArrayList<ReviewBean>(reviews.size());
+        for(Review review : reviews) {
+            beans.add(review.getReviewBean());
+        }
+        Map<ReviewBean, TextRange> ranges = new ReviewAnchoring(beans)
+                .anchor(document, DocumentHashes.getInstance(document).getChangeSince(checksum));
+        List<Review> changed = new ArrayList<Review>();
+        for(Review review : reviews) {
+            TextRange range = ranges.get(review.getReviewBean());
+            if(range != null && (range.getStartOffset() != review.getStart() || range.getEndOffset() != review.getEnd())) {
+                review.setStart(range.getStartOffset());
+                review.setEnd(range.getEndOffset());
+                changed.add(review);
             }
         }
+        store.markDirty(filePath);
+        changeReviews(changed);
+    }
+
+    private void contentsChanged(VirtualFile file) {
+        final String filePath = Util.getFilePath(myProject, file);
+        if(store.containsFile(filePath)) {
+            store.markDirty(filePath);
+        }
     }
 
     private class ReviewVirtualFileListener extends VirtualFileAdapter {
@@ -429,14 +694,20 @@ public class ReviewManager extends AbstractProjectComponent implements DumbAware
             String  newUrl  = Util.getFilePath(myProject, event.getNewParent())
                                                           + File.pathSeparator
                                                           + event.getFileName();
-            List<Review> reviewList = filePath2reviews.get(url);
-            if(!(reviewList == null || reviewList.isEmpty())) {
-                filePath2reviews.remove(url);
-                filePath2reviews.put(newUrl, reviewList);
-                for (Review review : reviewList) {
+            ensureLoaded(url);
+            ReviewsState.FileReviewsList checkedList = checking.remove(url);
+            if(checkedList != null) {
+                pending.put(newUrl, new ReviewsState.FileReviewsList(newUrl, checkedList.getChecksum(),
+                                                                     checkedList.getReviewBeans()));
+            }
+            if(untrackedChecksums.containsKey(url)) {
+                untrackedChecksums.put(newUrl, untrackedChecksums.remove(url));
+            }
+            if(store.containsFile(url)) {
+                for (Review review : store.getReviews(url)) {
                     eventPublisher.reviewDeleted(review);
-                    review.setFilePath(newUrl);
                 }
+                store.moveFile(url, newUrl);
             }
         }
 
@@ -445,23 +716,130 @@ public class ReviewManager extends AbstractProjectComponent implements DumbAware
             String  newUrl  = Util.getFilePath(myProject, event.getNewParent())
                                                           + File.pathSeparator
                                                           + event.getFileName();
-            List<Review> reviewList = filePath2reviews.get(newUrl);
-            if(!(reviewList == null || reviewList.isEmpty())) {
-                for (Review review : reviewList) {
-                    eventPublisher.reviewAdded(review);
-                }
+            for (Review review : store.getReviews(newUrl)) {
+                eventPublisher.reviewAdded(review);
             }
         }
 
+        @Override
+        public void beforeContentsChange(VirtualFileEvent event) {
+            VirtualFile file = event.getFile();
+            String filePath = Util.getFilePath(myProject, file);
+            if(filePath == null || !store.containsFile(filePath)) return;
+            Document document = FileDocumentManager.getInstance().getDocument(file);
+            if(document != null && DocumentReviewTracker.findInstance(document) == null) {
+                rememberUntrackedChecksum(filePath, document);
+            }
+        }
+
+        @Override
+        public void contentsChanged(VirtualFileEvent event) {
+            ReviewManager.this.contentsChanged(event.getFile());
+        }
+
         @Override
         public void beforeFileDeletion(VirtualFileEvent event) {
             VirtualFile oldFile = event.getFile();
             String url = Util.getFilePath(myProject, oldFile);
-            if(filePath2reviews.containsKey(url)) {
-                List<Review> reviewList = filePath2reviews.get(url);
-                filePath2reviews.remove(url);
-                for (Review review : reviewList) {
-                    review.setDeleted(true);
+            pending.remove(url);
+            checking.remove(url);
+            untrackedChecksums.remove(url);
+            for (Review review : store.removeFile(url)) {
+                review.setDeleted(true);
+            }
+            reloadCount++;
+        }
+    }
+
+    private static class FileContextCheck {
+        private final ReviewsState.FileReviewsList list;
+        private final Document document;
+        private final DocumentHashes.Change change;
+        private final ReviewAnchoring anchoring;
+        //stamp of the document the change was computed for
+        private final long changeStamp;
+        //found on a pooled thread, beans of the list are changed only on the event dispatch thread
+        private volatile Map<ReviewBean, TextRange> ranges;
+        private volatile long modificationStamp;
+
+        private FileContextCheck(ReviewsState.FileReviewsList list, Document document,
+                                 @Nullable DocumentHashes.Change change, ReviewAnchoring anchoring) {
+            this.list = list;
+            this.document = document;
+            this.change = change;
+            this.anchoring = anchoring;
+            changeStamp = document.getModificationStamp();
+        }
+    }
+
+    /**
+     * Finds new offsets of reviews in changed files on pooled threads and places all the reviews at once
+     */
+    private class ContextCheckTask extends Task.Backgroundable {
+        private final List<FileContextCheck> checks;
+
+        private ContextCheckTask(List<FileContextCheck> checks) {
+            super(myProject, ReviewsBundle.message("reviews.checkingContext"), true);
+            this.checks = checks;
+        }
+
+        @Override
+        public void run(@NotNull final ProgressIndicator indicator) {
+            indicator.setText(ReviewsBundle.message("reviews.checkingContext"));
+            final AtomicInteger checked = new AtomicInteger();
+            JobLauncher.getInstance().invokeConcurrentlyUnderProgress(checks, indicator, false,
+                                                                      new Processor<FileContextCheck>() {
+                public boolean process(final FileContextCheck check) {
+                    indicator.setText2(check.list.getFilePath());
+                    //the read action is cancelled by write actions and started again after them
+                    while(!ProgressIndicatorUtils.runInReadActionWithWriteActionPriority(new Runnable() {
+                        public void run() {
+                            long stamp = check.document.getModificationStamp();
+                            DocumentHashes.Change change = stamp == check.changeStamp ? check.change : null;
+                            check.ranges = check.anchoring.anchor(check.document, change);
+                            check.modificationStamp = stamp;
+                        }
+                    })) {
+                        indicator.checkCanceled();
+                        ApplicationManager.getApplication().invokeAndWait(EmptyRunnable.getInstance(),
+                                                                          ModalityState.any());
+                    }
+                    indicator.setFraction((double)checked.incrementAndGet() / checks.size());
+                    return true;
+                }
+            });
+        }
+
+        @Override
+        public void onSuccess() {
+            for(FileContextCheck check : checks) {
+                if(checking.get(check.list.getFilePath()) != check.list) continue;
+                checking.remove(check.list.getFilePath());
+                List<Review> reviews = createReviews(check.list, check.ranges);
+                if(check.document.getModificationStamp() != check.modificationStamp) {
+                    //document was changed while the task was running
+                    Map<ReviewBean, TextRange> ranges = check.anchoring.anchor(check.document, null);
+                    for(Review review : reviews) {
+                        TextRange range = ranges.get(review.getReviewBean());
+                        if(range != null) {
+                            review.changeContext(range.getStartOffset(), range.getEndOffset());
+                        }
+                    }
+                }
+                placeReviews(reviews);
+            }
+        }
+
+        @Override
+        public void onCancel() {
+            //reviews of files which were not checked are loaded again when the file is needed
+            for(FileContextCheck check : checks) {
+                if(checking.get(check.list.getFilePath()) != check.list) continue;
+                checking.remove(check.list.getFilePath());
+                if(check.ranges != null && check.document.getModificationStamp() == check.modificationStamp) {
+                    placeReviews(createReviews(check.list, check.ranges));
+                } else {
+                    pending.put(check.list.getFilePath(), check.list);
                 }
             }
         }
@@ -0,0 +1,232 @@
+package reviewresult;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import utils.IntervalTree;
+
+import java.util.*;
+
+/**
+ * In-memory storage of reviews.
+ * Reviews are indexed by guid and, per file, by their [start, end] offsets; removed reviews are kept
+ * per file as tombstones so that they can be restored and persisted.
+ *
+ * The offset index is built from the review offsets at the moment of insertion, so
+ * callers have to {@link #reindex(Review)} a review whenever its offsets change.
+ * Every modification marks the file of the review as dirty until {@link #pollDirtyFiles()} is called.
+ * Live reviews are also kept in the facet index, which is updated by reindex() as well.
+ */
+public class ReviewStore {
+    private final Map<String, Review> guid2review = new HashMap<String, Review>();
+    private final Map<String, FileReviews> filePath2reviews = new HashMap<String, FileReviews>();
+    private Set<String> dirtyFiles = new HashSet<String>();
+    private final FacetIndex facets;
+
+    public ReviewStore(@NotNull FacetIndex facets) {
+        this.facets = facets;
+    }
+
+    @NotNull
+    public FacetIndex getFacets() {
+        return facets;
+    }
+
+    @Nullable
+    public Review getReview(String guid) {
+        return guid2review.get(guid);
+    }
+
+    @Nullable
+    public Review getLiveReview(String filePath, Review review) {
+        final FileReviews fileReviews = filePath2reviews.get(filePath);
+        if(fileReviews == null) return null;
+        final Review existing = guid2review.get(getGuid(review));
+        return (existing != null && fileReviews.keys.containsKey(existing)) ? existing : null;
+    }
+
+    @Nullable
+    public Review getRemovedReview(Review review) {
+        final Review existing = guid2review.get(getGuid(review));
+        return (existing != null && isRemoved(existing)) ? existing : null;
+    }
+
+    public boolean isRemoved(Review review) {
+        final FileReviews fileReviews = filePath2reviews.get(review.getFilePath());
+        return fileReviews != null && fileReviews.removed.contains(review);
+    }
+
+    public void add(@NotNull Review review) {
+        final FileReviews fileReviews = getOrCreate(review.getFilePath());
+        fileReviews.removed.remove(review);
+        fileReviews.index(review);
+        guid2review.put(getGuid(review), review);
+        facets.add(review);
+        dirtyFiles.add(review.getFilePath());
+    }
+
+    public void remove(@NotNull Review review) {
+        final FileReviews fileReviews = getOrCreate(review.getFilePath());
+        fileReviews.unindex(review);
+        fileReviews.removed.add(review);
+        guid2review.put(getGuid(review), review);
+        facets.remove(review);
+        dirtyFiles.add(review.getFilePath());
+    }
+
+    public void restore(@NotNull Review review) {
+        final FileReviews fileReviews = filePath2reviews.get(review.getFilePath());
+        if(fileReviews != null) {
+            fileReviews.removed.remove(review);
+            dirtyFiles.add(review.getFilePath());
+        }
+    }
+
+    public void reindex(@NotNull Review review) {
+        final FileReviews fileReviews = filePath2reviews.get(review.getFilePath());
+        if(fileReviews != null && fileReviews.keys.containsKey(review)) {
+            fileReviews.index(review);
+            //most changes move the review, its facets are added again only if they were changed
+            facets.update(review);
+            dirtyFiles.add(review.getFilePath());
+        }
+    }
+
+    public void markDirty(String filePath) {
+        dirtyFiles.add(filePath);
+    }
+
+    /**
+     * @return files modified since the previous call
+     */
+    @NotNull
+    public Set<String> pollDirtyFiles() {
+        final Set<String> result = dirtyFiles;
+        dirtyFiles = new HashSet<String>();
+        return result;
+    }
+
+    public boolean containsFile(String filePath) {
+        return filePath2reviews.containsKey(filePath);
+    }
+
+    @NotNull
+    public Set<String> getFilePaths() {
+        return Collections.unmodifiableSet(filePath2reviews.keySet());
+    }
+
+    @NotNull
+    public List<Review> getReviews(String filePath) {
+        final FileReviews fileReviews = filePath2reviews.get(filePath);
+        if(fileReviews == null) return Collections.emptyList();
+        return fileReviews.intervals.getValues();
+    }
+
+    @NotNull
+    public List<Review> getRemovedReviews(String filePath) {
+        final FileReviews fileReviews = filePath2reviews.get(filePath);
+        if(fileReviews == null) return Collections.emptyList();
+        return new ArrayList<Review>(fileReviews.removed);
+    }
+
+    public int getReviewCount(String filePath) {
+        final FileReviews fileReviews = filePath2reviews.get(filePath);
+        return fileReviews == null ? 0 : fileReviews.intervals.size();
+    }
+
+    /**
+     * @return live reviews of the file which start inside [startOffset, endOffset], ordered by start
+     */
+    @NotNull
+    public List<Review> getReviewsInRange(String filePath, int startOffset, int endOffset) {
+        final FileReviews fileReviews = filePath2reviews.get(filePath);
+        if(fileReviews == null || startOffset > endOffset) return Collections.emptyList();
+        return fileReviews.intervals.findStartingIn(startOffset, endOffset);
+    }
+
+    /**
+     * @return live reviews of the file which intersect [startOffset, endOffset], ordered by start
+     */
+    @NotNull
+    public List<Review> getReviewsOverlapping(String filePath, int startOffset, int endOffset) {
+        final FileReviews fileReviews = filePath2reviews.get(filePath);
+        if(fileReviews == null || startOffset > endOffset) return Collections.emptyList();
+        return fileReviews.intervals.findOverlapping(startOffset, endOffset);
+    }
+
+    public void moveFile(String oldPath, String newPath) {
+        final FileReviews fileReviews = filePath2reviews.remove(oldPath);
+        if(fileReviews == null) return;
+        for(Review review : fileReviews.keys.keySet()) {
+            review.setFilePath(newPath);
+            //the module may change
+            facets.add(review);
+        }
+        for(Review review : fileReviews.removed) {
+            review.setFilePath(newPath);
+        }
+        filePath2reviews.put(newPath, fileReviews);
+        dirtyFiles.add(oldPath);
+        dirtyFiles.add(newPath);
+    }
+
+    /**
+     * Forgets the file with all its reviews, including removed ones.
+     * @return live reviews of the file
+     */
+    @NotNull
+    public List<Review> removeFile(String filePath) {
+        final FileReviews fileReviews = filePath2reviews.remove(filePath);
+        if(fileReviews == null) return Collections.emptyList();
+        dirtyFiles.add(filePath);
+        for(Review review : fileReviews.keys.keySet()) {
+            guid2review.remove(getGuid(review));
+            facets.remove(review);
+        }
+        for(Review review : fileReviews.removed) {
+            guid2review.remove(getGuid(review));
+        }
+        return fileReviews.intervals.getValues();
+    }
+
+    public void clear() {
+        dirtyFiles.addAll(filePath2reviews.keySet());
+        guid2review.clear();
+        filePath2reviews.clear();
+        facets.clear();
+    }
+
+    @NotNull
+    private FileReviews getOrCreate(String filePath) {
+        FileReviews fileReviews = filePath2reviews.get(filePath);
+        if(fileReviews == null) {
+            fileReviews = new FileReviews();
+            filePath2reviews.put(filePath, fileReviews);
+        }
+        return fileReviews;
+    }
+
+    private static String getGuid(Review review) {
+        return review.getReviewBean().getGuid();
+    }
+
+    private static class FileReviews {
+        private final IntervalTree<Review> intervals = new IntervalTree<Review>();
+        private final Map<Review, IntervalTree.Entry<Review>> keys = new HashMap<Review, IntervalTree.Entry<Review>>();
+        private final Set<Review> removed = new LinkedHashSet<Review>();
+
+        private void index(Review review) {
+            final IntervalTree.Entry<Review> key = keys.get(review);
+            if(key != null && key.getStart() == review.getStart() && key.getEnd() == review.getEnd()
+                    && key.getValue() == review) return;
+            unindex(review);
+            keys.put(review, intervals.add(review.getStart(), review.getEnd(), review));
+        }
+
+        private void unindex(Review review) {
+            final IntervalTree.Entry<Review> key = keys.remove(review);
+            if(key != null) {
+                intervals.remove(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package reviewresult;
+
+import java.util.Collection;
+import java.util.EventListener;
+
+/**
+ * Receives review events in batches in the event dispatch thread, with at most one delta per review
+ */
+public interface ReviewsBatchListener extends EventListener {
+    public void reviewsChanged(Collection<ReviewDelta> deltas);
+}
@@ -0,0 +1,472 @@
+package reviewresult.persistent;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Binary alternative to codeReview.xml.
+ *
+ * Layout: header (magic, version, footer offset), blocks of length-prefixed review records, one block per file,
+ * and a footer with the string table (authors, tags, file paths), the number of garbage bytes and
+ * the index of blocks by file path. Changed files are appended as new blocks followed by a new footer,
+ * the old blocks become garbage until the file is compacted.
+ *
+ * The file is read into memory at once, it is not mapped, so it can be renamed or deleted at any time on every platform.
+ * Reviews of a file are decoded only when {@link ReviewsState.FileReviewsList#getReviewBeans()}
+ * of the list returned by {@link #load()} is called for the first time.
+ */
+public class BinaryReviewsStorage {
+    private static final Logger LOG = Logger.getInstance(BinaryReviewsStorage.class.getName());
+
+    private static final int MAGIC = 0x43525642;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int NULL_LENGTH = -1;
+    private static final byte VALID = 1;
+    private static final byte DELETED = 2;
+    private static final byte HAS_CONTEXT = 4;
+
+    private final File file;
+
+    private final List<String> strings = new ArrayList<String>();
+    private final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+    private final Map<String, Block> index = new LinkedHashMap<String, Block>();
+    private final Map<String, ReviewsState.FileReviewsList> saved = new HashMap<String, ReviewsState.FileReviewsList>();
+    private long garbage;
+    private long liveSize;
+    private long footerOffset;
+    //contents of the file as it was loaded, kept until every lazy list is decoded
+    private ByteBuffer buffer;
+    //lists returned by load() which are not decoded yet
+    private final Set<LazyFileReviewsList> lazyLists = new HashSet<LazyFileReviewsList>();
+
+    private static class Block {
+        private final String checksum;
+        private final long offset;
+        private final int size;
+        private final int count;
+
+        private Block(String checksum, long offset, int size, int count) {
+            this.checksum = checksum;
+            this.offset = offset;
+            this.size = size;
+            this.count = count;
+        }
+    }
+
+    public BinaryReviewsStorage(@NotNull File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public boolean exists() {
+        return file.isFile();
+    }
+
+    /**
+     * @return reviews of every stored file; beans are decoded lazily, file by file
+     */
+    @NotNull
+    public List<ReviewsState.FileReviewsList> load() throws IOException {
+        clear();
+        if(!exists()) return Collections.emptyList();
+        read();
+        boolean success = false;
+        try {
+            readFooter();
+            success = true;
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupted review storage " + file.getPath() + ": " + e);
+        } finally {
+            if(!success) clear();
+        }
+        final List<ReviewsState.FileReviewsList> result = new ArrayList<ReviewsState.FileReviewsList>();
+        for(Map.Entry<String, Block> entry : index.entrySet()) {
+            final LazyFileReviewsList list = new LazyFileReviewsList(entry.getKey(), entry.getValue());
+            lazyLists.add(list);
+            saved.put(entry.getKey(), list);
+            result.add(list);
+        }
+        return result;
+    }
+
+    /**
+     * Writes lists which are not the same objects as the ones saved or loaded before and drops files which are
+     * not in the given lists. The file is rewritten when it doesn't exist yet or holds more garbage than reviews.
+     */
+    public void save(@NotNull List<ReviewsState.FileReviewsList> lists) throws IOException {
+        final Map<String, ReviewsState.FileReviewsList> changed = new LinkedHashMap<String, ReviewsState.FileReviewsList>();
+        final Set<String> removed = new HashSet<String>(index.keySet());
+        for(ReviewsState.FileReviewsList list : lists) {
+            final String filePath = list.getFilePath();
+            removed.remove(filePath);
+            if(saved.get(filePath) != list || !index.containsKey(filePath)) {
+                changed.put(filePath, list);
+            }
+        }
+        if(changed.isEmpty() && removed.isEmpty() && exists()) return;
+
+        long newGarbage = garbage;
+        for(String filePath : removed) {
+            newGarbage += index.get(filePath).size;
+        }
+        for(String filePath : changed.keySet()) {
+            final Block block = index.get(filePath);
+            if(block != null) newGarbage += block.size;
+        }
+        try {
+            if(!exists() || footerOffset == 0 || newGarbage > liveSize) {
+                rewrite(lists);
+            } else {
+                append(changed, removed, newGarbage);
+            }
+        } catch (IOException e) {
+            clear();
+            throw e;
+        }
+        saved.clear();
+        for(ReviewsState.FileReviewsList list : lists) {
+            saved.put(list.getFilePath(), list);
+        }
+    }
+
+    /**
+     * Moves the storage aside, e.g. after its reviews were migrated back to codeReview.xml
+     */
+    public void backup() {
+        clear();
+        if(!exists()) return;
+        final File backup = new File(file.getPath() + ".bak");
+        if(backup.exists() && !backup.delete() || !file.renameTo(backup)) {
+            LOG.warn("Can't move " + file.getPath() + " to " + backup.getPath());
+        }
+    }
+
+    private void clear() {
+        //lists handed out before still need the string table and the contents
+        decodeLazyLists();
+        strings.clear();
+        stringIds.clear();
+        index.clear();
+        saved.clear();
+        garbage = 0;
+        liveSize = 0;
+        footerOffset = 0;
+        buffer = null;
+    }
+
+    private void rewrite(List<ReviewsState.FileReviewsList> lists) throws IOException {
+        // decode lazy lists while the old string table and contents are still there
+        decodeLazyLists();
+        strings.clear();
+        stringIds.clear();
+        index.clear();
+        liveSize = 0;
+        garbage = 0;
+        final File parent = file.getParentFile();
+        if(parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Can't create " + parent.getPath());
+        }
+        final File tempFile = new File(file.getPath() + ".tmp");
+        final RandomAccessFile output = new RandomAccessFile(tempFile, "rw");
+        try {
+            output.setLength(0);
+            output.write(new byte[HEADER_SIZE]);
+            for(ReviewsState.FileReviewsList list : lists) {
+                writeBlock(output, list);
+            }
+            writeFooterAndHeader(output);
+        } finally {
+            output.close();
+        }
+        buffer = null;
+        if(file.exists() && !file.delete() || !tempFile.renameTo(file)) {
+            throw new IOException("Can't replace " + file.getPath());
+        }
+    }
+
+    private void append(Map<String, ReviewsState.FileReviewsList> changed, Set<String> removed, long newGarbage)
+                                                                                                throws IOException {
+        final RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            garbage = newGarbage + (output.length() - footerOffset);
+            for(String filePath : removed) {
+                liveSize -= index.remove(filePath).size;
+            }
+            for(ReviewsState.FileReviewsList list : changed.values()) {
+                final Block block = index.remove(list.getFilePath());
+                if(block != null) liveSize -= block.size;
+            }
+            output.seek(output.length());
+            for(ReviewsState.FileReviewsList list : changed.values()) {
+                writeBlock(output, list);
+            }
+            writeFooterAndHeader(output);
+        } finally {
+            output.close();
+        }
+    }
+
+    private void read() throws IOException {
+        final FileInputStream stream = new FileInputStream(file);
+        try {
+            final FileChannel channel = stream.getChannel();
+            final long size = channel.size();
+            if(size > Integer.MAX_VALUE) throw new IOException("Review storage is too large: " + file.getPath());
+            final ByteBuffer contents = ByteBuffer.allocate((int)size);
+            while(contents.hasRemaining()) {
+                if(channel.read(contents) < 0) throw new EOFException(file.getPath());
+            }
+            contents.flip();
+            buffer = contents;
+        } finally {
+            stream.close();
+        }
+    }
+
+    private void decodeLazyLists() {
+        for(LazyFileReviewsList list : new ArrayList<LazyFileReviewsList>(lazyLists)) {
+            list.getReviewBeans();
+        }
+    }
+
+    private void writeBlock(RandomAccessFile output, ReviewsState.FileReviewsList list) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream data = new DataOutputStream(bytes);
+        final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        final DataOutputStream record = new DataOutputStream(recordBytes);
+        int count = 0;
+        for(ReviewBean bean : list.getReviewBeans()) {
+            recordBytes.reset();
+            writeReviewBean(record, bean);
+            record.flush();
+            data.writeInt(recordBytes.size());
+            recordBytes.writeTo(data);
+            count++;
+        }
+        data.flush();
+        final long offset = output.getFilePointer();
+        output.write(bytes.toByteArray());
+        index.put(list.getFilePath(), new Block(list.getChecksum(), offset, bytes.size(), count));
+        liveSize += bytes.size();
+    }
+
+    private void writeReviewBean(DataOutputStream out, ReviewBean bean) throws IOException {
+        writeString(out, bean.getGuid());
+        writeString(out, bean.getName());
+        final ReviewStatus status = bean.getStatus();
+        out.writeByte(status == null ? -1 : status.ordinal());
+        final Context context = bean.getContext();
+        out.writeByte((bean.isValid() ? VALID : 0) | (bean.isDeleted() ? DELETED : 0) | (context != null ? HAS_CONTEXT : 0));
+        if(context != null) {
+            out.writeInt(context.getStart());
+            out.writeInt(context.getEnd());
+            out.writeInt(context.getLineNumber());
+            out.writeInt(context.getBeforeLineNumber());
+            out.writeInt(context.getAfterLineNumber());
+            writeString(out, context.getLine());
+            writeString(out, context.getLineBefore());
+            writeString(out, context.getLineAfter());
+        }
+        final List<String> tags = bean.getTags();
+        out.writeInt(tags.size());
+        for(String tag : tags) {
+            out.writeInt(getStringId(tag));
+        }
+        final List<ReviewItem> items = bean.getReviewItems();
+        out.writeInt(items.size());
+        for(ReviewItem item : items) {
+            out.writeInt(getStringId(item.getAuthor()));
+            out.writeLong(item.getDate() == null ? Long.MIN_VALUE : item.getDate().getTime());
+            writeString(out, item.getText());
+        }
+    }
+
+    private void writeFooterAndHeader(RandomAccessFile output) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream data = new DataOutputStream(bytes);
+        for(String filePath : index.keySet()) {
+            getStringId(filePath);
+        }
+        data.writeLong(garbage);
+        data.writeInt(strings.size());
+        for(String string : strings) {
+            writeString(data, string);
+        }
+        data.writeInt(index.size());
+        for(Map.Entry<String, Block> entry : index.entrySet()) {
+            final Block block = entry.getValue();
+            data.writeInt(getStringId(entry.getKey()));
+            writeString(data, block.checksum);
+            data.writeLong(block.offset);
+            data.writeInt(block.size);
+            data.writeInt(block.count);
+        }
+        data.flush();
+        footerOffset = output.getFilePointer();
+        output.write(bytes.toByteArray());
+        output.getChannel().force(false);
+        output.seek(0);
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeLong(footerOffset);
+        output.getChannel().force(false);
+    }
+
+    private void readFooter() throws IOException {
+        if(buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a review storage: " + file.getPath());
+        }
+        if(buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported review storage version " + buffer.getInt(4) + ": " + file.getPath());
+        }
+        final ByteBuffer footer = buffer.duplicate();
+        footerOffset = buffer.getLong(8);
+        footer.position((int)footerOffset);
+        garbage = footer.getLong();
+        final int stringCount = footer.getInt();
+        for(int i = 0; i < stringCount; i++) {
+            final String string = readString(footer);
+            stringIds.put(string, strings.size());
+            strings.add(string);
+        }
+        final int fileCount = footer.getInt();
+        for(int i = 0; i < fileCount; i++) {
+            final String filePath = strings.get(footer.getInt());
+            final String checksum = readString(footer);
+            final Block block = new Block(checksum, footer.getLong(), footer.getInt(), footer.getInt());
+            index.put(filePath, block);
+            liveSize += block.size;
+        }
+    }
+
+    private void decoded(LazyFileReviewsList list) {
+        lazyLists.remove(list);
+        if(lazyLists.isEmpty()) {
+            buffer = null;
+        }
+    }
+
+    private List<ReviewBean> readBlock(Block block) {
+        final List<ReviewBean> beans = new ArrayList<ReviewBean>(block.count);
+        if(buffer == null) return beans;
+        final ByteBuffer data = buffer.duplicate();
+        data.position((int)block.offset);
+        for(int i = 0; i < block.count; i++) {
+            final int length = data.getInt();
+            final int next = data.position() + length;
+            beans.add(readReviewBean(data));
+            data.position(next);
+        }
+        return beans;
+    }
+
+    private ReviewBean readReviewBean(ByteBuffer data) {
+        final ReviewBean bean = new ReviewBean();
+        bean.setGuid(readString(data));
+        bean.setName(readString(data));
+        final byte status = data.get();
+        bean.setStatus(status < 0 ? null : ReviewStatus.values()[status]);
+        final byte flags = data.get();
+        bean.setValid((flags & VALID) != 0);
+        bean.setDeleted((flags & DELETED) != 0);
+        if((flags & HAS_CONTEXT) != 0) {
+            final Context context = new Context(data.getInt(), data.getInt());
+            context.setLineNumber(data.getInt());
+            context.setBeforeLineNumber(data.getInt());
+            context.setAfterLineNumber(data.getInt());
+            context.setLine(readString(data));
+            context.setLineBefore(readString(data));
+            context.setLineAfter(readString(data));
+            bean.setContext(context);
+        }
+        final int tagCount = data.getInt();
+        for(int i = 0; i < tagCount; i++) {
+            bean.getTags().add(getString(data.getInt()));
+        }
+        final int itemCount = data.getInt();
+        for(int i = 0; i < itemCount; i++) {
+            final ReviewItem item = new ReviewItem();
+            item.setAuthor(getString(data.getInt()));
+            final long date = data.getLong();
+            item.setDate(date == Long.MIN_VALUE ? null : new Date(date));
+            item.setText(readString(data));
+            bean.addReviewItem(item);
+        }
+        return bean;
+    }
+
+    private int getStringId(@Nullable String string) {
+        if(string == null) return NULL_LENGTH;
+        Integer id = stringIds.get(string);
+        if(id == null) {
+            id = strings.size();
+            strings.add(string);
+            stringIds.put(string, id);
+        }
+        return id;
+    }
+
+    @Nullable
+    private String getString(int id) {
+        return id == NULL_LENGTH ? null : strings.get(id);
+    }
+
+    private static void writeString(DataOutputStream out, @Nullable String string) throws IOException {
+        if(string == null) {
+            out.writeInt(NULL_LENGTH);
+            return;
+        }
+        final byte[] bytes = string.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Nullable
+    private static String readString(ByteBuffer data) {
+        final int length = data.getInt();
+        if(length == NULL_LENGTH) return null;
+        final byte[] bytes = new byte[length];
+        data.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private class LazyFileReviewsList extends ReviewsState.FileReviewsList {
+        private Block block;
+
+        private LazyFileReviewsList(String filePath, Block block) {
+            super(filePath, block.checksum, null);
+            this.block = block;
+        }
+
+        @Override
+        public List<ReviewBean> getReviewBeans() {
+            if(block != null) {
+                super.setReviewBeans(readBlock(block));
+                block = null;
+                decoded(this);
+            }
+            return super.getReviewBeans();
+        }
+
+        @Override
+        public void setReviewBeans(List<ReviewBean> reviewBeans) {
+            block = null;
+            decoded(this);
+            super.setReviewBeans(reviewBeans);
+        }
+    }
+}
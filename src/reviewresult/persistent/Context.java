@@ -3,7 +3,7 @@ package reviewresult.persistent;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.util.xmlb.annotations.Tag;
-import utils.Util;
+import com.intellij.util.xmlb.annotations.Transient;
 
 /**
  * User: Alisa.Afonina
@@ -12,6 +12,11 @@ import utils.Util;
  */
 
 public class Context {
+    private static final String LINE_PREFIX = "<span class=\"context_line\">";
+    private static final String LINE_SUFFIX = "</span>";
+    private static final String LINE_BREAK = "<br/>";
+
+    //text of the document, the html is made by the getters of the presentation
     private String line = "";
     private String lineBefore = "";
     private String lineAfter = "";
@@ -20,6 +25,8 @@ public class Context {
     private int lineNumber;
     private int afterLineNumber;
     private int beforeLineNumber;
+    //contexts saved before the text was kept as it is contain the html
+    private boolean legacyMarkup;
 
     public Context() {
     }
@@ -31,11 +38,28 @@ public class Context {
 
     @Tag("line")
     public String getLine() {
-        return "<span class=\"context_line\">" + line.replaceAll("\n", "<br/>") + "</span>";
+        return line;
     }
 
     public void setLine(String line) {
-        this.line = line;
+        if(line == null) line = "";
+        boolean markup = false;
+        while(line.startsWith(LINE_PREFIX) && line.endsWith(LINE_SUFFIX)) {
+            line = line.substring(LINE_PREFIX.length(), line.length() - LINE_SUFFIX.length());
+            markup = true;
+        }
+        if(markup) {
+            this.line = fromMarkup(line);
+            //lines around the reviewed text were saved with it
+            legacyMarkup = true;
+        } else {
+            if(legacyMarkup) {
+                lineBefore = fromMarkup(lineBefore);
+                lineAfter = fromMarkup(lineAfter);
+                legacyMarkup = false;
+            }
+            this.line = line;
+        }
     }
 
     @Tag("line_number")
@@ -70,7 +94,7 @@ public class Context {
 
     @Tag("line_before")
     public String getLineBefore() {
-        return lineBefore.replaceAll("\n", "<br/>");
+        return legacyMarkup ? fromMarkup(lineBefore) : lineBefore;
     }
 
     public void setLineBefore(String lineBefore) {
@@ -79,7 +103,7 @@ public class Context {
 
     @Tag("line_after")
     public String getLineAfter() {
-        return lineAfter.replaceAll("\n", "<br/>");
+        return legacyMarkup ? fromMarkup(lineAfter) : lineAfter;
     }
 
     public void setLineAfter(String lineAfter) {
@@ -136,53 +160,30 @@ public class Context {
         }
     }
 
-    public void checkContext(Document document) {
-        if(document == null || "".equals(document.getText())) return;
-        final String text = document.getText();
-        final int beforeOffset = Util.find(text, getLineBefore(), true);
-        final int afterOffset = Util.find(text, getLineAfter(), true);
-        if(!getLine().equals(document.getText(new TextRange(getStart(), getEnd())))) {
-            int offset = Util.find(text, getLine(), true);
-            if(offset > 0) {
-                if(offset != getStart()) {
-                    // todo check context around
-                    start = offset;
-                    end = document.getLineEndOffset(document.getLineNumber(offset));
-                    setBeforeLineText(document);
-                    setAfterLineText(document);
-                }
-            } else {
-                if(beforeOffset > 0 && afterOffset > 0) {
-                    final int beforeLineNumber = document.getLineNumber(beforeOffset);
-                    final int afterLineNumber = document.getLineNumber(afterOffset);
-
-                    if(beforeLineNumber < document.getLineCount() && afterLineNumber > 0 ) {
-                        //todo since comment is not to one line anymore - change it
-                        if((beforeLineNumber + 2)==afterLineNumber) { // if between these two lines exactly one placed;
-                            start = document.getLineStartOffset(beforeLineNumber + 1);
-                            end = document.getLineEndOffset(beforeLineNumber + 1);
-                        } else {
-                            //todo best line between before and after lines should be found
-                            start = document.getLineStartOffset(beforeLineNumber + 1);
-                            end = document.getLineEndOffset(beforeLineNumber + 1);
-                        }
-                    } else {
-                        if (beforeLineNumber < document.getLineCount()) {
-                            start = document.getLineStartOffset(afterLineNumber - 1);
-                            end = document.getLineEndOffset(afterLineNumber - 1);
-                        } else {
-                            start = document.getLineStartOffset(beforeLineNumber - 1);
-                            end = document.getLineEndOffset(beforeLineNumber - 1);
-                        }
-                    }
-                }
-               //todo check at least for one
-     //           LOG.warn("May be reviewPoint would be wrond placed, because text was increeeedibly changed\n" +
-     //             " Review name: " + reviewBean.getName() + " in " + getFileName() + " line " + getLineNumber());
-            }
-        }
-        setStart(start);
-        setEnd(end);
+    /**
+     * @return html of the reviewed text for the preview
+     */
+    @Transient
+    public String getLineHtml() {
+        return LINE_PREFIX + toMarkup(getLine()) + LINE_SUFFIX;
+    }
+
+    @Transient
+    public String getLineBeforeHtml() {
+        return toMarkup(getLineBefore());
+    }
+
+    @Transient
+    public String getLineAfterHtml() {
+        return toMarkup(getLineAfter());
+    }
+
+    private static String toMarkup(String text) {
+        return text.replace("\n", LINE_BREAK);
+    }
+
+    private static String fromMarkup(String text) {
+        return text.replace(LINE_BREAK, "\n");
     }
 
     @Override
@@ -3,6 +3,7 @@ package reviewresult.persistent;
 import com.intellij.util.xmlb.annotations.AbstractCollection;
 import com.intellij.util.xmlb.annotations.Attribute;
 import com.intellij.util.xmlb.annotations.Tag;
+import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -74,6 +75,29 @@ public class ReviewBean {
         reviewItems.add(reviewItem);
     }
 
+    /**
+     * @return bean with the same guid and copies of items and tags, the context is shared
+     */
+    @NotNull
+    public ReviewBean copy() {
+        final ReviewBean copy = new ReviewBean();
+        copy.guid = guid;
+        copy.name = name;
+        copy.status = status;
+        copy.context = context;
+        copy.isValid = isValid;
+        copy.isDeleted = isDeleted;
+        for(ReviewItem item : reviewItems) {
+            final ReviewItem itemCopy = new ReviewItem();
+            itemCopy.setAuthor(item.getAuthor());
+            itemCopy.setText(item.getText());
+            itemCopy.setDate(item.getDate());
+            copy.reviewItems.add(itemCopy);
+        }
+        copy.tags.addAll(tags);
+        return copy;
+    }
+
     @Attribute("id")
     @SuppressWarnings({"UnusedDeclaration"})
     public String getGuid() {
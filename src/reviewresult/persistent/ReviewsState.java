@@ -1,11 +1,15 @@
 package reviewresult.persistent;
 
+import com.intellij.ide.util.PropertiesComponent;
 import com.intellij.openapi.components.*;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import com.intellij.util.xmlb.annotations.AbstractCollection;
 import com.intellij.util.xmlb.annotations.Tag;
 import reviewresult.ReviewManager;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -23,22 +27,75 @@ import java.util.List;
     }
 )
 public class ReviewsState extends AbstractProjectComponent implements PersistentStateComponent<ReviewsState.State> {
+        private static final Logger LOG = Logger.getInstance(ReviewsState.class.getName());
+        public static final String BINARY_STORAGE_KEY = "ReviewsState.binaryStorage";
+        private static final String BINARY_STORAGE_FILE = "codeReview.bin";
+
         private State state = new State();
+        private BinaryReviewsStorage binaryStorage;
+        private boolean stateLoaded;
 
         protected ReviewsState(Project project) {
             super(project);
         }
 
+        @Override
+        public void projectOpened() {
+            if(!stateLoaded) {
+                loadState(new State());
+            }
+        }
+
         @Override
         public State getState() {
-            state.setReviews(ReviewManager.getInstance(myProject).getState());
+            final List<FileReviewsList> reviews = ReviewManager.getInstance(myProject).getState();
+            final BinaryReviewsStorage storage = getBinaryStorage();
+            if(storage != null) {
+                if(isBinaryStorageEnabled()) {
+                    try {
+                        storage.save(reviews);
+                        state.setReviews(new ArrayList<FileReviewsList>());
+                        return this.state;
+                    } catch (IOException e) {
+                        LOG.warn(e);
+                    }
+                } else if(storage.exists()) {
+                    // reviews go back to codeReview.xml
+                    storage.backup();
+                }
+            }
+            state.setReviews(reviews);
             return this.state;
         }
 
         @Override
         public void loadState(State state) {
+            stateLoaded = true;
             this.state = state;
-            ReviewManager.getInstance(myProject).loadState(state.getReviews());
+            List<FileReviewsList> reviews = state.getReviews();
+            final BinaryReviewsStorage storage = getBinaryStorage();
+            if(reviews.isEmpty() && storage != null && storage.exists()) {
+                try {
+                    reviews = storage.load();
+                } catch (IOException e) {
+                    LOG.warn(e);
+                }
+            }
+            ReviewManager.getInstance(myProject).loadState(reviews);
+        }
+
+        public boolean isBinaryStorageEnabled() {
+            return PropertiesComponent.getInstance(myProject).getBoolean(BINARY_STORAGE_KEY, false);
+        }
+
+        private BinaryReviewsStorage getBinaryStorage() {
+            if(binaryStorage == null) {
+                final String projectFilePath = myProject.getProjectFilePath();
+                if(projectFilePath == null) return null;
+                binaryStorage = new BinaryReviewsStorage(new File(new File(projectFilePath).getParentFile(),
+                                                                  BINARY_STORAGE_FILE));
+            }
+            return binaryStorage;
         }
 
         @SuppressWarnings({"AssignmentToCollectionOrArrayFieldFromParameter", "ReturnOfCollectionOrArrayField"})
@@ -0,0 +1,219 @@
+package reviewresult.persistent;
+
+import com.intellij.util.Processor;
+import org.jetbrains.annotations.NotNull;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Reader;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Streaming counterpart of XmlSerializer for {@link ReviewsState.State}, see {@link ReviewsXmlWriter}.
+ * Reviews are handed out file by file, so only the reviews of one file are kept in memory.
+ */
+public class ReviewsXmlReader implements ReviewsXmlTags {
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private final XMLStreamReader xml;
+
+    private ReviewsXmlReader(XMLStreamReader xml) {
+        this.xml = xml;
+    }
+
+    private static XMLInputFactory createFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+    @NotNull
+    public static ReviewsState.State read(@NotNull Reader reader) throws XMLStreamException {
+        final ReviewsState.State state = new ReviewsState.State();
+        final List<ReviewsState.FileReviewsList> reviews = state.getReviews();
+        read(reader, new Processor<ReviewsState.FileReviewsList>() {
+            public boolean process(ReviewsState.FileReviewsList list) {
+                reviews.add(list);
+                return true;
+            }
+        });
+        return state;
+    }
+
+    /**
+     * Reads reviews of every file from the first all_reviews element, stops when the processor returns false
+     */
+    public static void read(@NotNull Reader reader, @NotNull Processor<ReviewsState.FileReviewsList> processor)
+                                                                                        throws XMLStreamException {
+        final XMLStreamReader xml = FACTORY.createXMLStreamReader(reader);
+        try {
+            new ReviewsXmlReader(xml).readAllReviews(processor);
+        } finally {
+            xml.close();
+        }
+    }
+
+    private void readAllReviews(Processor<ReviewsState.FileReviewsList> processor) throws XMLStreamException {
+        while(xml.hasNext()) {
+            if(xml.next() == XMLStreamReader.START_ELEMENT && ALL_REVIEWS.equals(xml.getLocalName())) {
+                while(xml.nextTag() == XMLStreamReader.START_ELEMENT) {
+                    if(FILE_REVIEWS_LIST.equals(xml.getLocalName())) {
+                        if(!processor.process(readFileReviewsList())) return;
+                    } else {
+                        skipElement();
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    private ReviewsState.FileReviewsList readFileReviewsList() throws XMLStreamException {
+        final ReviewsState.FileReviewsList list = new ReviewsState.FileReviewsList();
+        while(xml.nextTag() == XMLStreamReader.START_ELEMENT) {
+            final String name = xml.getLocalName();
+            if(FILE.equals(name)) {
+                list.setFilePath(xml.getElementText());
+            } else if(CHECKSUM.equals(name)) {
+                list.setChecksum(xml.getElementText());
+            } else if(REVIEWS.equals(name)) {
+                while(xml.nextTag() == XMLStreamReader.START_ELEMENT) {
+                    if(REVIEW.equals(xml.getLocalName())) {
+                        list.getReviewBeans().add(readReviewBean());
+                    } else {
+                        skipElement();
+                    }
+                }
+            } else {
+                skipElement();
+            }
+        }
+        return list;
+    }
+
+    private ReviewBean readReviewBean() throws XMLStreamException {
+        final ReviewBean bean = new ReviewBean();
+        final String guid = xml.getAttributeValue(null, ID);
+        if(guid != null) {
+            bean.setGuid(guid);
+        }
+        bean.setName(xml.getAttributeValue(null, NAME));
+        while(xml.nextTag() == XMLStreamReader.START_ELEMENT) {
+            final String name = xml.getLocalName();
+            if(CONTEXT.equals(name)) {
+                while(xml.nextTag() == XMLStreamReader.START_ELEMENT) {
+                    if(CONTEXT_BEAN.equals(xml.getLocalName())) {
+                        bean.setContext(readContext());
+                    } else {
+                        skipElement();
+                    }
+                }
+            } else if(DELETED.equals(name)) {
+                bean.setDeleted(Boolean.parseBoolean(xml.getElementText().trim()));
+            } else if(VALID.equals(name)) {
+                bean.setValid(Boolean.parseBoolean(xml.getElementText().trim()));
+            } else if(STATUS.equals(name)) {
+                bean.setStatus(parseStatus(xml.getElementText()));
+            } else if(REVIEW_ITEMS.equals(name)) {
+                while(xml.nextTag() == XMLStreamReader.START_ELEMENT) {
+                    if(REVIEW_ITEM.equals(xml.getLocalName())) {
+                        bean.addReviewItem(readReviewItem());
+                    } else {
+                        skipElement();
+                    }
+                }
+            } else if(TAGS.equals(name)) {
+                while(xml.nextTag() == XMLStreamReader.START_ELEMENT) {
+                    if(TAG.equals(xml.getLocalName())) {
+                        final String tag = xml.getAttributeValue(null, VALUE);
+                        if(tag != null) {
+                            bean.getTags().add(tag);
+                        }
+                    }
+                    skipElement();
+                }
+            } else {
+                skipElement();
+            }
+        }
+        return bean;
+    }
+
+    private Context readContext() throws XMLStreamException {
+        final Context context = new Context();
+        while(xml.nextTag() == XMLStreamReader.START_ELEMENT) {
+            final String name = xml.getLocalName();
+            final String text = xml.getElementText();
+            if(START.equals(name)) {
+                context.setStart(parseInt(text, context.getStart()));
+            } else if(END.equals(name)) {
+                context.setEnd(parseInt(text, context.getEnd()));
+            } else if(LINE.equals(name)) {
+                context.setLine(text);
+            } else if(LINE_BEFORE.equals(name)) {
+                context.setLineBefore(text);
+            } else if(LINE_AFTER.equals(name)) {
+                context.setLineAfter(text);
+            } else if(LINE_NUMBER.equals(name)) {
+                context.setLineNumber(parseInt(text, 0));
+            } else if(LINE_BEFORE_NUMBER.equals(name)) {
+                context.setBeforeLineNumber(parseInt(text, 0));
+            } else if(LINE_AFTER_NUMBER.equals(name)) {
+                context.setAfterLineNumber(parseInt(text, 0));
+            }
+        }
+        return context;
+    }
+
+    private ReviewItem readReviewItem() throws XMLStreamException {
+        final ReviewItem item = new ReviewItem();
+        while(xml.nextTag() == XMLStreamReader.START_ELEMENT) {
+            final String name = xml.getLocalName();
+            if(AUTHOR.equals(name)) {
+                item.setAuthor(xml.getElementText());
+            } else if(TEXT.equals(name)) {
+                item.setText(xml.getElementText());
+            } else if(DATE.equals(name)) {
+                final String text = xml.getElementText().trim();
+                try {
+                    item.setDate(new Date(Long.parseLong(text)));
+                } catch (NumberFormatException ignored) {}
+            } else {
+                skipElement();
+            }
+        }
+        return item;
+    }
+
+    private void skipElement() throws XMLStreamException {
+        int depth = 1;
+        while(depth > 0) {
+            final int event = xml.next();
+            if(event == XMLStreamReader.START_ELEMENT) {
+                depth++;
+            } else if(event == XMLStreamReader.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static int parseInt(String text, int defaultValue) {
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static ReviewStatus parseStatus(String text) {
+        try {
+            return ReviewStatus.valueOf(text.trim());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package reviewresult.persistent;
+
+/**
+ * Element and attribute names XmlSerializer uses for {@link ReviewsState.State}
+ */
+interface ReviewsXmlTags {
+    String STATE = "State";
+    String ALL_REVIEWS = "all_reviews";
+    String FILE_REVIEWS_LIST = "FileReviewsList";
+    String CHECKSUM = "checksum";
+    String FILE = "file";
+    String REVIEWS = "reviews";
+    String REVIEW = "review";
+    String ID = "id";
+    String NAME = "name";
+    String CONTEXT = "context";
+    String CONTEXT_BEAN = "Context";
+    String END = "end";
+    String LINE = "line";
+    String LINE_AFTER = "line_after";
+    String LINE_AFTER_NUMBER = "line_after_number";
+    String LINE_BEFORE = "line_before";
+    String LINE_BEFORE_NUMBER = "line_before_number";
+    String LINE_NUMBER = "line_number";
+    String START = "start";
+    String DELETED = "deleted";
+    String REVIEW_ITEMS = "review_items";
+    String REVIEW_ITEM = "review_item";
+    String AUTHOR = "author";
+    String DATE = "date";
+    String TEXT = "text";
+    String STATUS = "status";
+    String TAGS = "tags";
+    String TAG = "tag";
+    String VALUE = "value";
+    String VALID = "valid";
+}
@@ -0,0 +1,159 @@
+package reviewresult.persistent;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Streaming counterpart of XmlSerializer for {@link ReviewsState.State}.
+ * Writes the same elements XmlSerializer does, one review at a time, without building a document tree.
+ */
+public class ReviewsXmlWriter implements ReviewsXmlTags {
+    private static final String INDENT = "  ";
+    private static final XMLOutputFactory FACTORY = XMLOutputFactory.newInstance();
+
+    private final XMLStreamWriter xml;
+    private int depth;
+    private boolean hasChildren;
+    private boolean started;
+
+    private ReviewsXmlWriter(XMLStreamWriter xml) {
+        this.xml = xml;
+    }
+
+    public static void write(@NotNull List<ReviewsState.FileReviewsList> lists, @NotNull Writer writer) throws XMLStreamException {
+        final XMLStreamWriter xml = FACTORY.createXMLStreamWriter(writer);
+        try {
+            final ReviewsXmlWriter reviewsWriter = new ReviewsXmlWriter(xml);
+            reviewsWriter.startElement(STATE);
+            reviewsWriter.startElement(ALL_REVIEWS);
+            for(ReviewsState.FileReviewsList list : lists) {
+                reviewsWriter.writeFileReviewsList(list);
+            }
+            reviewsWriter.endElement();
+            reviewsWriter.endElement();
+            xml.flush();
+        } finally {
+            xml.close();
+        }
+    }
+
+    private void writeFileReviewsList(ReviewsState.FileReviewsList list) throws XMLStreamException {
+        startElement(FILE_REVIEWS_LIST);
+        writeElement(CHECKSUM, list.getChecksum());
+        writeElement(FILE, list.getFilePath());
+        startElement(REVIEWS);
+        for(ReviewBean bean : list.getReviewBeans()) {
+            writeReviewBean(bean);
+        }
+        endElement();
+        endElement();
+    }
+
+    private void writeReviewBean(ReviewBean bean) throws XMLStreamException {
+        startElement(REVIEW);
+        writeAttribute(ID, bean.getGuid());
+        writeAttribute(NAME, bean.getName());
+        final Context context = bean.getContext();
+        if(context != null) {
+            startElement(CONTEXT);
+            writeContext(context);
+            endElement();
+        }
+        writeElement(DELETED, String.valueOf(bean.isDeleted()));
+        startElement(REVIEW_ITEMS);
+        for(ReviewItem item : bean.getReviewItems()) {
+            writeReviewItem(item);
+        }
+        endElement();
+        final ReviewStatus status = bean.getStatus();
+        if(status != null) {
+            writeElement(STATUS, status.name());
+        }
+        startElement(TAGS);
+        for(String tag : bean.getTags()) {
+            if(tag == null) continue;
+            newLine();
+            xml.writeEmptyElement(TAG);
+            xml.writeAttribute(VALUE, tag);
+            hasChildren = true;
+        }
+        endElement();
+        writeElement(VALID, String.valueOf(bean.isValid()));
+        endElement();
+    }
+
+    private void writeContext(Context context) throws XMLStreamException {
+        startElement(CONTEXT_BEAN);
+        writeElement(END, String.valueOf(context.getEnd()));
+        writeElement(LINE, context.getLine());
+        writeElement(LINE_AFTER, context.getLineAfter());
+        writeElement(LINE_AFTER_NUMBER, String.valueOf(context.getAfterLineNumber()));
+        writeElement(LINE_BEFORE, context.getLineBefore());
+        writeElement(LINE_BEFORE_NUMBER, String.valueOf(context.getBeforeLineNumber()));
+        writeElement(LINE_NUMBER, String.valueOf(context.getLineNumber()));
+        writeElement(START, String.valueOf(context.getStart()));
+        endElement();
+    }
+
+    private void writeReviewItem(ReviewItem item) throws XMLStreamException {
+        startElement(REVIEW_ITEM);
+        writeElement(AUTHOR, item.getAuthor());
+        if(item.getDate() != null) {
+            writeElement(DATE, String.valueOf(item.getDate().getTime()));
+        }
+        writeElement(TEXT, item.getText());
+        endElement();
+    }
+
+    private void startElement(String name) throws XMLStreamException {
+        newLine();
+        xml.writeStartElement(name);
+        depth++;
+        hasChildren = false;
+    }
+
+    private void endElement() throws XMLStreamException {
+        depth--;
+        if(hasChildren) {
+            newLine();
+        }
+        xml.writeEndElement();
+        hasChildren = true;
+    }
+
+    private void writeAttribute(String name, @Nullable String value) throws XMLStreamException {
+        if(value != null) {
+            xml.writeAttribute(name, value);
+        }
+    }
+
+    private void writeElement(String name, @Nullable String value) throws XMLStreamException {
+        if(value == null) return;
+        newLine();
+        if("".equals(value)) {
+            xml.writeEmptyElement(name);
+        } else {
+            xml.writeStartElement(name);
+            xml.writeCharacters(value);
+            xml.writeEndElement();
+        }
+        hasChildren = true;
+    }
+
+    private void newLine() throws XMLStreamException {
+        if(!started) {
+            started = true;
+            return;
+        }
+        xml.writeCharacters("\n");
+        for(int i = 0; i < depth; i++) {
+            xml.writeCharacters(INDENT);
+        }
+    }
+}
@@ -117,7 +117,7 @@ public class ReviewActionManager implements DumbAware {
             if(baseDir == null)  {return null;}
             if(virtualFile == null) {return null;}
             String relativePath = VfsUtil.getRelativePath(virtualFile, baseDir, '/');
-            return ReviewManager.getInstance(project).getReviewInLine(relativePath, line);
+            return ReviewManager.getInstance(project).getReviewInLine(relativePath, document, line);
         }
         return null;
     }
@@ -0,0 +1,103 @@
+package ui.gutterpoint;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.event.DocumentAdapter;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.markup.RangeHighlighter;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.Key;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import reviewresult.Review;
+import reviewresult.ReviewManager;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The only document listener of review points of a document. After an edit it copies offsets of highlighters
+ * to their reviews and reports the reviews which were moved or became invalid as one change.
+ */
+public class DocumentReviewTracker extends DocumentAdapter implements Disposable {
+    private static final Key<DocumentReviewTracker> KEY = Key.create("DocumentReviewTracker");
+
+    private final Project project;
+    private final Document document;
+    private final Set<ReviewPoint> points = new LinkedHashSet<ReviewPoint>();
+
+    private DocumentReviewTracker(Project project, Document document) {
+        this.project = project;
+        this.document = document;
+    }
+
+    @NotNull
+    public static DocumentReviewTracker getInstance(@NotNull Project project, @NotNull Document document) {
+        DocumentReviewTracker tracker = document.getUserData(KEY);
+        if(tracker == null) {
+            tracker = new DocumentReviewTracker(project, document);
+            document.putUserData(KEY, tracker);
+            Disposer.register(project, tracker);
+            document.addDocumentListener(tracker, tracker);
+        }
+        return tracker;
+    }
+
+    @Nullable
+    public static DocumentReviewTracker findInstance(@NotNull Document document) {
+        return document.getUserData(KEY);
+    }
+
+    public void add(@NotNull ReviewPoint point) {
+        points.add(point);
+    }
+
+    /**
+     * Removes the point, the tracker stops listening to the document when it has no points
+     */
+    public void remove(@NotNull ReviewPoint point) {
+        points.remove(point);
+        if(points.isEmpty()) {
+            Disposer.dispose(this);
+        }
+    }
+
+    @Override
+    public void documentChanged(DocumentEvent event) {
+        if(points.isEmpty()) return;
+        final List<Review> changed = new ArrayList<Review>();
+        for(ReviewPoint point : points) {
+            final RangeHighlighter highlighter = point.getHighlighter();
+            final Review review = point.getReview();
+            if(highlighter == null) continue;
+            if(!highlighter.isValid()) {
+                if(review.getReviewBean().isValid()) {
+                    review.setValid(false);
+                    changed.add(review);
+                }
+                continue;
+            }
+            //most edits don't move the review
+            final int newStart = highlighter.getStartOffset();
+            final int newEnd = highlighter.getEndOffset();
+            if(review.getStart() != newStart || review.getEnd() != newEnd) {
+                review.setStart(newStart);
+                review.setEnd(newEnd);
+                changed.add(review);
+            }
+        }
+        if(!changed.isEmpty()) {
+            ReviewManager.getInstance(project).changeReviews(changed);
+        }
+    }
+
+    public void dispose() {
+        points.clear();
+        if(document.getUserData(KEY) == this) {
+            document.putUserData(KEY, null);
+        }
+    }
+}
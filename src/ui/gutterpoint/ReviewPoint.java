@@ -6,18 +6,14 @@ import com.intellij.openapi.actionSystem.ActionGroup;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.DefaultActionGroup;
 import com.intellij.openapi.editor.Document;
-import com.intellij.openapi.editor.Editor;
-import com.intellij.openapi.editor.event.DocumentAdapter;
-import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.EditorFactory;
 import com.intellij.openapi.editor.ex.MarkupModelEx;
+import com.intellij.openapi.editor.impl.DocumentMarkupModel;
 import com.intellij.openapi.editor.markup.GutterDraggableObject;
 import com.intellij.openapi.editor.markup.GutterIconRenderer;
 import com.intellij.openapi.editor.markup.HighlighterLayer;
 import com.intellij.openapi.editor.markup.RangeHighlighter;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
-import com.intellij.openapi.fileEditor.FileEditorManager;
-import com.intellij.openapi.fileEditor.OpenFileDescriptor;
-import com.intellij.openapi.fileEditor.ex.FileEditorManagerEx;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.IconLoader;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -54,53 +50,36 @@ public class ReviewPoint{
         this.review = review;
     }
 
+    /**
+     * Adds the gutter icon if the file is shown in an editor. Documents of files which were not opened are not loaded,
+     * icons of their reviews are added by ReviewPointManager when an editor is created.
+     */
     public void updateUI() {
         final Project project = review.getProject();
         if(project == null) return;
-        final Document document = Util.getInstance(review.getProject()).getDocument(review.getFilePath());
+        final VirtualFile file = Util.getInstance(project).getVirtualFile(review.getFilePath());
+        if(file == null) return;
+        final Document document = FileDocumentManager.getInstance().getCachedDocument(file);
         if(document == null) return;
         if(review.isValid()) {
             if(highlighter == null) {
-
+                if(EditorFactory.getInstance().getEditors(document, project).length == 0) return;
                 int line = review.getLineNumber();
                 if(line < 0) return;
-                OpenFileDescriptor openFileDescriptor = Util.getInstance(project).
-                                                        getOpenFileDescriptor(review.getFilePath(),
-                                                                review.getStart());
-                final Editor editor = FileEditorManagerEx.getInstance(project).
-                                                          openTextEditor(openFileDescriptor, true);
-                if(editor == null) return;
-
-                MarkupModelEx markup = (MarkupModelEx) editor.getMarkupModel();
-                //
+                MarkupModelEx markup = (MarkupModelEx) DocumentMarkupModel.forDocument(document, project, true);
                 highlighter = markup.addPersistentLineHighlighter(line, HighlighterLayer.ERROR + 1, null);
                 if(highlighter == null) return;
                 gutterIconRenderer = new ReviewGutterIconRenderer();
                 highlighter.setGutterIconRenderer(gutterIconRenderer);
-                DocumentAdapter listener = new DocumentAdapter() {
-                    @Override
-                    public void documentChanged(DocumentEvent event) {
-
-                        int newStart = highlighter.getStartOffset();
-                        int newEnd = highlighter.getEndOffset();
-                        if (!highlighter.isValid()) {
-                            review.setValid(false);
-                        } else {
-                            review.setStart(newStart);
-                            review.setEnd(newEnd);
-                        }
-                        ReviewManager.getInstance(project).changeReview(review);
-                    }
-                };
-                document.addDocumentListener(listener,  project);
+                DocumentReviewTracker.getInstance(project, document).add(this);
                 return;
             }
             if(highlighter.isValid()) {
                 return;
             }
         }
-        if(review.isDeleted() && highlighter != null) {
-            highlighter.dispose();
+        if(review.isDeleted()) {
+            dispose();
         }
         ReviewManager.getInstance(review.getProject()).logInvalidReview(review);
     }
@@ -113,6 +92,25 @@ public class ReviewPoint{
         return review;
     }
 
+    /**
+     * Removes the gutter icon, updateUI() shows it again
+     */
+    void dispose() {
+        if(highlighter == null) return;
+        final DocumentReviewTracker tracker = DocumentReviewTracker.findInstance(highlighter.getDocument());
+        if(tracker != null) {
+            tracker.remove(this);
+        }
+        highlighter.dispose();
+        highlighter = null;
+        gutterIconRenderer = null;
+    }
+
+    @Nullable
+    RangeHighlighter getHighlighter() {
+        return highlighter;
+    }
+
     private class ReviewGutterIconRenderer extends GutterIconRenderer{
         private final Icon icon = IconLoader.getIcon("/images/note.png");
 
@@ -204,10 +202,8 @@ public class ReviewPoint{
     private boolean moveTo(VirtualFile virtualFile, int line) {
         Document document = FileDocumentManager.getInstance().getDocument(virtualFile);
         if(document == null) return false;
-        Editor editor = FileEditorManager.getInstance(review.getProject()).getSelectedTextEditor();
-        if(editor == null) return false;
-        MarkupModelEx markup = (MarkupModelEx) editor.getMarkupModel();
         if(line < 0) return false;
+        MarkupModelEx markup = (MarkupModelEx) DocumentMarkupModel.forDocument(document, review.getProject(), true);
         RangeHighlighter newHighlighter = markup.addPersistentLineHighlighter(line,
                                                                             HighlighterLayer.ERROR + 1, null);
         if(newHighlighter == null || !newHighlighter.isValid()) return false;
@@ -1,11 +1,23 @@
 package ui.gutterpoint;
 
 import com.intellij.openapi.components.AbstractProjectComponent;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.event.EditorFactoryAdapter;
+import com.intellij.openapi.editor.event.EditorFactoryEvent;
+import com.intellij.openapi.editor.markup.RangeHighlighter;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.project.DumbAware;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
 import reviewresult.Review;
+import reviewresult.ReviewManager;
+import utils.Util;
 
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -14,10 +26,22 @@ import java.util.Map;
  * Time: 11:30 AM
  */
 public class ReviewPointManager extends AbstractProjectComponent implements DumbAware{
+    //only points shown in editors, they are disposed when the last editor of their document is released
     private final Map<Review, ReviewPoint> reviewPoints = new HashMap<Review, ReviewPoint>();
 
     public ReviewPointManager(Project project) {
         super(project);
+        EditorFactory.getInstance().addEditorFactoryListener(new EditorFactoryAdapter() {
+            @Override
+            public void editorCreated(EditorFactoryEvent event) {
+                showReviewPoints(event.getEditor());
+            }
+
+            @Override
+            public void editorReleased(EditorFactoryEvent event) {
+                hideReviewPoints(event.getEditor());
+            }
+        }, project);
     }
 
     public static ReviewPointManager getInstance(Project project) {
@@ -28,22 +52,88 @@ public class ReviewPointManager extends AbstractProjectComponent implements Dumb
             return reviewPoints.get(review);
     }
 
-    private ReviewPoint createReviewPoint(Review review) {
-        ReviewPoint point = new ReviewPoint(review);
-        reviewPoints.put(review, point);
-        return point;
-    }
-
     public void reloadReviewPoint(Review review) {
         ReviewPoint reviewPoint = findReviewPoint(review);
         if(reviewPoint == null) {
-            if(review.isValid())
-                reviewPoint = createReviewPoint(review);
-        }else {
-            if(review.isDeleted())
-                reviewPoints.remove(review);
-        }
-        if(reviewPoint != null)
+            if(!review.isValid()) return;
+            reviewPoint = new ReviewPoint(review);
             reviewPoint.updateUI();
+            //points of files which are not shown are created again when an editor is opened
+            if(reviewPoint.getHighlighter() != null) {
+                reviewPoints.put(review, reviewPoint);
+            }
+            return;
+        }
+        if(review.isDeleted()) {
+            reviewPoints.remove(review);
+        }
+        reviewPoint.updateUI();
+    }
+
+    /**
+     * @return number of review points shown in editors
+     */
+    public int getPointCount() {
+        return reviewPoints.size();
+    }
+
+    /**
+     * @return number of highlighters of review points which are still attached to their lines
+     */
+    public int getHighlighterCount() {
+        int count = 0;
+        for(ReviewPoint point : reviewPoints.values()) {
+            final RangeHighlighter highlighter = point.getHighlighter();
+            if(highlighter != null && highlighter.isValid()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void projectClosed() {
+        for(ReviewPoint point : reviewPoints.values()) {
+            point.dispose();
+        }
+        reviewPoints.clear();
+    }
+
+    /**
+     * Adds gutter icons of reviews of the file shown in the new editor
+     */
+    private void showReviewPoints(Editor editor) {
+        if(myProject.isDisposed() || editor.getProject() != null && editor.getProject() != myProject) return;
+        final VirtualFile file = FileDocumentManager.getInstance().getFile(editor.getDocument());
+        if(file == null) return;
+        final String filePath = Util.getFilePath(myProject, file);
+        if(filePath == null) return;
+        final ReviewManager reviewManager = ReviewManager.getInstance(myProject);
+        reviewManager.ensureLoaded(filePath);
+        reviewManager.anchorUntrackedReviews(filePath);
+        final List<Review> reviews = reviewManager.getValidReviews(filePath);
+        if(reviews == null) return;
+        for(Review review : reviews) {
+            reloadReviewPoint(review);
+        }
+    }
+
+    /**
+     * Disposes review points of the document when its last editor is released
+     */
+    private void hideReviewPoints(Editor released) {
+        if(released.getProject() != null && released.getProject() != myProject) return;
+        final Document document = released.getDocument();
+        for(Editor editor : EditorFactory.getInstance().getEditors(document, myProject)) {
+            if(editor != released) return;
+        }
+        for(Iterator<ReviewPoint> iterator = reviewPoints.values().iterator(); iterator.hasNext();) {
+            final ReviewPoint point = iterator.next();
+            final RangeHighlighter highlighter = point.getHighlighter();
+            if(highlighter == null || highlighter.getDocument() == document) {
+                point.dispose();
+                iterator.remove();
+            }
+        }
     }
 }
@@ -0,0 +1,70 @@
+package ui.reviewtoolwindow;
+
+import com.intellij.ide.util.treeView.NodeDescriptor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ui.reviewtoolwindow.nodes.ReviewNode;
+
+import java.util.Comparator;
+
+/**
+ * Compares review nodes or their sort keys by cached values, one key after another until they differ.
+ * Other nodes keep the order of the tree structure and go before review nodes.
+ */
+public class ReviewNodeComparator implements Comparator<NodeDescriptor> {
+    public enum Key {
+        FILE, OFFSET, DATE, FIRST_COMMENTER, LAST_COMMENTER
+    }
+
+    private final Key[] keys;
+
+    public ReviewNodeComparator(Key... keys) {
+        this.keys = keys;
+    }
+
+    @Override
+    public int compare(NodeDescriptor o1, NodeDescriptor o2) {
+        final Object first = o1.getElement();
+        final Object second = o2.getElement();
+        final boolean firstIsReview = first instanceof ReviewNode;
+        final boolean secondIsReview = second instanceof ReviewNode;
+        if(!firstIsReview || !secondIsReview) {
+            return firstIsReview == secondIsReview ? 0 : firstIsReview ? 1 : -1;
+        }
+        return compareKeys(((ReviewNode) first).getSortKey(), ((ReviewNode) second).getSortKey());
+    }
+
+    public int compareKeys(@NotNull ReviewNode.SortKey first, @NotNull ReviewNode.SortKey second) {
+        for(Key key : keys) {
+            final int result = compare(key, first, second);
+            if(result != 0) return result;
+        }
+        return 0;
+    }
+
+    private static int compare(Key key, ReviewNode.SortKey first, ReviewNode.SortKey second) {
+        switch (key) {
+            case FILE:
+                return compareStrings(first.getFilePath(), second.getFilePath());
+            case OFFSET:
+                //offsets follow document changes, so they are read from reviews
+                final int firstOffset = first.getReview().getStart();
+                final int secondOffset = second.getReview().getStart();
+                return firstOffset == secondOffset ? 0 : firstOffset > secondOffset ? 1 : -1;
+            case DATE:
+                return first.getDateOfCreation() == second.getDateOfCreation() ? 0 :
+                       first.getDateOfCreation() > second.getDateOfCreation() ? 1 : -1;
+            case FIRST_COMMENTER:
+                return compareStrings(first.getFirstCommenter(), second.getFirstCommenter());
+            case LAST_COMMENTER:
+                return compareStrings(first.getLastCommenter(), second.getLastCommenter());
+        }
+        return 0;
+    }
+
+    private static int compareStrings(@Nullable String first, @Nullable String second) {
+        if(first == null) return second == null ? 0 : -1;
+        if(second == null) return 1;
+        return first.compareTo(second);
+    }
+}
@@ -1,5 +1,6 @@
 package ui.reviewtoolwindow;
 
+import com.intellij.ProjectTopics;
 import com.intellij.ide.DataManager;
 import com.intellij.ide.OccurenceNavigator;
 import com.intellij.ide.OccurenceNavigatorSupport;
@@ -13,6 +14,8 @@ import com.intellij.openapi.editor.event.DocumentEvent;
 import com.intellij.openapi.fileEditor.FileEditorManager;
 import com.intellij.openapi.project.DumbAware;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ModuleRootAdapter;
+import com.intellij.openapi.roots.ModuleRootEvent;
 import com.intellij.openapi.ui.SimpleToolWindowPanel;
 import com.intellij.openapi.ui.Splitter;
 import com.intellij.openapi.util.IconLoader;
@@ -32,15 +35,19 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import reviewresult.Review;
 import reviewresult.ReviewChangedTopics;
+import reviewresult.ReviewDelta;
 import reviewresult.ReviewManager;
-import reviewresult.ReviewsChangedListener;
+import reviewresult.ReviewsBatchListener;
 import ui.actions.ReviewActionManager;
 import ui.reviewtoolwindow.filter.Searcher;
 import ui.reviewtoolwindow.filter.SmartTextFieldWithAutoComplete;
 import ui.reviewtoolwindow.nodes.*;
 import utils.ReviewsBundle;
+import utils.Util;
 
 import javax.swing.*;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
 import javax.swing.event.TreeSelectionEvent;
 import javax.swing.event.TreeSelectionListener;
 import javax.swing.tree.DefaultMutableTreeNode;
@@ -48,8 +55,9 @@ import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreePath;
 import java.awt.*;
 import java.awt.event.*;
-import java.util.Comparator;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -60,16 +68,21 @@ import java.util.Set;
 
 public class ReviewPanel extends  SimpleToolWindowPanel implements DataProvider, OccurenceNavigator, Disposable, DumbAware {
     private static final String ACTION_GROUP = ReviewsBundle.message("reviews.treeReviewActionGroup");
+    private static final int BULK_UPDATE_SIZE = 100;
 
     private final Project project;
     private SimpleTree reviewTree;
     private AbstractTreeBuilder reviewTreeBuilder;
+    private ReviewTable reviewTable;
+    private JScrollPane scrollPane;
     private final ReviewsPreviewPanel previewPanel = new ReviewsPreviewPanel();
 
     @Nullable
     private OccurenceNavigatorSupport reviewNavigatorSupport;
     private JPanel searchPanel;
     private ReviewTreeStructure reviewTreeStructure;
+    private final TreeUpdater treeUpdater = new TreeUpdater();
+    private boolean bulkUpdate;
 
     private final ReviewToolWindowSettings settings;
 
@@ -78,11 +91,12 @@ public class ReviewPanel extends  SimpleToolWindowPanel implements DataProvider,
         this.project = project;
         settings = new ReviewToolWindowSettings(project);
         initTree();
+        initTable();
         JPanel mainPanel = new JPanel(new BorderLayout());
 
         mainPanel.add(new ReviewToolWindowActionManager(this, settings).createLeftMenu(), BorderLayout.WEST);
 
-        JScrollPane scrollPane = ScrollPaneFactory.createScrollPane(reviewTree);
+        scrollPane = ScrollPaneFactory.createScrollPane(settings.isFlatView() ? reviewTable : reviewTree);
         mainPanel.add(scrollPane);
 
         previewPanel.setVisible(settings.isShowPreviewEnabled() && settings.isEnabled());
@@ -95,7 +109,13 @@ public class ReviewPanel extends  SimpleToolWindowPanel implements DataProvider,
         setContent(pane);
         setProvideQuickActions(true);
         MessageBusConnection connection = project.getMessageBus().connect(project);
-        connection.subscribe(ReviewChangedTopics.REVIEW_STATUS, new ReviewsListener());
+        connection.subscribe(ReviewChangedTopics.REVIEWS_BATCH, new ReviewsListener());
+        connection.subscribe(ProjectTopics.PROJECT_ROOTS, new ModuleRootAdapter() {
+            @Override
+            public void rootsChanged(ModuleRootEvent event) {
+                reviewTreeStructure.invalidateModules();
+            }
+        });
     }
 
     private void setupSearchLine(final Project project, JPanel mainPanel) {
@@ -125,21 +145,27 @@ public class ReviewPanel extends  SimpleToolWindowPanel implements DataProvider,
         searchLine.registerKeyboardAction(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                searcher.createFilter(searchLine.extractSuffix());
+                searcher.createFilter(searchLine.extractSuffix(), new Searcher.SearchListener() {
+                    @Override
+                    public void resultsAdded(@NotNull Collection<Review> reviews) {
+                        showSearchResults(reviews);
+                    }
 
-                reviewTreeBuilder.getUi().doUpdateFromRoot();
-                final boolean enabled = !searcher.getFilteredFileNames().isEmpty();
+                    @Override
+                    public void searchFinished() {
+                        final boolean enabled = !searcher.getFilteredFileNames().isEmpty();
 
-                settings.setEnabled(enabled);
-                if(!enabled) {
-                    previewPanel.setVisible(enabled);
-                }
-                if (settings.isShowPreviewEnabled() && settings.isEnabled()) {
-                    updateUI();
-                }
-                String filtersText = searcher.getAdditionalFilterText();
-                searchLine.setInactivePrefix(filtersText);
-                searchLine.setText(filtersText + searcher.getFilter());
+                        settings.setEnabled(enabled);
+                        if(!enabled) {
+                            previewPanel.setVisible(enabled);
+                        }
+                        if (settings.isShowPreviewEnabled() && settings.isEnabled()) {
+                            updateUI();
+                        }
+                    }
+                });
+
+                updateFromRoot();
             }
         }, KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0), JComponent.WHEN_IN_FOCUSED_WINDOW);
 
@@ -268,91 +294,88 @@ public class ReviewPanel extends  SimpleToolWindowPanel implements DataProvider,
     }
 
     public void rebuidTree() {
-        Comparator<NodeDescriptor> comparator = getComparator();
+        ReviewNodeComparator comparator = getComparator();
         reviewTreeBuilder.setNodeDescriptorComparator(comparator);
-        reviewTreeBuilder.getUi().doUpdateFromRoot();
+        reviewTable.setComparator(comparator);
+        updateFromRoot();
     }
 
-    private Comparator<NodeDescriptor> getComparator() {
-        Comparator<NodeDescriptor> comparator = null;
-        if(settings.isSortByAuthor()){
-            comparator = new Comparator<NodeDescriptor>() {
-                @Override
-                public int compare(NodeDescriptor o1, NodeDescriptor o2) {
-                    if(o1.getElement() instanceof ReviewNode && o1.getElement() instanceof ReviewNode) {
-                        Review r1 = ((Review)((ReviewNode) o1.getElement()).getObject());
-                        Review r2 = ((Review)((ReviewNode) o2.getElement()).getObject());
-                        final String firstAuthor = r1.getFirstCommenter();
-                        final String secondAuthor = r2.getFirstCommenter();
-                        if(secondAuthor != null && firstAuthor != null)
-                            return firstAuthor.compareTo(secondAuthor);
-                    }
-                    return -1;
-                }
-            };
+    /**
+     * Rebuilds the shown view: the tree or the flat table
+     */
+    private void updateFromRoot() {
+        if(settings.isFlatView()) {
+            reviewTable.rebuild();
+        } else {
+            reviewTreeBuilder.getUi().doUpdateFromRoot();
         }
+    }
 
-        if(settings.isSortByOffset()){
-            comparator = new Comparator<NodeDescriptor>() {
-                @Override
-                public int compare(NodeDescriptor o1, NodeDescriptor o2) {
-                     if(o1.getElement() instanceof ReviewNode && o1.getElement() instanceof ReviewNode) {
-                        Review r1 = ((Review)((ReviewNode) o1.getElement()).getObject());
-                        Review r2 = ((Review)((ReviewNode) o2.getElement()).getObject());
-                        if(r1.getFilePath().equals(r2.getFilePath())) {
-                            final int firstOffset = r1.getStart();
-                            final int secondOffset = r2.getStart();
-                            return firstOffset == secondOffset? 0 : firstOffset > secondOffset? 1 : -1;
-                        }
-                     }
-                    return -1;
+    /**
+     * Shows reviews matched by the running search, only their nodes and hidden ancestors are updated
+     */
+    private void showSearchResults(@NotNull Collection<Review> reviews) {
+        if(settings.isFlatView()) {
+            final List<Review> liveReviews = new ArrayList<Review>(reviews.size());
+            for(Review review : reviews) {
+                final Review liveReview = findLiveReview(review);
+                if(liveReview != null) {
+                    liveReviews.add(liveReview);
                 }
-            };
+            }
+            reviewTable.updateReviews(liveReviews);
+            return;
         }
-
-        if(settings.isSortByLastCommenter()){
-            comparator = new Comparator<NodeDescriptor>() {
-                @Override
-                public int compare(NodeDescriptor o1, NodeDescriptor o2) {
-                     if(o1.getElement() instanceof ReviewNode && o1.getElement() instanceof ReviewNode) {
-                        Review r1 = ((Review)((ReviewNode) o1.getElement()).getObject());
-                        Review r2 = ((Review)((ReviewNode) o2.getElement()).getObject());
-                        final String firstLastAuthor = r1.getLastCommenter();
-                        final String secondLastAuthor = r2.getLastCommenter();
-                        return firstLastAuthor.compareTo(secondLastAuthor);
-                     }
-                    return -1;
-                }
-            };
+        for(Review review : reviews) {
+            final PlainNode node = reviewTreeStructure.getNode(review);
+            if(node != null) {
+                treeUpdater.nodeChanged(node);
+                continue;
+            }
+            final Review liveReview = findLiveReview(review);
+            if(liveReview != null) {
+                reviewTreeStructure.addReview(liveReview);
+            }
         }
+    }
+
+    /**
+     * Matched reviews are copies, the views show the live ones
+     */
+    @Nullable
+    private Review findLiveReview(@NotNull Review review) {
+        final List<Review> fileReviews = ReviewManager.getInstance(project).getValidReviews(review.getFilePath());
+        final int index = fileReviews == null ? -1 : fileReviews.indexOf(review);
+        return index < 0 ? null : fileReviews.get(index);
+    }
 
+    @Nullable
+    private ReviewNodeComparator getComparator() {
         if(settings.isSortByDate()) {
-            comparator = new Comparator<NodeDescriptor>() {
-                @Override
-                public int compare(NodeDescriptor o1, NodeDescriptor o2) {
-                     if(o1.getElement() instanceof ReviewNode && o1.getElement() instanceof ReviewNode) {
-                        Review r1 = ((Review)((ReviewNode) o1.getElement()).getObject());
-                        Review r2 = ((Review)((ReviewNode) o2.getElement()).getObject());
-                        final Date firstDate = r1.getDateOfCreation();
-                        final Date secondDate = r2.getDateOfCreation();
-                        return firstDate.compareTo(secondDate);
-                     }
-                    return -1;
-                }
-            };
+            return new ReviewNodeComparator(ReviewNodeComparator.Key.DATE, ReviewNodeComparator.Key.FILE,
+                                            ReviewNodeComparator.Key.OFFSET);
+        }
+        if(settings.isSortByLastCommenter()) {
+            return new ReviewNodeComparator(ReviewNodeComparator.Key.LAST_COMMENTER, ReviewNodeComparator.Key.DATE,
+                                            ReviewNodeComparator.Key.FILE, ReviewNodeComparator.Key.OFFSET);
+        }
+        if(settings.isSortByOffset()) {
+            return new ReviewNodeComparator(ReviewNodeComparator.Key.FILE, ReviewNodeComparator.Key.OFFSET);
+        }
+        if(settings.isSortByAuthor()) {
+            return new ReviewNodeComparator(ReviewNodeComparator.Key.FIRST_COMMENTER, ReviewNodeComparator.Key.DATE,
+                                            ReviewNodeComparator.Key.FILE, ReviewNodeComparator.Key.OFFSET);
         }
-        return comparator;
+        return null;
     }
 
     private void openReview() {
-        DataContext dataContext = DataManager.getInstance().getDataContext(reviewTree);
+        DataContext dataContext = DataManager.getInstance().getDataContext(settings.isFlatView() ? reviewTable
+                                                                                                 : reviewTree);
         Project project = PlatformDataKeys.PROJECT.getData(dataContext);
         if (project == null) return;
-        SimpleNode selectedNode = reviewTree.getSelectedNode();
-        if(selectedNode == null) return;
-        SimpleNode node = (SimpleNode) selectedNode.getElement();
-        if(node instanceof ReviewNode) {
-            final Review review = (Review) ((ReviewNode) node).getObject();
+        final Review review = getSelectedReview();
+        if(review != null) {
             OpenSourceUtil.openSourcesFrom(dataContext, true);
             final Editor editor = FileEditorManager.getInstance(project).getSelectedTextEditor();
             SwingUtilities.invokeLater(new Runnable() {
@@ -365,12 +388,71 @@ public class ReviewPanel extends  SimpleToolWindowPanel implements DataProvider,
         }
     }
 
+    @Nullable
+    private Review getSelectedReview() {
+        if(settings.isFlatView()) {
+            return reviewTable.getSelectedReview();
+        }
+        SimpleNode selectedNode = reviewTree.getSelectedNode();
+        if(selectedNode == null) return null;
+        SimpleNode node = (SimpleNode) selectedNode.getElement();
+        return node instanceof ReviewNode ? (Review) ((ReviewNode) node).getObject() : null;
+    }
+
+    private void initTable() {
+        reviewTable = new ReviewTable(project, settings);
+        reviewTable.setComparator(getComparator());
+        if(settings.isFlatView()) {
+            reviewTable.rebuild();
+        }
+        PopupHandler.installPopupHandler(reviewTable, ACTION_GROUP, ActionPlaces.TODO_VIEW_POPUP);
+        reviewTable.addMouseListener(new MouseAdapter(){
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    openReview();
+                }
+            }
+        });
+        reviewTable.addKeyListener(new KeyAdapter() {
+            public void keyPressed(KeyEvent e) {
+                if (KeyEvent.VK_ENTER == e.getKeyCode()) {
+                    e.consume();
+                    openReview();
+                }
+                if(e.getKeyCode() == KeyEvent.VK_F  && e.getModifiers() == KeyEvent.CTRL_MASK) {
+                    settings.setSearchEnabled(true);
+                    updateUI();
+                }
+            }
+        });
+        reviewTable.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
+            @Override
+            public void valueChanged(ListSelectionEvent e) {
+                if(!e.getValueIsAdjusting() && settings.isShowPreviewEnabled()) {
+                    showPreview();
+                }
+            }
+        });
+    }
+
     private void createTreeStructure() {
         reviewTreeStructure = new ReviewTreeStructure(project, settings);
+        reviewTreeStructure.addListener(treeUpdater);
     }
 
     @Override
     public Object getData(@NonNls String dataId) {
+            if(settings.isFlatView()) {
+                final Review review = reviewTable.getSelectedReview();
+                if(review == null) return null;
+                if (PlatformDataKeys.NAVIGATABLE.is(dataId)) {
+                    return Util.getInstance(project).getOpenFileDescriptor(review.getFilePath(), review.getStart());
+                }
+                if(Review.REVIEW_DATA_KEY.is(dataId)) {
+                    return review;
+                }
+                return null;
+            }
             TreePath path = reviewTree.getSelectionPath();
             if (path == null) {
                 return null;
@@ -440,8 +522,12 @@ public class ReviewPanel extends  SimpleToolWindowPanel implements DataProvider,
             searchPanel.setVisible(settings.isSearchEnabled() && settings.isEnabled());
             //searchLine.setText(Searcher.getInstance(project).getFilter());
 
-            if(reviewTreeBuilder == null) return;
-            reviewTreeBuilder.getUi().doUpdateFromRoot();
+            if(reviewTreeBuilder == null || scrollPane == null) return;
+            final JComponent view = settings.isFlatView() ? reviewTable : reviewTree;
+            if(scrollPane.getViewport().getView() != view) {
+                scrollPane.setViewportView(view);
+            }
+            updateFromRoot();
 
             if(settings.isShowPreviewEnabled() && settings.isEnabled()) {
                 Set<String> fileNames = ReviewManager.getInstance(project).getFileNames();
@@ -459,6 +545,13 @@ public class ReviewPanel extends  SimpleToolWindowPanel implements DataProvider,
     }
 
     public void showPreview() {
+        if(settings.isFlatView()) {
+            final Review review = reviewTable.getSelectedReview();
+            if(review != null) {
+                previewPanel.update(review);
+            }
+            return;
+        }
         showPreview(reviewTree.getSelectedNode());
     }
 
@@ -483,50 +576,81 @@ public class ReviewPanel extends  SimpleToolWindowPanel implements DataProvider,
         settings.saveState();
     }
 
-    public class ReviewsListener implements ReviewsChangedListener, DumbAware {
+    public class ReviewsListener implements ReviewsBatchListener, DumbAware {
 
         @Override
-        public void reviewAdded(Review review) {
-            update(reviewTreeStructure.addReview(review));
-            if(!settings.isEnabled()) {
-                settings.setEnabled(true);
+        public void reviewsChanged(Collection<ReviewDelta> deltas) {
+            //one update of the whole view is cheaper than many updates of subtrees
+            final boolean bulk = deltas.size() > BULK_UPDATE_SIZE;
+            final List<Review> reviews = new ArrayList<Review>(deltas.size());
+            bulkUpdate = bulk;
+            try {
+                for(ReviewDelta delta : deltas) {
+                    final Review review = delta.getReview();
+                    reviews.add(review);
+                    switch (delta.getKind()) {
+                        case ADDED:
+                            reviewTreeStructure.addReview(review);
+                            break;
+                        case DELETED:
+                            reviewTreeStructure.removeReview(review);
+                            break;
+                        case CHANGED:
+                            reviewTreeStructure.changeReview(review);
+                            break;
+                    }
+                }
+            } finally {
+                bulkUpdate = false;
+            }
+            if(settings.isFlatView() && !bulk) {
+                reviewTable.updateReviews(reviews);
+            }
+            final boolean enabled = ((PlainNode)reviewTreeStructure.getRootElement()).getChildren().length != 0;
+            if(enabled != settings.isEnabled()) {
+                settings.setEnabled(enabled);
                 updateUI();
+            } else if(bulk) {
+                updateFromRoot();
+            }
+            if(settings.isShowPreviewEnabled()) {
+                showPreview();
             }
+        }
+    }
 
+    /**
+     * Updates only the subtrees of changed nodes. Nodes which are hidden by grouping settings
+     * are updated through their closest shown ancestor
+     */
+    private class TreeUpdater implements ReviewTreeStructure.StructureListener {
+        @Override
+        public void nodeInserted(@NotNull PlainNode parent, @NotNull PlainNode node) {
+            update(parent);
         }
 
         @Override
-        public void reviewDeleted(Review review) {
-            reviewTreeStructure.removeReview(review);
-            reviewTreeBuilder.getUi().doUpdateFromRoot();
-            if(((PlainNode)reviewTreeStructure.getRootElement()).getChildren().length == 0) {
-                settings.setEnabled(false);
-                updateUI();
-            }
+        public void nodeRemoved(@NotNull PlainNode parent, @NotNull PlainNode node) {
+            update(parent);
         }
 
         @Override
-        public void reviewChanged(Review newReview) {
-            update(reviewTreeStructure.getNode(newReview));
-            showPreview();
+        public void nodeChanged(@NotNull PlainNode node) {
+            update(node);
         }
 
         private void update(PlainNode node) {
-            if(node == null || node.equals(reviewTreeStructure.getRootElement())) {
-                 reviewTreeBuilder.getUi().doUpdateFromRoot();
-
-            } else {
-                DefaultMutableTreeNode nodeToUpdate = TreeUtil.findNodeWithObject(
-                                                            reviewTreeBuilder.getRootNode(),
-                                                            node
-                                                      );
-                if(nodeToUpdate == null) {
-                    reviewTreeBuilder.getUi().doUpdateFromRoot();
-                    return;
-                }
-                reviewTreeBuilder.addSubtreeToUpdate(nodeToUpdate);
-                reviewTreeBuilder.queueUpdate();
+            //rows of the flat view are updated by the batches of changed reviews
+            if(bulkUpdate || settings.isFlatView()) return;
+            if(reviewTreeBuilder == null) return;
+            PlainNode current = node;
+            while(current != null && !reviewTreeBuilder.addSubtreeToUpdateByElement(current)) {
+                current = current.getPlainParent();
+            }
+            if(current == null) {
+                reviewTreeBuilder.addSubtreeToUpdate(reviewTreeBuilder.getRootNode());
             }
+            reviewTreeBuilder.queueUpdate();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,362 @@
+package ui.reviewtoolwindow;
+
+import com.intellij.openapi.editor.colors.EditorColors;
+import com.intellij.openapi.editor.colors.EditorColorsManager;
+import com.intellij.openapi.editor.markup.TextAttributes;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Pair;
+import com.intellij.ui.ColoredTableCellRenderer;
+import com.intellij.ui.SimpleTextAttributes;
+import com.intellij.ui.table.JBTable;
+import com.intellij.util.text.DateFormatUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import reviewresult.FacetIndex;
+import reviewresult.Review;
+import reviewresult.ReviewManager;
+import ui.reviewtoolwindow.filter.Searcher;
+import ui.reviewtoolwindow.nodes.ReviewNode;
+import utils.ReviewsBundle;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.util.*;
+
+/**
+ * Flat view of reviews with a row for every review and for every group of them. Rows are built from the facet
+ * index of live reviews and then kept sorted while reviews change, the table paints and measures only the rows
+ * which are visible.
+ */
+public class ReviewTable extends JBTable {
+    private static final int REVIEW_COLUMN = 0;
+    private static final int LOCATION_COLUMN = 1;
+    private static final int AUTHOR_COLUMN = 2;
+    private static final int DATE_COLUMN = 3;
+
+    private final Project project;
+    private final ReviewToolWindowSettings settings;
+    private final ReviewTableModel model;
+    //entries of shown reviews, the row of a changed review is found by its old entry
+    private Map<Review, Entry> entries = new HashMap<Review, Entry>();
+    @Nullable
+    private ReviewNodeComparator comparator;
+
+    private static class Entry {
+        @Nullable
+        private final String group;
+        private final ReviewNode.SortKey key;
+
+        private Entry(@Nullable String group, ReviewNode.SortKey key) {
+            this.group = group;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Rows are names of groups and entries of reviews
+     */
+    private static class ReviewTableModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {ReviewsBundle.message("reviews.columnReview"),
+                                                 ReviewsBundle.message("reviews.columnLocation"),
+                                                 ReviewsBundle.message("reviews.columnAuthor"),
+                                                 ReviewsBundle.message("reviews.columnDate")};
+        private List<Object> rows = new ArrayList<Object>();
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            return rows.get(row);
+        }
+
+        private void setRows(List<Object> rows) {
+            this.rows = rows;
+            fireTableDataChanged();
+        }
+
+        private void insertRows(int row, Object... values) {
+            rows.addAll(row, Arrays.asList(values));
+            fireTableRowsInserted(row, row + values.length - 1);
+        }
+
+        private void deleteRows(int firstRow, int lastRow) {
+            rows.subList(firstRow, lastRow + 1).clear();
+            fireTableRowsDeleted(firstRow, lastRow);
+        }
+
+        private void updateRow(int row, Object value) {
+            rows.set(row, value);
+            fireTableRowsUpdated(row, row);
+        }
+    }
+
+    public ReviewTable(@NotNull Project project, @NotNull ReviewToolWindowSettings settings) {
+        super(new ReviewTableModel());
+        this.project = project;
+        this.settings = settings;
+        model = (ReviewTableModel) getModel();
+        setDefaultRenderer(Object.class, new ReviewCellRenderer());
+        setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        setShowGrid(false);
+        setStriped(true);
+    }
+
+    public void setComparator(@Nullable ReviewNodeComparator comparator) {
+        this.comparator = comparator;
+    }
+
+    public void rebuild() {
+        final ReviewManager manager = ReviewManager.getInstance(project);
+        manager.ensureAllLoaded();
+        final FacetIndex facets = manager.getFacets();
+        final Searcher searcher = Searcher.getInstance(project);
+        final List<Review> reviews = facets.getReviews(facets.getAll());
+        final Map<Review, Entry> newEntries = new HashMap<Review, Entry>(reviews.size());
+        final List<Entry> sorted = new ArrayList<Entry>(reviews.size());
+        for(Review review : reviews) {
+            if(!searcher.containsReview(review) || !review.isValid()) continue;
+            final Entry oldEntry = entries.get(review);
+            final ReviewNode.SortKey key = oldEntry != null && oldEntry.key.getReview() == review
+                                           ? oldEntry.key : new ReviewNode.SortKey(review);
+            final Entry entry = new Entry(getGroup(facets, review), key);
+            newEntries.put(review, entry);
+            sorted.add(entry);
+        }
+        entries = newEntries;
+        Collections.sort(sorted, new Comparator<Entry>() {
+            public int compare(Entry o1, Entry o2) {
+                return compareEntries(o1, o2);
+            }
+        });
+
+        final List<Object> rows = new ArrayList<Object>(sorted.size());
+        String group = null;
+        for(Entry entry : sorted) {
+            if(entry.group != null && !entry.group.equals(group)) {
+                group = entry.group;
+                rows.add(group);
+            }
+            rows.add(entry);
+        }
+        final Review selected = getSelectedReview();
+        model.setRows(rows);
+        if(selected != null) {
+            final Entry entry = entries.get(selected);
+            final int row = entry == null ? -1 : findRow(entry);
+            if(row >= 0) {
+                getSelectionModel().setSelectionInterval(row, row);
+            }
+        }
+    }
+
+    /**
+     * Moves rows of the changed reviews to their sorted positions, adds rows of new matched reviews and
+     * removes rows of deleted or filtered out ones. Groups are added and removed together with their first and
+     * last reviews.
+     */
+    public void updateReviews(@NotNull Collection<Review> reviews) {
+        final ReviewManager manager = ReviewManager.getInstance(project);
+        final FacetIndex facets = manager.getFacets();
+        final Searcher searcher = Searcher.getInstance(project);
+        final Review selected = getSelectedReview();
+        for(Review review : reviews) {
+            final Entry oldEntry = entries.remove(review);
+            final int oldRow = oldEntry == null ? -1 : findRow(oldEntry);
+            if(!manager.containsReview(review) || !review.isValid() || !searcher.containsReview(review)) {
+                if(oldRow >= 0) {
+                    deleteRow(oldRow);
+                }
+                continue;
+            }
+            final Entry entry = new Entry(getGroup(facets, review), new ReviewNode.SortKey(review));
+            entries.put(review, entry);
+            if(oldRow >= 0 && fitsRow(entry, oldRow)) {
+                model.updateRow(oldRow, entry);
+                continue;
+            }
+            if(oldRow >= 0) {
+                deleteRow(oldRow);
+            }
+            insertRow(entry);
+        }
+        if(selected != null && getSelectedReview() == null && entries.containsKey(selected)) {
+            final int row = findRow(entries.get(selected));
+            getSelectionModel().setSelectionInterval(row, row);
+        }
+    }
+
+    @Nullable
+    public Review getSelectedReview() {
+        final int row = getSelectedRow();
+        if(row < 0 || row >= model.rows.size()) return null;
+        final Object value = model.rows.get(row);
+        return value instanceof Entry ? ((Entry) value).key.getReview() : null;
+    }
+
+    private int compareEntries(@NotNull Entry o1, @NotNull Entry o2) {
+        if(o1.group != null && o2.group != null) {
+            final int result = o1.group.compareTo(o2.group);
+            if(result != 0) return result;
+        }
+        return comparator == null ? 0 : comparator.compareKeys(o1.key, o2.key);
+    }
+
+    /**
+     * Reviews go after the row of their group
+     */
+    private int compareToRow(@NotNull Entry entry, @NotNull Object row) {
+        if(row instanceof Entry) {
+            return compareEntries(entry, (Entry) row);
+        }
+        final int result = entry.group == null ? 0 : entry.group.compareTo((String) row);
+        return result == 0 ? 1 : result;
+    }
+
+    /**
+     * @return the first row which the entry is not after
+     */
+    private int lowerBound(@NotNull Entry entry) {
+        int low = 0;
+        int high = model.rows.size();
+        while(low < high) {
+            final int middle = (low + high) >>> 1;
+            if(compareToRow(entry, model.rows.get(middle)) > 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int findRow(@NotNull Entry entry) {
+        final List<Object> rows = model.rows;
+        for(int row = lowerBound(entry); row < rows.size(); row++) {
+            final Object value = rows.get(row);
+            if(value == entry) return row;
+            if(!(value instanceof Entry) || compareEntries(entry, (Entry) value) != 0) break;
+        }
+        //rows are not sorted by the new comparator until they are rebuilt
+        return rows.indexOf(entry);
+    }
+
+    /**
+     * @return true if the entry may replace the row without breaking the order
+     */
+    private boolean fitsRow(@NotNull Entry entry, int row) {
+        final List<Object> rows = model.rows;
+        final Entry oldEntry = (Entry) rows.get(row);
+        if(entry.group == null ? oldEntry.group != null : !entry.group.equals(oldEntry.group)) return false;
+        final Object previous = row > 0 ? rows.get(row - 1) : null;
+        if(previous instanceof Entry && compareEntries((Entry) previous, entry) > 0) return false;
+        final Object next = row + 1 < rows.size() ? rows.get(row + 1) : null;
+        return !(next instanceof Entry) || compareEntries(entry, (Entry) next) <= 0;
+    }
+
+    private void insertRow(@NotNull Entry entry) {
+        final List<Object> rows = model.rows;
+        final int row = lowerBound(entry);
+        final Object previous = row > 0 ? rows.get(row - 1) : null;
+        final boolean grouped = entry.group == null || entry.group.equals(previous)
+                                || previous instanceof Entry && entry.group.equals(((Entry) previous).group);
+        if(grouped) {
+            model.insertRows(row, entry);
+        } else {
+            model.insertRows(row, entry.group, entry);
+        }
+    }
+
+    private void deleteRow(int row) {
+        final List<Object> rows = model.rows;
+        final Object previous = row > 0 ? rows.get(row - 1) : null;
+        final Object next = row + 1 < rows.size() ? rows.get(row + 1) : null;
+        //the group is removed with its last review
+        if(previous instanceof String && !(next instanceof Entry)) {
+            model.deleteRows(row - 1, row);
+        } else {
+            model.deleteRows(row, row);
+        }
+    }
+
+    @Nullable
+    private String getGroup(FacetIndex facets, Review review) {
+        String module = null;
+        if(settings.isGroupByModule()) {
+            module = facets.getValue(FacetIndex.Facet.MODULE, review);
+            if(module == null) {
+                module = "";
+            }
+        }
+        if(!settings.isGroupByFile()) return module;
+        return module == null ? review.getFilePath() : module + " : " + review.getFilePath();
+    }
+
+    private class ReviewCellRenderer extends ColoredTableCellRenderer {
+        @Override
+        protected void customizeCellRenderer(JTable table, Object value, boolean selected, boolean hasFocus,
+                                             int row, int column) {
+            if(!(value instanceof Entry)) {
+                if(column == REVIEW_COLUMN) {
+                    append(String.valueOf(value), SimpleTextAttributes.REGULAR_BOLD_ATTRIBUTES);
+                }
+                return;
+            }
+            final ReviewNode.SortKey key = ((Entry) value).key;
+            final Review review = key.getReview();
+            switch (column) {
+                case REVIEW_COLUMN:
+                    appendPresentation(review);
+                    break;
+                case LOCATION_COLUMN:
+                    final int line = review.getLineNumber();
+                    if(line < 0) {
+                        append(ReviewsBundle.message("reviews.invalidNode"), SimpleTextAttributes.ERROR_ATTRIBUTES);
+                    } else {
+                        append(review.getFileName() + " : " + String.valueOf(line + 1),
+                               SimpleTextAttributes.GRAY_ATTRIBUTES);
+                    }
+                    break;
+                case AUTHOR_COLUMN:
+                    if(key.getFirstCommenter() != null) {
+                        append(key.getFirstCommenter(), SimpleTextAttributes.REGULAR_ATTRIBUTES);
+                    }
+                    break;
+                case DATE_COLUMN:
+                    append(DateFormatUtil.formatPrettyDateTime(new Date(key.getDateOfCreation())),
+                           SimpleTextAttributes.GRAY_ATTRIBUTES);
+                    break;
+            }
+        }
+
+        private void appendPresentation(Review review) {
+            final String presentationInfo = review.getPresentationInfo(false);
+            setToolTipText(review.getPresentationInfo(true));
+            final Pair<Integer, Integer> searchResult = Searcher.getInstance(project).getReviewSearchResult(review);
+            final int searchStart = searchResult.first;
+            final int searchEnd = searchResult.second;
+            if(searchStart >= 0 && searchEnd <= presentationInfo.length()) {
+                final TextAttributes attributes = EditorColorsManager.getInstance().getGlobalScheme().
+                                                    getAttributes(EditorColors.TEXT_SEARCH_RESULT_ATTRIBUTES);
+                append(presentationInfo.substring(0, searchStart), SimpleTextAttributes.REGULAR_BOLD_ATTRIBUTES);
+                append(presentationInfo.substring(searchStart, searchEnd),
+                       SimpleTextAttributes.fromTextAttributes(attributes));
+                append(presentationInfo.substring(searchEnd), SimpleTextAttributes.REGULAR_BOLD_ATTRIBUTES);
+            } else {
+                append(presentationInfo, SimpleTextAttributes.REGULAR_BOLD_ATTRIBUTES);
+            }
+        }
+    }
+}
@@ -18,21 +18,18 @@ import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.ui.HyperlinkAdapter;
 import com.intellij.ui.awt.RelativePoint;
-import com.intellij.util.xmlb.XmlSerializer;
-import org.jdom.Element;
-import org.jdom.JDOMException;
-import org.jdom.input.SAXBuilder;
 import reviewresult.ReviewManager;
 import reviewresult.persistent.ReviewsState;
+import reviewresult.persistent.ReviewsXmlReader;
 import ui.forms.SaveReviewsFormWrapper;
 import ui.reviewtoolwindow.filter.Searcher;
 import utils.ReviewsBundle;
 
 import javax.swing.*;
 import javax.swing.event.HyperlinkEvent;
+import javax.xml.stream.XMLStreamException;
 import java.awt.*;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.io.StringReader;
 
 /**
@@ -117,6 +114,31 @@ public class ReviewToolWindowActionManager implements DumbAware{
         }
     }
 
+    private final class FlatViewAction extends ToggleAction  implements DumbAware {
+
+        private FlatViewAction() {
+             super(ReviewsBundle.message("reviews.flatView"),
+                   ReviewsBundle.message("reviews.flatView"),
+                   IconLoader.getIcon("/objectBrowser/flattenPackages.png"));
+        }
+
+        @Override
+        public boolean isSelected(AnActionEvent e) {
+            return settings.isFlatView();
+        }
+
+        @Override
+        public void setSelected(AnActionEvent e, boolean state) {
+            settings.setFlatView(state);
+            updateUI();
+        }
+
+        @Override
+        public void update(AnActionEvent e) {
+            e.getPresentation().setEnabled(settings.isEnabled());
+        }
+    }
+
     private final class SortByAuthorAction extends ToggleAction  implements DumbAware {
 
         private SortByAuthorAction() {
@@ -338,13 +360,19 @@ public class ReviewToolWindowActionManager implements DumbAware{
                 final VirtualFile selectedFile = saveDialog.getFile();
                 if(selectedFile == null || !selectedFile.exists()) return;
                 final boolean xmlFormat = saveDialog.isXMLFormat();
-                String text = ReviewManager.getInstance(project).getExportText(!xmlFormat);
-
-                if(text == null || "".equals(text)) Messages.showInfoMessage(
-                                               ReviewsBundle.message("reviews.noReviewsToExportMessage"),
-                                               ReviewsBundle.message("reviews.noReviewsToExport"));
+                final boolean exported;
+                try {
+                    exported = ReviewManager.getInstance(project).exportReviews(selectedFile, !xmlFormat);
+                } catch (IOException e1) {
+                    showErrorBalloon( ReviewsBundle.message("reviews.savingError", selectedFile.getName()), component, centerPoint);
+                    return;
+                }
 
-                if(createReport(selectedFile, text)) {
+                if(!exported) {
+                    Messages.showInfoMessage(ReviewsBundle.message("reviews.noReviewsToExportMessage"),
+                                             ReviewsBundle.message("reviews.noReviewsToExport"));
+                    return;
+                } else {
                     final String htmlContent = ReviewsBundle.message("reviews.successfullyExported") + "<br/>" +
                                               "<a href= \"" + selectedFile.getPath() + "\">" +
                                               ReviewsBundle.message("reviews.showReviews") + "</a>";
@@ -362,10 +390,6 @@ public class ReviewToolWindowActionManager implements DumbAware{
                                                 }
                                             });
                     balloonBuilder.setFadeoutTime(FADEOUT_TIME);
-
-                } else {
-                    showErrorBalloon( ReviewsBundle.message("reviews.savingError", selectedFile.getName()), component, centerPoint);
-                    return;
                 }
             } else {
                 return;
@@ -375,20 +399,6 @@ public class ReviewToolWindowActionManager implements DumbAware{
 
 
 
-        private boolean  createReport(VirtualFile file, String text) {
-            if(text == null) return false;
-            try {
-                OutputStream outputStream = file.getOutputStream(null);
-                outputStream.write(text.getBytes());
-                outputStream.flush();
-                outputStream.close();
-            } catch (IOException e) {
-               return false;
-            }
-            return true;
-        }
-
-
     }
 
     private final class ImportFromFileAction extends AnAction  implements DumbAware {
@@ -421,9 +431,7 @@ public class ReviewToolWindowActionManager implements DumbAware{
                     final int endIndex = contents.indexOf("-->");
                     contents = contents.substring(beginIndex + 4, endIndex);
                 }
-                SAXBuilder builder = new SAXBuilder();
-                Element root = builder.build(new StringReader(contents)).getRootElement();
-                ReviewsState.State state = XmlSerializer.deserialize(root, ReviewsState.State.class);
+                ReviewsState.State state = ReviewsXmlReader.read(new StringReader(contents));
                 ReviewManager reviewManager = ReviewManager.getInstance(project);
                 reviewManager.loadReviews(state.getReviews(), true);
                 String htmlContent = ReviewsBundle.message("reviews.successfullyImported");
@@ -431,7 +439,7 @@ public class ReviewToolWindowActionManager implements DumbAware{
                                             createHtmlTextBalloonBuilder(htmlContent, MessageType.INFO, null);
                 showBalloon(balloonBuilder, component, centerPoint);
                 updateUI();
-            } catch(JDOMException e2) {
+            } catch(XMLStreamException e2) {
                 showErrorBalloon(ReviewsBundle.message("reviews.importingError", virtualFile.getName()), component, centerPoint);
             } catch(NullPointerException e2) {
                 showErrorBalloon(ReviewsBundle.message("reviews.fileError"), component, centerPoint);
@@ -454,6 +462,7 @@ public class ReviewToolWindowActionManager implements DumbAware{
         leftGroup.add(new PreviewAction());
         leftGroup.add(new GroupByModuleAction());
         leftGroup.add(new GroupByFileAction());
+        leftGroup.add(new FlatViewAction());
         leftGroup.add(new SearchAction());
         leftGroup.add(new ExportToFileAction());
         leftGroup.add(new ImportFromFileAction());
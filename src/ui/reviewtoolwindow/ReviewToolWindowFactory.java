@@ -5,6 +5,7 @@ import com.intellij.openapi.project.DumbAware;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.wm.ToolWindow;
 import com.intellij.openapi.wm.ToolWindowFactory;
+import reviewresult.ReviewManager;
 
 /**
  * User: Alisa.Afonina
@@ -13,6 +14,7 @@ import com.intellij.openapi.wm.ToolWindowFactory;
  */
 public class ReviewToolWindowFactory implements ToolWindowFactory, DumbAware{
     public void createToolWindowContent(Project project, ToolWindow toolWindow) {
+        ReviewManager.getInstance(project).ensureAllLoaded();
         ReviewView reviewView = ServiceManager.getService(project, ReviewView.class);
         reviewView.initToolWindow(project, toolWindow);
     }
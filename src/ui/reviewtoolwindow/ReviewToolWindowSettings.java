@@ -14,6 +14,7 @@ public class ReviewToolWindowSettings {
     private boolean groupByFile;
     private boolean searchEnabled;
     private boolean showPreviewEnabled;
+    private boolean flatView;
 
     private final Project project;
     private boolean enabled = true;
@@ -46,6 +47,15 @@ public class ReviewToolWindowSettings {
         PropertiesComponent.getInstance(project).setValue("ReviewToolWindowSettings.fileEnabled", String.valueOf(groupByFile));
     }
 
+    public boolean isFlatView() {
+        return flatView;
+    }
+
+    public void setFlatView(boolean flatView) {
+        this.flatView = flatView;
+        PropertiesComponent.getInstance(project).setValue("ReviewToolWindowSettings.flatView", String.valueOf(flatView));
+    }
+
     public boolean isSearchEnabled() {
         return searchEnabled;
     }
@@ -68,6 +78,7 @@ public class ReviewToolWindowSettings {
         PropertiesComponent.getInstance(project).setValue("ReviewToolWindowSettings.fileEnabled", String.valueOf(groupByFile));
         PropertiesComponent.getInstance(project).setValue("ReviewToolWindowSettings.moduleEnabled", String.valueOf(groupByModule));
         PropertiesComponent.getInstance(project).setValue("ReviewToolWindowSettings.previewEnabled", String.valueOf(showPreviewEnabled));
+        PropertiesComponent.getInstance(project).setValue("ReviewToolWindowSettings.flatView", String.valueOf(flatView));
 
         PropertiesComponent.getInstance(project).setValue("ReviewToolWindowSettings.sortByAuthor", String.valueOf(sortByAuthor));
         PropertiesComponent.getInstance(project).setValue("ReviewToolWindowSettings.sortByDate", String.valueOf(sortByDate));
@@ -80,6 +91,7 @@ public class ReviewToolWindowSettings {
         groupByFile = PropertiesComponent.getInstance(project).getBoolean("ReviewToolWindowSettings.fileEnabled", false);
         groupByModule = PropertiesComponent.getInstance(project).getBoolean("ReviewToolWindowSettings.moduleEnabled", false);
         showPreviewEnabled = PropertiesComponent.getInstance(project).getBoolean("ReviewToolWindowSettings.previewEnabled", false);
+        flatView = PropertiesComponent.getInstance(project).getBoolean("ReviewToolWindowSettings.flatView", false);
 
         sortByAuthor = PropertiesComponent.getInstance(project).getBoolean("ReviewToolWindowSettings.sortByAuthor", false);
         sortByDate = PropertiesComponent.getInstance(project).getBoolean("ReviewToolWindowSettings.sortByDate", false);
@@ -1,12 +1,12 @@
 package ui.reviewtoolwindow;
 
 import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.ModuleRootManager;
-import com.intellij.openapi.roots.ProjectRootManager;
-import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.ui.treeStructure.SimpleTreeStructure;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import reviewresult.Review;
 import reviewresult.ReviewManager;
@@ -14,9 +14,7 @@ import ui.reviewtoolwindow.filter.Searcher;
 import ui.reviewtoolwindow.nodes.*;
 import utils.Util;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 /**
  * User: Alisa.Afonina
@@ -26,14 +24,63 @@ import java.util.Set;
 
 public class ReviewTreeStructure extends SimpleTreeStructure {
     private final Project project;
-    private RootNode rootElement;
+    private final RootNode rootElement;
     private final ReviewToolWindowSettings settings;
+    private final Map<String, ReviewNode> reviewNodes = new HashMap<String, ReviewNode>();
+    //tries of files which have reviews
+    private final Map<VirtualFile, PathTrie> fileTries = new HashMap<VirtualFile, PathTrie>();
+    //module tries are keyed by content roots, content root tries by names of files
+    private final Map<Module, PathTrie> moduleTries = new HashMap<Module, PathTrie>();
+    @Nullable
+    private Map<VirtualFile, Module> contentRootModules;
+    private final List<StructureListener> listeners = new ArrayList<StructureListener>();
+
+    /**
+     * Path from a module node through a content root and names of directories to the node of a file
+     */
+    private static class PathTrie {
+        private final PlainNode node;
+        @Nullable
+        private final PathTrie parent;
+        private final String name;
+        private final Map<String, PathTrie> children = new HashMap<String, PathTrie>();
+
+        private PathTrie(PlainNode node, @Nullable PathTrie parent, String name) {
+            this.node = node;
+            this.parent = parent;
+            this.name = name;
+        }
+
+        private PathTrie getOrCreateChild(String name, PlainNode node) {
+            PathTrie child = children.get(name);
+            if(child == null) {
+                child = new PathTrie(node, this, name);
+                children.put(name, child);
+            }
+            return child;
+        }
+    }
+
+    /**
+     * Notified about nodes which were added, removed or should be repainted,
+     * a node with its subtree is reported once at the highest changed level
+     */
+    public interface StructureListener {
+        void nodeInserted(@NotNull PlainNode parent, @NotNull PlainNode node);
+
+        void nodeRemoved(@NotNull PlainNode parent, @NotNull PlainNode node);
+
+        void nodeChanged(@NotNull PlainNode node);
+    }
 
     public ReviewTreeStructure(Project project, ReviewToolWindowSettings settings) {
         super();
         this.project = project;
         rootElement = new RootNode(project, settings);
         this.settings = settings;
+        for(PlainNode node : rootElement.getPlainChildren()) {
+            moduleTries.put((Module) node.getObject(), new PathTrie(node, null, ""));
+        }
         Set<String> filesWithReview = Searcher.getInstance(project).getFilteredFileNames();
         for (String virtualFileName : filesWithReview) {
             List<Review> validReviews = ReviewManager.getInstance(project).getValidReviews(virtualFileName);
@@ -48,139 +95,173 @@ public class ReviewTreeStructure extends SimpleTreeStructure {
         return rootElement;
     }
 
+    public void addListener(@NotNull StructureListener listener) {
+        listeners.add(listener);
+    }
+
     public void removeReview(Review review) {
-        PlainNode invalidChild = findInvalidAncestorNode(rootElement, review);
-        if(invalidChild != null) {
-            if((invalidChild instanceof RootNode)) {
-                rootElement = new RootNode(project, settings);
-            } else {
-                invalidChild.removeFromParent();
+        final ReviewNode node = reviewNodes.remove(review.getReviewBean().getGuid());
+        if(node == null) return;
+        PlainNode parent = node.getPlainParent();
+        PlainNode removed = node;
+        removed.removeFromParent();
+        if(parent instanceof FileNode && parent.getPlainChildren().isEmpty()) {
+            PathTrie trie = fileTries.remove((VirtualFile) parent.getObject());
+            //directories are dropped together with their last review, module nodes stay but are hidden
+            while(trie != null && trie.parent != null && trie.children.isEmpty()
+                    && (trie.node == trie.parent.node || trie.node.getPlainChildren().isEmpty())) {
+                trie.parent.children.remove(trie.name);
+                if(trie.node != trie.parent.node) {
+                    removed = trie.node;
+                    removed.removeFromParent();
+                }
+                trie = trie.parent;
+            }
+            if(trie != null) {
+                parent = trie.node;
             }
         }
-        rootElement.update();
+        if(parent instanceof ModuleNode && parent.getPlainChildren().isEmpty()) {
+            removed = parent;
+            parent = rootElement;
+        }
+        if(parent == null) return;
+        for(StructureListener listener : listeners) {
+            listener.nodeRemoved(parent, removed);
+        }
     }
 
-    public PlainNode addReview(Review review) {
+    public void addReview(Review review) {
         Searcher.getInstance(project).addSearchResult(review);
-        PlainNode ancestor = findAncestorNode(rootElement, Util.getInstance(project).
-                                                                        getVirtualFile(review.getFilePath()));
-        addChildrenToAncestorNode(ancestor, new ReviewNode(project, review, settings));
-        ancestor.update();
-        return ancestor;
-    }
-
-    private PlainNode findAncestorNode(PlainNode rootElement, VirtualFile file) {
-        for(PlainNode node : rootElement.getPlainChildren()) {
-            if (node instanceof ModuleNode) {
-                Module module = (Module) node.getObject();
-                if(ModuleRootManager.getInstance(module).getFileIndex().isInContent(file)){
-                    return findAncestorNode(node, file);
+        if(reviewNodes.containsKey(review.getReviewBean().getGuid())) {
+            changeReview(review);
+            return;
+        }
+        final VirtualFile file = Util.getInstance(project).getVirtualFile(review.getFilePath());
+        if(file == null) return;
+        final ReviewNode node = new ReviewNode(project, review, settings);
+        PathTrie trie = fileTries.get(file);
+        PlainNode parent;
+        PlainNode inserted = node;
+        if(trie != null) {
+            parent = trie.node;
+        } else {
+            final List<VirtualFile> path = new ArrayList<VirtualFile>();
+            final Module module = findModule(file, path);
+            trie = getModuleTrie(module);
+            final VirtualFile contentRoot = path.remove(path.size() - 1);
+            trie = trie.getOrCreateChild(contentRoot == null ? "" : contentRoot.getUrl(), trie.node);
+            inserted = null;
+            parent = trie.node;
+            for(int i = path.size() - 1; i >= 0; i--) {
+                final VirtualFile pathFile = path.get(i);
+                PathTrie child = trie.children.get(pathFile.getName());
+                if(child == null) {
+                    final FileNode fileNode = new FileNode(project, pathFile, settings);
+                    trie.node.addChild(fileNode);
+                    child = trie.getOrCreateChild(pathFile.getName(), fileNode);
+                    if(inserted == null) {
+                        inserted = fileNode;
+                        parent = trie.node;
+                    }
                 }
+                trie = child;
             }
-
-            if(node instanceof FileNode) {
-                if(VfsUtil.isAncestor((VirtualFile) node.getObject(),file, false)) {
-                    return findAncestorNode(node, file);
-                }
+            fileTries.put(file, trie);
+            if(inserted == null) {
+                inserted = node;
+                parent = trie.node;
+            }
+            if(parent instanceof ModuleNode && parent.getPlainChildren().size() == 1) {
+                inserted = parent;
+                parent = rootElement;
             }
         }
-        return rootElement;
+        trie.node.addChild(node);
+        reviewNodes.put(review.getReviewBean().getGuid(), node);
+        for(StructureListener listener : listeners) {
+            listener.nodeInserted(parent, inserted);
+        }
     }
 
-    @Nullable
-    private PlainNode findInvalidAncestorNode(PlainNode rootElement, Review review) {
-        List<PlainNode> rootChildren = rootElement.getPlainChildren();
-        PlainNode invalid = null;
-        for(PlainNode node : rootChildren) {
-            final VirtualFile virtualFile = Util.getInstance(project).getVirtualFile(review.getFilePath());
-            if(virtualFile == null) return null;
-            if (node instanceof ModuleNode) {
-                Module module = (Module) node.getObject();
-                if(ModuleRootManager.getInstance(module).getFileIndex().isInContent(virtualFile)) {
-                    invalid = findInvalidAncestorNode(node, review);
-                }
-            }
-
-            if(node instanceof FileNode) {
-                if(VfsUtil.isAncestor((VirtualFile) node.getObject(), virtualFile, false)) {
-                    invalid = findInvalidAncestorNode(node, review);
-                }
-            }
+    /**
+     * Repaints the review node or moves it if the review was moved to another file
+     */
+    public void changeReview(Review review) {
+        final ReviewNode node = reviewNodes.get(review.getReviewBean().getGuid());
+        if(node == null) {
+            addReview(review);
+            return;
+        }
+        final PlainNode parent = node.getPlainParent();
+        final VirtualFile file = Util.getInstance(project).getVirtualFile(review.getFilePath());
+        if(node.getObject() != review || parent == null || file == null || !file.equals(parent.getObject())) {
+            removeReview(review);
+            addReview(review);
+            return;
+        }
+        node.invalidate();
+        for(StructureListener listener : listeners) {
+            listener.nodeChanged(node);
+        }
+    }
 
-            if(node instanceof ReviewNode) {
-                if(node.getObject().equals(review)) {
-                    return node;
-                }
+    /**
+     * Collects the file and its parents up to the closest content root, which is added last or null if the file
+     * is not in content.
+     * @return module of the content root
+     */
+    @Nullable
+    private Module findModule(@NotNull VirtualFile file, List<VirtualFile> path) {
+        final Map<VirtualFile, Module> modules = getContentRootModules();
+        for(VirtualFile current = file; current != null; current = current.getParent()) {
+            if(modules.containsKey(current)) {
+                path.add(current);
+                return modules.get(current);
             }
-
-            if(invalid != null) {
-                invalid.removeFromParent();
-                if(node.getPlainChildren().isEmpty())
-                    return node;
+            if(current.getParent() != null) {
+                path.add(current);
             }
         }
+        path.add(null);
         return null;
     }
 
-    private void getFilePath(List<PlainNode> path, VirtualFile file, VirtualFile finalParent) {
-        VirtualFile parent = file.getParent();
-        if(parent == null) return;
-        if(!file.equals(finalParent)) {
-            getFilePath(path, parent, finalParent);
-            path.add(new FileNode(project, file, settings));
+    private Map<VirtualFile, Module> getContentRootModules() {
+        if(contentRootModules == null) {
+            contentRootModules = new HashMap<VirtualFile, Module>();
+            for(Module module : ModuleManager.getInstance(project).getModules()) {
+                for(VirtualFile contentRoot : ModuleRootManager.getInstance(module).getContentRoots()) {
+                    contentRootModules.put(contentRoot, module);
+                }
+            }
         }
+        return contentRootModules;
     }
 
-    private void addChildrenToAncestorNode(PlainNode root, PlainNode finalChild) {
-        List<PlainNode> path = new ArrayList<PlainNode>();
-        path.add(root);
-        VirtualFile parentFile = null;
-        VirtualFile childFile = null;
-        if(finalChild instanceof ReviewNode) {
-            childFile = Util.getInstance(project).getVirtualFile(
-                                                                ((Review)finalChild.getObject()).getFilePath());
-        }
-        if(finalChild instanceof FileNode) {
-            childFile = (VirtualFile) finalChild.getObject();
-        }
-        if(childFile == null) return;
-        if(root instanceof FileNode) {
-            parentFile = (VirtualFile) root.getObject();
-        }
-        if(root instanceof ModuleNode) {
-            parentFile = ProjectRootManager.getInstance(project).getFileIndex().
-                                                                            getContentRootForFile(childFile);
-        }
-        if(root instanceof RootNode) {
-            Module module = ProjectRootManager.getInstance(project).getFileIndex().
-                                                                            getModuleForFile(childFile);
-            ModuleNode node = new ModuleNode(project, module, settings);
-            addChildrenToAncestorNode(node, finalChild);
-            root.addChild(node);
-            return;
-        }
-        getFilePath(path, childFile, parentFile);
-        path.add(finalChild);
-        PlainNode parentNode = path.get(0);
-        for (int i = 1; i < path.size(); i++) {
-            PlainNode childNode = path.get(i);
-            parentNode.addChild(childNode);
-            parentNode = childNode;
+    private PathTrie getModuleTrie(@Nullable Module module) {
+        PathTrie trie = moduleTries.get(module);
+        if(trie == null) {
+            final ModuleNode moduleNode = new ModuleNode(project, module, settings);
+            rootElement.addChild(moduleNode);
+            trie = new PathTrie(moduleNode, null, "");
+            moduleTries.put(module, trie);
         }
+        return trie;
     }
 
+    /**
+     * Should be called when content roots of modules are changed
+     */
+    public void invalidateModules() {
+        contentRootModules = null;
+    }
 
     @Nullable
     public PlainNode getNode(Object o) {
-     if(o instanceof Review) {
-         PlainNode node = findAncestorNode(rootElement, Util.getInstance(project).
-                                                                    getVirtualFile(((Review) o).getFilePath()));
-         if(node instanceof FileNode) {
-             for(PlainNode child : node.getPlainChildren()) {
-                if(child.getObject().equals(o)) {return child;}
-             }
-         }
-    }
+        if(o instanceof Review) {
+            return reviewNodes.get(((Review) o).getReviewBean().getGuid());
+        }
         return null;
     }
 
@@ -0,0 +1,492 @@
+package ui.reviewtoolwindow.filter;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import reviewresult.FacetIndex;
+import reviewresult.Review;
+import reviewresult.ReviewManager;
+import reviewresult.persistent.ReviewItem;
+import reviewresult.persistent.ReviewStatus;
+import utils.IntBitmap;
+import utils.PatternMatcher;
+
+import java.util.*;
+
+/**
+ * Predicate of a parsed search query, see {@link QueryParser}.
+ * A compiled node knows ordinals of the reviews the indices can find for it, and AND/OR nodes check their children
+ * in the order which rejects or accepts a review with the least work.
+ * After compile() nodes are not changed, so matches() can be called from any thread.
+ */
+public abstract class QueryNode {
+    protected static final int UNKNOWN = Integer.MAX_VALUE;
+
+    //cost of matches(): comparing a field, looking through all items, scanning texts
+    protected static final int FIELD_COST = 0;
+    protected static final int ITEMS_COST = 1;
+    protected static final int TEXT_COST = 2;
+
+    @Nullable
+    protected IntBitmap candidates;
+    protected int estimate = UNKNOWN;
+
+    /**
+     * Looks up candidates in the indices and orders children, must be called in the event dispatch thread
+     */
+    public abstract void compile(@NotNull ReviewIndex index, @NotNull FacetIndex facets, boolean caseSensitive);
+
+    public abstract boolean matches(@NotNull Review review);
+
+    protected abstract int getCost();
+
+    /**
+     * @return ordinals in the facet index of reviews which may match or null if any review may
+     */
+    @Nullable
+    public IntBitmap getCandidates() {
+        return candidates;
+    }
+
+    protected void setCandidates(@Nullable IntBitmap candidates) {
+        this.candidates = candidates;
+        estimate = candidates == null ? UNKNOWN : candidates.getCardinality();
+    }
+
+    /**
+     * Collects phrases and authors the matched reviews are highlighted by
+     */
+    public void collectTerms(@NotNull List<String> phrases, @NotNull Set<String> authors, boolean negated) {
+    }
+
+    /**
+     * @return true if the query filters by anything but text
+     */
+    public boolean hasFieldTerms() {
+        return false;
+    }
+
+    private static final Comparator<QueryNode> SELECTIVE_FIRST = new Comparator<QueryNode>() {
+        public int compare(QueryNode o1, QueryNode o2) {
+            final int estimate1 = o1.estimate;
+            final int estimate2 = o2.estimate;
+            if(estimate1 != estimate2) return estimate1 < estimate2 ? -1 : 1;
+            return o1.getCost() - o2.getCost();
+        }
+    };
+
+    public static class And extends QueryNode {
+        private final List<QueryNode> children;
+
+        public And(@NotNull List<QueryNode> children) {
+            this.children = new ArrayList<QueryNode>(children);
+        }
+
+        @Override
+        public void compile(@NotNull ReviewIndex index, @NotNull FacetIndex facets, boolean caseSensitive) {
+            for(QueryNode child : children) {
+                child.compile(index, facets, caseSensitive);
+            }
+            //the child which rejects most reviews goes first
+            Collections.sort(children, SELECTIVE_FIRST);
+            IntBitmap intersection = null;
+            for(QueryNode child : children) {
+                final IntBitmap childCandidates = child.getCandidates();
+                if(childCandidates == null) continue;
+                intersection = intersection == null ? childCandidates : intersection.and(childCandidates);
+            }
+            setCandidates(intersection);
+        }
+
+        @Override
+        public boolean matches(@NotNull Review review) {
+            for(QueryNode child : children) {
+                if(!child.matches(review)) return false;
+            }
+            return true;
+        }
+
+        @Override
+        protected int getCost() {
+            int cost = 0;
+            for(QueryNode child : children) {
+                cost = Math.max(cost, child.getCost());
+            }
+            return cost;
+        }
+
+        @Override
+        public void collectTerms(@NotNull List<String> phrases, @NotNull Set<String> authors, boolean negated) {
+            for(QueryNode child : children) {
+                child.collectTerms(phrases, authors, negated);
+            }
+        }
+
+        @Override
+        public boolean hasFieldTerms() {
+            for(QueryNode child : children) {
+                if(child.hasFieldTerms()) return true;
+            }
+            return false;
+        }
+    }
+
+    public static class Or extends QueryNode {
+        private final List<QueryNode> children;
+
+        public Or(@NotNull List<QueryNode> children) {
+            this.children = new ArrayList<QueryNode>(children);
+        }
+
+        @Override
+        public void compile(@NotNull ReviewIndex index, @NotNull FacetIndex facets, boolean caseSensitive) {
+            for(QueryNode child : children) {
+                child.compile(index, facets, caseSensitive);
+            }
+            //the cheapest child goes first, it may accept the review without checking the others
+            Collections.sort(children, new Comparator<QueryNode>() {
+                public int compare(QueryNode o1, QueryNode o2) {
+                    return o1.getCost() - o2.getCost();
+                }
+            });
+            IntBitmap union = new IntBitmap();
+            for(QueryNode child : children) {
+                final IntBitmap childCandidates = child.getCandidates();
+                if(childCandidates == null) {
+                    setCandidates(null);
+                    return;
+                }
+                union = union.or(childCandidates);
+            }
+            setCandidates(union);
+        }
+
+        @Override
+        public boolean matches(@NotNull Review review) {
+            for(QueryNode child : children) {
+                if(child.matches(review)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        protected int getCost() {
+            int cost = 0;
+            for(QueryNode child : children) {
+                cost = Math.max(cost, child.getCost());
+            }
+            return cost;
+        }
+
+        @Override
+        public void collectTerms(@NotNull List<String> phrases, @NotNull Set<String> authors, boolean negated) {
+            for(QueryNode child : children) {
+                child.collectTerms(phrases, authors, negated);
+            }
+        }
+
+        @Override
+        public boolean hasFieldTerms() {
+            for(QueryNode child : children) {
+                if(child.hasFieldTerms()) return true;
+            }
+            return false;
+        }
+    }
+
+    public static class Not extends QueryNode {
+        private final QueryNode child;
+
+        public Not(@NotNull QueryNode child) {
+            this.child = child;
+        }
+
+        @Override
+        public void compile(@NotNull ReviewIndex index, @NotNull FacetIndex facets, boolean caseSensitive) {
+            child.compile(index, facets, caseSensitive);
+        }
+
+        @Override
+        public boolean matches(@NotNull Review review) {
+            return !child.matches(review);
+        }
+
+        @Override
+        protected int getCost() {
+            return child.getCost();
+        }
+
+        @Override
+        public void collectTerms(@NotNull List<String> phrases, @NotNull Set<String> authors, boolean negated) {
+            child.collectTerms(phrases, authors, !negated);
+        }
+
+        @Override
+        public boolean hasFieldTerms() {
+            return child.hasFieldTerms();
+        }
+    }
+
+    /**
+     * Text which one of review items contains
+     */
+    public static class Text extends QueryNode {
+        private final String text;
+        private PatternMatcher matcher;
+
+        public Text(@NotNull String text) {
+            this.text = text;
+        }
+
+        @Override
+        public void compile(@NotNull ReviewIndex index, @NotNull FacetIndex facets, boolean caseSensitive) {
+            matcher = new PatternMatcher(Collections.singletonList(text), caseSensitive);
+            final Set<Review> reviews = index.findPhrase(text);
+            setCandidates(reviews == null ? null : facets.toBitmap(reviews));
+        }
+
+        @Override
+        public boolean matches(@NotNull Review review) {
+            for(ReviewItem item : review.getReviewItems()) {
+                if(item.getText() != null && matcher.findFirst(item.getText()) >= 0) return true;
+            }
+            return false;
+        }
+
+        @Override
+        protected int getCost() {
+            return TEXT_COST;
+        }
+
+        @Override
+        public void collectTerms(@NotNull List<String> phrases, @NotNull Set<String> authors, boolean negated) {
+            if(!negated && !phrases.contains(text)) {
+                phrases.add(text);
+            }
+        }
+    }
+
+    /**
+     * Author of one of review items
+     */
+    public static class Author extends QueryNode {
+        private final String author;
+
+        public Author(@NotNull String author) {
+            this.author = author;
+        }
+
+        @Override
+        public void compile(@NotNull ReviewIndex index, @NotNull FacetIndex facets, boolean caseSensitive) {
+            setCandidates(facets.find(FacetIndex.Facet.AUTHOR, author));
+        }
+
+        @Override
+        public boolean matches(@NotNull Review review) {
+            for(ReviewItem item : review.getReviewItems()) {
+                if(author.equalsIgnoreCase(item.getAuthor())) return true;
+            }
+            return false;
+        }
+
+        @Override
+        protected int getCost() {
+            return ITEMS_COST;
+        }
+
+        @Override
+        public void collectTerms(@NotNull List<String> phrases, @NotNull Set<String> authors, boolean negated) {
+            if(!negated) {
+                authors.add(author.toLowerCase());
+            }
+        }
+
+        @Override
+        public boolean hasFieldTerms() {
+            return true;
+        }
+    }
+
+    /**
+     * Author of the latest review item
+     */
+    public static class LastCommenter extends QueryNode {
+        private final String author;
+
+        public LastCommenter(@NotNull String author) {
+            this.author = author;
+        }
+
+        @Override
+        public void compile(@NotNull ReviewIndex index, @NotNull FacetIndex facets, boolean caseSensitive) {
+            //the last commenter is one of the authors
+            setCandidates(facets.find(FacetIndex.Facet.AUTHOR, author));
+        }
+
+        @Override
+        public boolean matches(@NotNull Review review) {
+            return author.equalsIgnoreCase(review.getLastCommenter());
+        }
+
+        @Override
+        protected int getCost() {
+            return ITEMS_COST;
+        }
+
+        @Override
+        public boolean hasFieldTerms() {
+            return true;
+        }
+    }
+
+    public static class Tag extends QueryNode {
+        private final String tag;
+
+        public Tag(@NotNull String tag) {
+            this.tag = tag;
+        }
+
+        @Override
+        public void compile(@NotNull ReviewIndex index, @NotNull FacetIndex facets, boolean caseSensitive) {
+            setCandidates(facets.find(FacetIndex.Facet.TAG, tag));
+        }
+
+        @Override
+        public boolean matches(@NotNull Review review) {
+            for(String existingTag : review.getTags()) {
+                if(tag.equalsIgnoreCase(existingTag)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        protected int getCost() {
+            return FIELD_COST;
+        }
+
+        @Override
+        public boolean hasFieldTerms() {
+            return true;
+        }
+    }
+
+    /**
+     * Part of the path of the reviewed file
+     */
+    public static class File extends QueryNode {
+        private final String path;
+        private PatternMatcher matcher;
+
+        public File(@NotNull String path) {
+            this.path = path;
+        }
+
+        @Override
+        public void compile(@NotNull ReviewIndex index, @NotNull FacetIndex facets, boolean caseSensitive) {
+            matcher = new PatternMatcher(Collections.singletonList(path), false);
+        }
+
+        @Override
+        public boolean matches(@NotNull Review review) {
+            return review.getFilePath() != null && matcher.findFirst(review.getFilePath()) >= 0;
+        }
+
+        @Override
+        protected int getCost() {
+            return FIELD_COST;
+        }
+
+        @Override
+        public boolean hasFieldTerms() {
+            return true;
+        }
+    }
+
+    public static class Module extends QueryNode {
+        private final String module;
+
+        public Module(@NotNull String module) {
+            this.module = module;
+        }
+
+        @Override
+        public void compile(@NotNull ReviewIndex index, @NotNull FacetIndex facets, boolean caseSensitive) {
+            setCandidates(facets.find(FacetIndex.Facet.MODULE, module));
+        }
+
+        @Override
+        public boolean matches(@NotNull Review review) {
+            return module.equalsIgnoreCase(ReviewManager.getInstance(review.getProject()).getModuleName(review));
+        }
+
+        @Override
+        protected int getCost() {
+            return FIELD_COST;
+        }
+
+        @Override
+        public boolean hasFieldTerms() {
+            return true;
+        }
+    }
+
+    public static class Status extends QueryNode {
+        private final ReviewStatus status;
+
+        public Status(@NotNull ReviewStatus status) {
+            this.status = status;
+        }
+
+        @Override
+        public void compile(@NotNull ReviewIndex index, @NotNull FacetIndex facets, boolean caseSensitive) {
+            setCandidates(facets.find(FacetIndex.Facet.STATUS, status.name()));
+        }
+
+        @Override
+        public boolean matches(@NotNull Review review) {
+            return review.getReviewBean().getStatus() == status;
+        }
+
+        @Override
+        protected int getCost() {
+            return FIELD_COST;
+        }
+
+        @Override
+        public boolean hasFieldTerms() {
+            return true;
+        }
+    }
+
+    /**
+     * Date of creation of the review in [from, to)
+     */
+    public static class DateRange extends QueryNode {
+        private final long from;
+        private final long to;
+
+        public DateRange(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public void compile(@NotNull ReviewIndex index, @NotNull FacetIndex facets, boolean caseSensitive) {
+        }
+
+        @Override
+        public boolean matches(@NotNull Review review) {
+            final long date = review.getDateOfCreation().getTime();
+            return date >= from && date < to;
+        }
+
+        @Override
+        protected int getCost() {
+            return ITEMS_COST;
+        }
+
+        @Override
+        public boolean hasFieldTerms() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package ui.reviewtoolwindow.filter;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import reviewresult.persistent.ReviewStatus;
+import utils.ReviewsBundle;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Parses search queries:
+ * <pre>
+ * query   := or
+ * or      := and ("OR" and)*
+ * and     := unary (["AND"] unary)*
+ * unary   := ("NOT" | "-") unary | "(" or ")" | field value | "quoted phrase" | word
+ * field   := author: | tag: | lastcommenter: | file: | module: | status: | date:
+ * </pre>
+ * Values are words or quoted strings. Dates are yyyy-MM-dd days, ranges day..day with open ends,
+ * or comparisons &lt;day, &lt;=day, &gt;day, &gt;=day.
+ */
+public class QueryParser {
+    private static final String AND = "AND";
+    private static final String OR = "OR";
+    private static final String NOT = "NOT";
+    private static final String DATE_FORMAT = "yyyy-MM-dd";
+    private static final String RANGE = "..";
+
+    public static final String AUTHOR = ReviewsBundle.message("reviews.author");
+    public static final String TAG = ReviewsBundle.message("reviews.tag");
+    public static final String LAST_COMMENTER = ReviewsBundle.message("reviews.lastCommenter");
+    public static final String FILE = ReviewsBundle.message("reviews.file");
+    public static final String MODULE = ReviewsBundle.message("reviews.module");
+    public static final String STATUS = ReviewsBundle.message("reviews.status");
+    public static final String DATE = ReviewsBundle.message("reviews.date");
+    private static final String[] FIELDS = {AUTHOR, TAG, LAST_COMMENTER, FILE, MODULE, STATUS, DATE};
+
+    public static class ParseException extends Exception {
+        public ParseException(String message) {
+            super(message);
+        }
+    }
+
+    private static class Token {
+        private final String text;
+        private final boolean quoted;
+
+        private Token(String text, boolean quoted) {
+            this.text = text;
+            this.quoted = quoted;
+        }
+
+        private boolean is(String keyword) {
+            return !quoted && keyword.equals(text);
+        }
+    }
+
+    private final List<Token> tokens;
+    private int position;
+
+    private QueryParser(List<Token> tokens) {
+        this.tokens = tokens;
+    }
+
+    /**
+     * @return root of the query or null if the query is empty
+     */
+    @Nullable
+    public static QueryNode parse(@NotNull String query) throws ParseException {
+        final QueryParser parser = new QueryParser(tokenize(query));
+        if(parser.tokens.isEmpty()) return null;
+        final QueryNode root = parser.parseOr();
+        if(parser.position < parser.tokens.size()) {
+            throw new ParseException(ReviewsBundle.message("reviews.queryUnexpectedParenthesis"));
+        }
+        return root;
+    }
+
+    private QueryNode parseOr() throws ParseException {
+        final List<QueryNode> children = new ArrayList<QueryNode>();
+        children.add(parseAnd());
+        while(position < tokens.size() && tokens.get(position).is(OR)) {
+            position++;
+            if(isOperandEnd()) {
+                throw new ParseException(ReviewsBundle.message("reviews.queryMissingOperand", OR));
+            }
+            children.add(parseAnd());
+        }
+        return children.size() == 1 ? children.get(0) : new QueryNode.Or(children);
+    }
+
+    private QueryNode parseAnd() throws ParseException {
+        final List<QueryNode> children = new ArrayList<QueryNode>();
+        children.add(parseUnary());
+        while(position < tokens.size() && !tokens.get(position).is(OR) && !tokens.get(position).is(")")) {
+            if(tokens.get(position).is(AND)) {
+                position++;
+                if(isOperandEnd()) {
+                    throw new ParseException(ReviewsBundle.message("reviews.queryMissingOperand", AND));
+                }
+            }
+            children.add(parseUnary());
+        }
+        return children.size() == 1 ? children.get(0) : new QueryNode.And(children);
+    }
+
+    private boolean isOperandEnd() {
+        return position >= tokens.size() || tokens.get(position).is(OR) || tokens.get(position).is(")")
+                || tokens.get(position).is(AND);
+    }
+
+    private QueryNode parseUnary() throws ParseException {
+        if(isOperandEnd()) {
+            final String operator = position < tokens.size() ? tokens.get(position).text : NOT;
+            throw new ParseException(ReviewsBundle.message("reviews.queryMissingOperand", operator));
+        }
+        final Token token = tokens.get(position++);
+        if(token.quoted) {
+            return new QueryNode.Text(token.text);
+        }
+        if(token.is(NOT) || token.is("-")) {
+            if(isOperandEnd()) {
+                throw new ParseException(ReviewsBundle.message("reviews.queryMissingOperand", token.text));
+            }
+            return new QueryNode.Not(parseUnary());
+        }
+        if(token.is("(")) {
+            final QueryNode node = parseOr();
+            if(position >= tokens.size() || !tokens.get(position).is(")")) {
+                throw new ParseException(ReviewsBundle.message("reviews.queryUnclosedParenthesis"));
+            }
+            position++;
+            return node;
+        }
+        final String field = getField(token.text);
+        if(field == null) {
+            return new QueryNode.Text(token.text);
+        }
+        String value = token.text.substring(field.length());
+        if(value.length() == 0) {
+            if(position >= tokens.size() || !tokens.get(position).quoted && (tokens.get(position).is("(")
+                                                                            || tokens.get(position).is(")"))) {
+                throw new ParseException(ReviewsBundle.message("reviews.queryMissingValue", field));
+            }
+            value = tokens.get(position++).text;
+        }
+        if(value.trim().length() == 0) {
+            throw new ParseException(ReviewsBundle.message("reviews.queryMissingValue", field));
+        }
+        return createFieldNode(field, value);
+    }
+
+    @Nullable
+    private static String getField(String text) {
+        for(String field : FIELDS) {
+            if(text.regionMatches(true, 0, field, 0, field.length())) return field;
+        }
+        return null;
+    }
+
+    private static QueryNode createFieldNode(String field, String value) throws ParseException {
+        if(AUTHOR.equals(field)) return new QueryNode.Author(value);
+        if(TAG.equals(field)) return new QueryNode.Tag(value);
+        if(LAST_COMMENTER.equals(field)) return new QueryNode.LastCommenter(value);
+        if(FILE.equals(field)) return new QueryNode.File(value);
+        if(MODULE.equals(field)) return new QueryNode.Module(value);
+        if(STATUS.equals(field)) {
+            for(ReviewStatus status : ReviewStatus.values()) {
+                if(status.name().equalsIgnoreCase(value)) return new QueryNode.Status(status);
+            }
+            throw new ParseException(ReviewsBundle.message("reviews.queryInvalidStatus", value));
+        }
+        return parseDate(value);
+    }
+
+    private static QueryNode parseDate(String value) throws ParseException {
+        if(value.startsWith(">=")) return new QueryNode.DateRange(parseDay(value, value.substring(2), false), Long.MAX_VALUE);
+        if(value.startsWith("<=")) return new QueryNode.DateRange(Long.MIN_VALUE, parseDay(value, value.substring(2), true));
+        if(value.startsWith(">")) return new QueryNode.DateRange(parseDay(value, value.substring(1), true), Long.MAX_VALUE);
+        if(value.startsWith("<")) return new QueryNode.DateRange(Long.MIN_VALUE, parseDay(value, value.substring(1), false));
+        final int rangeIndex = value.indexOf(RANGE);
+        if(rangeIndex >= 0) {
+            final String from = value.substring(0, rangeIndex);
+            final String to = value.substring(rangeIndex + RANGE.length());
+            if(from.length() == 0 && to.length() == 0) {
+                throw new ParseException(ReviewsBundle.message("reviews.queryInvalidDate", value));
+            }
+            return new QueryNode.DateRange(from.length() == 0 ? Long.MIN_VALUE : parseDay(value, from, false),
+                                           to.length() == 0 ? Long.MAX_VALUE : parseDay(value, to, true));
+        }
+        return new QueryNode.DateRange(parseDay(value, value, false), parseDay(value, value, true));
+    }
+
+    /**
+     * @return start of the day or start of the next day if dayEnd is set
+     */
+    private static long parseDay(String value, String day, boolean dayEnd) throws ParseException {
+        final SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT);
+        format.setLenient(false);
+        final ParsePosition parsePosition = new ParsePosition(0);
+        final Date date = format.parse(day, parsePosition);
+        if(date == null || parsePosition.getIndex() != day.length()) {
+            throw new ParseException(ReviewsBundle.message("reviews.queryInvalidDate", value));
+        }
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTime(date);
+        if(dayEnd) {
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        return calendar.getTimeInMillis();
+    }
+
+    private static List<Token> tokenize(String query) throws ParseException {
+        final List<Token> tokens = new ArrayList<Token>();
+        int i = 0;
+        while(i < query.length()) {
+            final char c = query.charAt(i);
+            if(Character.isWhitespace(c)) {
+                i++;
+            } else if(c == '(' || c == ')') {
+                tokens.add(new Token(String.valueOf(c), false));
+                i++;
+            } else if(c == '"') {
+                final int end = query.indexOf('"', i + 1);
+                if(end < 0) {
+                    throw new ParseException(ReviewsBundle.message("reviews.queryUnclosedQuote"));
+                }
+                tokens.add(new Token(query.substring(i + 1, end), true));
+                i = end + 1;
+            } else if(c == '-' && i + 1 < query.length() && !Character.isWhitespace(query.charAt(i + 1))
+                                                         && (tokens.isEmpty() || Character.isWhitespace(query.charAt(i - 1))
+                                                             || query.charAt(i - 1) == '(')) {
+                tokens.add(new Token("-", false));
+                i++;
+            } else {
+                int end = i;
+                while(end < query.length() && !Character.isWhitespace(query.charAt(end))
+                        && query.charAt(end) != '(' && query.charAt(end) != ')' && query.charAt(end) != '"') {
+                    end++;
+                }
+                tokens.add(new Token(query.substring(i, end), false));
+                i = end;
+            }
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,288 @@
+package ui.reviewtoolwindow.filter;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import reviewresult.Review;
+import reviewresult.ReviewManager;
+import reviewresult.ReviewsChangedListener;
+import reviewresult.persistent.ReviewItem;
+
+import java.util.*;
+
+/**
+ * Inverted index of the words in review item texts, with their positions. Authors and tags are indexed by
+ * {@link reviewresult.FacetIndex}.
+ * Words are kept in a sorted dictionary, so term, prefix and phrase queries don't look at review texts.
+ * Suffixes of the words are kept sorted too, so words which contain or end with a phrase word are found
+ * by a range of suffixes instead of a scan of the dictionary.
+ * Queries return reviews which may match, the caller checks them and finds highlight ranges.
+ *
+ * The index is filled on the first query and then updated by review events.
+ */
+public class ReviewIndex implements ReviewsChangedListener {
+    private final TreeMap<String, Map<Review, long[]>> words = new TreeMap<String, Map<Review, long[]>>();
+    //words of the dictionary by their suffixes
+    private final TreeMap<String, Set<String>> suffixes = new TreeMap<String, Set<String>>();
+    //words of every review
+    private final Map<Review, Set<String>> entries = new HashMap<Review, Set<String>>();
+    private int reloadCount = -1;
+
+    public static class Token {
+        private final String text;
+        private final int offset;
+
+        private Token(String text, int offset) {
+            this.text = text;
+            this.offset = offset;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+    }
+
+    public void reviewAdded(Review review) {
+        if(reloadCount < 0) return;
+        remove(review);
+        add(review);
+    }
+
+    public void reviewDeleted(Review review) {
+        if(reloadCount < 0) return;
+        remove(review);
+    }
+
+    public void reviewChanged(Review review) {
+        if(reloadCount < 0) return;
+        remove(review);
+        add(review);
+    }
+
+    /**
+     * Fills the index again if reviews were reloaded since it was filled
+     */
+    public void ensureUpToDate(@NotNull ReviewManager manager) {
+        if(reloadCount == manager.getReloadCount()) return;
+        clear();
+        reloadCount = manager.getReloadCount();
+        final Set<String> fileNames = manager.getFileNames();
+        if(fileNames == null) return;
+        for(String fileName : fileNames) {
+            final List<Review> reviews = manager.getValidReviews(fileName);
+            if(reviews == null) continue;
+            for(Review review : reviews) {
+                add(review);
+            }
+        }
+    }
+
+    public void clear() {
+        words.clear();
+        suffixes.clear();
+        entries.clear();
+        reloadCount = -1;
+    }
+
+    private void add(Review review) {
+        final Set<String> entry = new HashSet<String>();
+        entries.put(review, entry);
+        final List<ReviewItem> items = review.getReviewItems();
+        for(int item = 0; item < items.size(); item++) {
+            final ReviewItem reviewItem = items.get(item);
+            if(reviewItem.getText() != null) {
+                int position = 0;
+                for(Token token : tokenize(reviewItem.getText())) {
+                    addWord(review, token.getText(), position(item, position++));
+                    entry.add(token.getText());
+                }
+            }
+        }
+    }
+
+    private void remove(Review review) {
+        final Set<String> entry = entries.remove(review);
+        if(entry == null) return;
+        for(String word : entry) {
+            final Map<Review, long[]> postings = words.get(word);
+            if(postings != null) {
+                postings.remove(review);
+                if(postings.isEmpty()) {
+                    words.remove(word);
+                    removeSuffixes(word);
+                }
+            }
+        }
+    }
+
+    private void addWord(Review review, String word, long position) {
+        Map<Review, long[]> postings = words.get(word);
+        if(postings == null) {
+            postings = new HashMap<Review, long[]>();
+            words.put(word, postings);
+            addSuffixes(word);
+        }
+        final long[] positions = postings.get(review);
+        if(positions == null) {
+            postings.put(review, new long[]{position});
+        } else {
+            final long[] newPositions = Arrays.copyOf(positions, positions.length + 1);
+            newPositions[positions.length] = position;
+            postings.put(review, newPositions);
+        }
+    }
+
+    private void addSuffixes(String word) {
+        for(int i = 0; i < word.length(); i++) {
+            final String suffix = word.substring(i);
+            Set<String> suffixWords = suffixes.get(suffix);
+            if(suffixWords == null) {
+                suffixWords = new HashSet<String>(1);
+                suffixes.put(suffix, suffixWords);
+            }
+            suffixWords.add(word);
+        }
+    }
+
+    private void removeSuffixes(String word) {
+        for(int i = 0; i < word.length(); i++) {
+            final String suffix = word.substring(i);
+            final Set<String> suffixWords = suffixes.get(suffix);
+            if(suffixWords != null) {
+                suffixWords.remove(word);
+                if(suffixWords.isEmpty()) suffixes.remove(suffix);
+            }
+        }
+    }
+
+    @NotNull
+    public Set<Review> findTerm(@NotNull String term) {
+        final Map<Review, long[]> postings = words.get(fold(term));
+        return postings == null ? new HashSet<Review>() : new HashSet<Review>(postings.keySet());
+    }
+
+    @NotNull
+    public Set<Review> findPrefix(@NotNull String prefix) {
+        final Set<Review> result = new HashSet<Review>();
+        for(Map<Review, long[]> postings : getPrefixPostings(fold(prefix))) {
+            result.addAll(postings.keySet());
+        }
+        return result;
+    }
+
+    /**
+     * Finds reviews with an item whose text may contain the phrase: words of the phrase follow each other,
+     * the first one may be an end of a word and the last one a start of a word.
+     * @return null if the phrase has no words
+     */
+    @Nullable
+    public Set<Review> findPhrase(@NotNull String phrase) {
+        final List<Token> tokens = tokenize(phrase);
+        if(tokens.isEmpty()) return null;
+        final String first = tokens.get(0).getText();
+        //a word contains the first word if one of its suffixes starts with it, and ends with it if a suffix equals it
+        final Set<String> firstWords = new HashSet<String>();
+        if(tokens.size() == 1) {
+            for(Set<String> suffixWords : suffixes.subMap(first, first + Character.MAX_VALUE).values()) {
+                firstWords.addAll(suffixWords);
+            }
+        } else if(suffixes.containsKey(first)) {
+            firstWords.addAll(suffixes.get(first));
+        }
+        final List<Map<Review, long[]>> firstPostings = new ArrayList<Map<Review, long[]>>();
+        for(String word : firstWords) {
+            firstPostings.add(words.get(word));
+        }
+        if(tokens.size() == 1) {
+            final Set<Review> result = new HashSet<Review>();
+            for(Map<Review, long[]> postings : firstPostings) {
+                result.addAll(postings.keySet());
+            }
+            return result;
+        }
+
+        //positions of the phrase start in every review
+        Map<Review, Set<Long>> starts = collectPositions(firstPostings, 0);
+        for(int i = 1; i < tokens.size() && !starts.isEmpty(); i++) {
+            final String word = tokens.get(i).getText();
+            final Collection<Map<Review, long[]>> postings;
+            if(i == tokens.size() - 1) {
+                postings = getPrefixPostings(word);
+            } else {
+                final Map<Review, long[]> exact = words.get(word);
+                postings = exact == null ? Collections.<Map<Review, long[]>>emptyList() : Collections.singletonList(exact);
+            }
+            final Map<Review, Set<Long>> next = collectPositions(postings, i);
+            final Map<Review, Set<Long>> matched = new HashMap<Review, Set<Long>>();
+            for(Map.Entry<Review, Set<Long>> entry : starts.entrySet()) {
+                final Set<Long> nextStarts = next.get(entry.getKey());
+                if(nextStarts == null) continue;
+                final Set<Long> reviewStarts = new HashSet<Long>(entry.getValue());
+                reviewStarts.retainAll(nextStarts);
+                if(!reviewStarts.isEmpty()) {
+                    matched.put(entry.getKey(), reviewStarts);
+                }
+            }
+            starts = matched;
+        }
+        return new HashSet<Review>(starts.keySet());
+    }
+
+    /**
+     * @return positions shifted back by the index of the word in the phrase, grouped by review
+     */
+    private static Map<Review, Set<Long>> collectPositions(Collection<Map<Review, long[]>> postingsList, int shift) {
+        final Map<Review, Set<Long>> result = new HashMap<Review, Set<Long>>();
+        for(Map<Review, long[]> postings : postingsList) {
+            for(Map.Entry<Review, long[]> entry : postings.entrySet()) {
+                Set<Long> positions = result.get(entry.getKey());
+                if(positions == null) {
+                    positions = new HashSet<Long>();
+                    result.put(entry.getKey(), positions);
+                }
+                for(long position : entry.getValue()) {
+                    positions.add(position - shift);
+                }
+            }
+        }
+        return result;
+    }
+
+    private Collection<Map<Review, long[]>> getPrefixPostings(String prefix) {
+        return words.subMap(prefix, prefix + Character.MAX_VALUE).values();
+    }
+
+    private static long position(int item, int position) {
+        return ((long)item << 32) | position;
+    }
+
+    /**
+     * Splits text into words of letters and digits, words are folded to lower case
+     */
+    @NotNull
+    public static List<Token> tokenize(@NotNull CharSequence text) {
+        final List<Token> tokens = new ArrayList<Token>();
+        int start = -1;
+        for(int i = 0; i <= text.length(); i++) {
+            final boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if(wordChar && start < 0) {
+                start = i;
+            } else if(!wordChar && start >= 0) {
+                tokens.add(new Token(fold(text.subSequence(start, i)), start));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static String fold(CharSequence text) {
+        final StringBuilder builder = new StringBuilder(text.length());
+        for(int i = 0; i < text.length(); i++) {
+            builder.append(Character.toLowerCase(Character.toUpperCase(text.charAt(i))));
+        }
+        return builder.toString();
+    }
+}
@@ -1,17 +1,21 @@
 package ui.reviewtoolwindow.filter;
 
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.AbstractProjectComponent;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.util.Pair;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import reviewresult.Review;
+import reviewresult.ReviewChangedTopics;
 import reviewresult.ReviewManager;
 import reviewresult.persistent.ReviewItem;
-import utils.ReviewsBundle;
-import utils.Util;
+import utils.IntBitmap;
+import utils.PatternMatcher;
 
+import javax.swing.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * User: Alisa.Afonina
@@ -19,24 +23,42 @@ import java.util.*;
  * Time: 7:40 PM
  */
 public class Searcher  extends AbstractProjectComponent {
-    private Map<Review, Pair<Integer, Integer>> review2searchresult = new HashMap<Review, Pair<Integer, Integer>>();
-    private Map<ReviewItem, Pair<Integer, Integer>> reviewitem2searchresult =
-                                                            new HashMap<ReviewItem, Pair<Integer, Integer>>();
-    private Set<String> filteredFileNames = new HashSet<String>();
+    //matched reviews are shown in batches of this size or after this delay
+    private static final int BATCH_SIZE = 100;
+    private static final long BATCH_DELAY = 200;
 
-    private final Project project;
+    private SearchResults results = new SearchResults();
 
-    private boolean authorSpecified;
-    private boolean statusSpecified;
-    private boolean tagSpecified;
+    private final Project project;
 
     private String filterText = "";
-    private Searcher.AdditionalFilter additionalFilter  = new AdditionalFilter();
+    @Nullable
+    private QueryNode queryRoot;
+    @Nullable
+    private String parseError;
     private boolean caseSensitive = false;
+    private Query query;
+    private final ReviewIndex index = new ReviewIndex();
+    //changed by every new filter, results of older searches are dropped
+    private final AtomicInteger generation = new AtomicInteger();
+    private boolean searching;
+    //changed with the filter and its results
+    private int modificationCount;
+
+    public interface SearchListener {
+        /**
+         * Called in the event dispatch thread when a batch of matched reviews is added to the results
+         * @param reviews reviews of the batch, they are copies of the live reviews
+         */
+        void resultsAdded(@NotNull Collection<Review> reviews);
+
+        void searchFinished();
+    }
 
     protected Searcher(Project project) {
         super(project);
         this.project = project;
+        project.getMessageBus().connect(project).subscribe(ReviewChangedTopics.REVIEW_STATUS, index);
     }
 
     public static Searcher getInstance(@NotNull Project project) {
@@ -44,225 +66,170 @@ public class Searcher  extends AbstractProjectComponent {
     }
 
     public boolean filterIsSet(){
-        return additionalFilterIsSet() || !"".equals(filterText);
+        return queryRoot != null || parseError != null;
     }
 
     public boolean additionalFilterIsSet(){
-        return authorSpecified || statusSpecified || tagSpecified;
+        return queryRoot != null && queryRoot.hasFieldTerms();
+    }
+
+    /**
+     * @return message of the error in the filter or null if it was parsed
+     */
+    @Nullable
+    public String getParseError() {
+        return parseError;
     }
 
     public Set<String> getFilteredFileNames() {
         if(filterIsSet()) {
-            return Collections.unmodifiableSet(filteredFileNames);
+            return Collections.unmodifiableSet(results.filteredFileNames);
         } else return ReviewManager.getInstance(project).getFileNames();
     }
 
-    public void createFilter(String text) {
-        review2searchresult = new HashMap<Review, Pair<Integer, Integer>>();
-        reviewitem2searchresult = new HashMap<ReviewItem, Pair<Integer, Integer>>();
-        filteredFileNames = new HashSet<String>();
+    /**
+     * Parses the filter and looks for matching reviews on a pooled thread. Search started before is cancelled.
+     * The listener is notified in the event dispatch thread
+     */
+    public void createFilter(String text, @NotNull final SearchListener listener) {
+        final int searchGeneration = generation.incrementAndGet();
+        modificationCount++;
+        results = new SearchResults();
         filterText = text;
-        extractAuthor();
-        //extractStatus();
-        extractTag();
+        query = null;
+        try {
+            queryRoot = QueryParser.parse(text);
+            parseError = null;
+        } catch (QueryParser.ParseException e) {
+            queryRoot = null;
+            parseError = e.getMessage();
+        }
+        if(queryRoot == null) {
+            searching = false;
+            listener.resultsAdded(Collections.<Review>emptyList());
+            listener.searchFinished();
+            return;
+        }
 
         ReviewManager instance = ReviewManager.getInstance(myProject);
-        Set<String> fileNames = instance.getFileNames();
-        if(fileNames == null) return;
-        for(String url : fileNames) {
-            List<Review> validReviews = instance.getValidReviews(url);
-            if(validReviews == null) return;
-            for(Review review : validReviews) {
-                addSearchResult(review);
+        instance.ensureAllLoaded();
+        index.ensureUpToDate(instance);
+        queryRoot.compile(index, instance.getFacets(), caseSensitive);
+        //reviews are matched on a pooled thread, so their items and tags are copied while the user can't change them
+        final List<Review> candidates = new ArrayList<Review>();
+        for(Review review : findCandidates(queryRoot)) {
+            if(instance.containsReview(review) && review.isValid()) {
+                candidates.add(review.createSnapshot());
             }
         }
-    }
-
-    private void extractTag() {
-        final int tagIndex = Util.find(filterText, additionalFilter.TAG, caseSensitive);
-        if(tagIndex != -1) {
-            tagSpecified = true;
-            final int beginTagName = tagIndex + additionalFilter.TAG.length();
-
-            final int beginIndex = filterText.indexOf("\"", beginTagName);
-            if(beginIndex < 0)  {
-                Messages.showWarningDialog(ReviewsBundle.message("reviews.tagQuotesMissingMessage"),
-                                           ReviewsBundle.message("reviews.tagQuotesMissing"));
-                return;
-            }
-
-            final int endIndex = filterText.indexOf("\"", beginIndex + 1);
-            if(endIndex == beginIndex)  {
-                Messages.showWarningDialog(ReviewsBundle.message("reviews.tagNotClosedMessage"),
-                                                                 ReviewsBundle.message("reviews.tagNotClosed"));
-                return;
-            }
-
-            additionalFilter.setTag(filterText.substring(beginIndex + 1, endIndex));
-            if("".equals(additionalFilter.getTag().trim())) {
-                Messages.showErrorDialog(ReviewsBundle.message("reviews.noTagMessage"),
-                                                                ReviewsBundle.message("reviews.noTag"));
-                if(tagIndex > 0) {
-                    filterText = filterText.substring(0, tagIndex);
+        final Query searchQuery = new Query(queryRoot, caseSensitive);
+        query = searchQuery;
+        searching = true;
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            public void run() {
+                SearchResults batch = new SearchResults();
+                long batchStart = System.currentTimeMillis();
+                for(final Review review : candidates) {
+                    if(generation.get() != searchGeneration) return;
+                    final SearchResults target = batch;
+                    ApplicationManager.getApplication().runReadAction(new Runnable() {
+                        public void run() {
+                            searchQuery.match(review, target);
+                        }
+                    });
+                    if(batch.size() >= BATCH_SIZE || System.currentTimeMillis() - batchStart >= BATCH_DELAY) {
+                        publish(batch, searchGeneration, listener, false);
+                        batch = new SearchResults();
+                        batchStart = System.currentTimeMillis();
+                    }
                 }
+                publish(batch, searchGeneration, listener, true);
             }
-            else {
-                filterText = filterText.substring(endIndex + 1).trim();
-            }
-        }
+        });
     }
 
-   /* private void extractStatus() {
-        final int statusIndex = Util.find(filterText, AdditionalFilter.STATUS);
-        if(statusIndex != -1) {
-            statusSpecified = true;
-            final int beginStatusName = statusIndex + AdditionalFilter.STATUS.length();
-            final String[] split = filterText.substring(beginStatusName).split(" ");
-            if(split.length == 1 && split[0].equals(AdditionalFilter.STATUS)) {
-                Messages.showErrorDialog("No status was specified for selection", "No Status");
-                if(statusIndex > 0) {
-                    filterText = filterText.substring(0, statusIndex);
+    private void publish(final SearchResults batch, final int searchGeneration, final SearchListener listener,
+                         final boolean finished) {
+        if(batch.size() == 0 && !finished) return;
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                if(generation.get() != searchGeneration || project.isDisposed()) return;
+                results.addAll(batch);
+                modificationCount++;
+                if(finished) {
+                    searching = false;
                 }
-            }
-            else {
-                additionalFilter.setStatus(split[0]);
-                filterText = filterText.substring(beginStatusName + additionalFilter.getStatus().length()).trim();
-            }
-        }
-    }*/
-
-    private void extractAuthor() {
-        final int authorIndex = Util.find(filterText, additionalFilter.AUTHOR, caseSensitive);
-        if(authorIndex != -1) {
-            authorSpecified = true;
-            final int beginAuthorName = authorIndex + additionalFilter.AUTHOR.length();
-
-            final int beginIndex = filterText.indexOf("\"", beginAuthorName);
-            if(beginIndex < 0)  {
-                Messages.showWarningDialog(ReviewsBundle.message("reviews.authorQuotesMissingMessage"),
-                                           ReviewsBundle.message("reviews.authorQuotesMissing"));
-                return;
-            }
-
-            final int endIndex = filterText.indexOf("\"", beginIndex + 1);
-            if(endIndex == beginIndex)  {
-                Messages.showWarningDialog(ReviewsBundle.message("reviews.authorNameNotClosedMessage"),
-                                                                 ReviewsBundle.message("reviews.authorNameNotClosed"));
-                return;
-            }
-
-            additionalFilter.setAuthor(filterText.substring(beginIndex + 1, endIndex));
-            if("".equals(additionalFilter.getAuthor().trim())) {
-                Messages.showErrorDialog(ReviewsBundle.message("reviews.noAuthorMessage"),
-                                         ReviewsBundle.message("reviews.noAuthor"));
-                if(authorIndex > 0) {
-                    filterText = filterText.substring(0, authorIndex);
+                listener.resultsAdded(Collections.unmodifiableSet(batch.review2searchresult.keySet()));
+                if(finished) {
+                    listener.searchFinished();
                 }
             }
-            else {
-                filterText = filterText.substring(endIndex + 1).trim();
-            }
-        }
+        });
     }
 
-    public void addSearchResult(Review review) {
-        boolean contains = false;
-        boolean containsTag = false;
-        if(tagSpecified) {
-            for(String existingTag : review.getTags()) {
-                if(existingTag.compareToIgnoreCase(additionalFilter.getTag()) == 0) {
-                    containsTag = true;
-                }
-            }
-        }
-        boolean containsStatus = false;
-        /*if(statusSpecified) {
-            if(review.getStatus().name().compareToIgnoreCase(status) == 0) {
-                containsStatus = true;
-            }
-        }*/
-        for(ReviewItem item : review.getReviewItems()) {
+    public boolean isSearching() {
+        return searching;
+    }
 
-            boolean containsAuthor = false;
-            if(authorSpecified) {
-                if(item.getAuthor().compareToIgnoreCase(additionalFilter.getAuthor()) == 0) {
-                    containsAuthor = true;
-                }
-            }
+    public int getModificationCount() {
+        return modificationCount;
+    }
 
-            final boolean additionalFiltersSpecified = authorSpecified || statusSpecified || tagSpecified;
-            final boolean additionalFiltersExist = !(authorSpecified ^ containsAuthor) &&
-                                         !(statusSpecified ^ containsStatus) &&
-                                        !(tagSpecified ^ containsTag) && additionalFiltersSpecified;
+    /**
+     * @return reviews which may match the query, Query.match() checks them
+     */
+    private Collection<Review> findCandidates(QueryNode root) {
+        final IntBitmap candidates = root.getCandidates();
+        return candidates != null ? ReviewManager.getInstance(myProject).getFacets().getReviews(candidates)
+                                  : getAllReviews();
+    }
 
-            if("".equals(filterText) && additionalFiltersExist) {
-                Pair<Integer, Integer> itemResult = new Pair<Integer, Integer>(-2, -2);
-                reviewitem2searchresult.put(item, itemResult);
-                contains = true;
-            }
-            final boolean filterExists = !(additionalFiltersSpecified ^ additionalFiltersExist);
-            if(!(additionalFilter == null || "".equals(filterText)) && filterExists) {
-                int itemStart = Util.find(item.getText(), filterText, caseSensitive);
-                int itemEnd;
-                if(itemStart != -1) {
-                    contains = true;
-                    if(itemStart >= 0) {
-                        itemEnd = itemStart + filterText.length();
-                        Pair<Integer, Integer> itemResult = new Pair<Integer, Integer>(itemStart, itemEnd);
-                        reviewitem2searchresult.put(item, itemResult);
-                    }
-               }
+    private List<Review> getAllReviews() {
+        final ReviewManager instance = ReviewManager.getInstance(myProject);
+        final List<Review> reviews = new ArrayList<Review>();
+        final Set<String> fileNames = instance.getFileNames();
+        if(fileNames == null) return reviews;
+        for(String url : fileNames) {
+            final List<Review> validReviews = instance.getValidReviews(url);
+            if(validReviews != null) {
+                reviews.addAll(validReviews);
             }
         }
-        if(contains) {
-            Pair<Integer, Integer> reviewResult = new Pair<Integer, Integer>(-2, -2);
-            if(additionalFilter != null && !"".equals(filterText) ) {
-                int reviewStart = Util.find(review.getPresentationInfo(false), filterText, caseSensitive);
-                int reviewEnd;
-
-                if(reviewStart >= 0) {
-                    reviewEnd = reviewStart + filterText.length();
-                    reviewResult = new Pair<Integer, Integer>(reviewStart, reviewEnd);
-                }
-            }
-            review2searchresult.put(review, reviewResult);
-            filteredFileNames.add(review.getFilePath());
+        return reviews;
+    }
+
+    public void addSearchResult(Review review) {
+        if(query != null) {
+            query.match(review, results);
+            modificationCount++;
         }
     }
 
     public void emptyFilter() {
+        generation.incrementAndGet();
+        modificationCount++;
+        searching = false;
         filterText = "";
-        authorSpecified = false;
-        statusSpecified = false;
-        tagSpecified = false;
-        review2searchresult = new HashMap<Review, Pair<Integer, Integer>>();
-        reviewitem2searchresult = new HashMap<ReviewItem, Pair<Integer, Integer>>();
-        filteredFileNames = new HashSet<String>();
+        queryRoot = null;
+        parseError = null;
+        query = null;
+        results = new SearchResults();
     }
 
-    public String getAdditionalFilterText() {
-        String result = "";
-        result += (tagSpecified) ? ReviewsBundle.message("reviews.tag") + " " + additionalFilter.getTag() + " ": "";
-        result += (authorSpecified) ? ReviewsBundle.message("reviews.author") + " " + additionalFilter.getAuthor() + " ": "";
-        return result;
-    }
     public Pair<Integer, Integer> getReviewSearchResult(Review review) {
-        if(review2searchresult.containsKey(review)) {
-            return review2searchresult.get(review);
+        if(results.review2searchresult.containsKey(review)) {
+            return results.review2searchresult.get(review);
         }
         return new Pair<Integer, Integer>(-1,-1);
     }
 
     public boolean containsReview(Review review) {
-        boolean contains = review2searchresult.containsKey(review);
-        for (ReviewItem reviewItem : review.getReviewItems()) {
-            contains |= (containsReviewItem(reviewItem));
-        }
-        return !filterIsSet() || contains;
+        //reviews with matched items are matched too
+        return !filterIsSet() || results.review2searchresult.containsKey(review);
     }
 
     public boolean containsReviewItem(ReviewItem reviewItem) {
-        return !filterIsSet() || reviewitem2searchresult.containsKey(reviewItem);
+        return !filterIsSet() || results.reviewitem2searchresult.containsKey(reviewItem);
     }
 
     public String getFilter() {
@@ -270,11 +237,24 @@ public class Searcher  extends AbstractProjectComponent {
     }
 
     public boolean isEmpty() {
-        return filterIsSet() && (review2searchresult.isEmpty() && reviewitem2searchresult.isEmpty());
+        return filterIsSet() && !searching && results.size() == 0;
     }
 
     public String[] getFilterKeywords() {
-        return additionalFilter.getFilterKeywords();
+        List<String> keywords = new ArrayList<String>();
+        final ReviewManager instance = ReviewManager.getInstance(project);
+        if(instance.getAvailableTags().length != 0) {
+            keywords.add(QueryParser.TAG);
+        }
+        if(instance.getAuthors().length != 0) {
+            keywords.add(QueryParser.AUTHOR);
+            keywords.add(QueryParser.LAST_COMMENTER);
+        }
+        keywords.add(QueryParser.FILE);
+        keywords.add(QueryParser.MODULE);
+        keywords.add(QueryParser.STATUS);
+        keywords.add(QueryParser.DATE);
+        return keywords.toArray(new String[keywords.size()]);
     }
 
     public void setCaseSensitive(boolean caseSensitive) {
@@ -282,51 +262,81 @@ public class Searcher  extends AbstractProjectComponent {
     }
 
 
-    private class AdditionalFilter {
-    public final String AUTHOR = ReviewsBundle.message("reviews.author");
-    //public static final String STATUS = "status:";
-    public final String TAG = ReviewsBundle.message("reviews.tag");
+    private static class SearchResults {
+        private final Map<Review, Pair<Integer, Integer>> review2searchresult = new HashMap<Review, Pair<Integer, Integer>>();
+        private final Map<ReviewItem, Pair<Integer, Integer>> reviewitem2searchresult =
+                                                                new HashMap<ReviewItem, Pair<Integer, Integer>>();
+        private final Set<String> filteredFileNames = new HashSet<String>();
 
-    private String status = "";
-    private String author = "";
-    private String tag = "";
-
-    public String getTag() {
-        return tag;
-    }
-
-    public void setTag(String tag) {
-        this.tag = tag;
-    }
-
-    public String getStatus() {
-        return status;
-    }
+        private int size() {
+            return review2searchresult.size() + reviewitem2searchresult.size();
+        }
 
-    public void setStatus(String status) {
-        this.status = status;
+        private void addAll(SearchResults other) {
+            review2searchresult.putAll(other.review2searchresult);
+            reviewitem2searchresult.putAll(other.reviewitem2searchresult);
+            filteredFileNames.addAll(other.filteredFileNames);
+        }
     }
 
-    public String getAuthor() {
-        return author;
-    }
+    /**
+     * Compiled query and the terms matched reviews are highlighted by, not changed after the search starts
+     */
+    private static class Query {
+        private final QueryNode root;
+        private final Set<String> authors = new HashSet<String>();
+        @Nullable
+        private final PatternMatcher phraseMatcher;
+        private final int[] phraseLengths;
+
+        private Query(QueryNode root, boolean caseSensitive) {
+            this.root = root;
+            final List<String> phrases = new ArrayList<String>();
+            root.collectTerms(phrases, authors, false);
+            phraseMatcher = phrases.isEmpty() ? null : new PatternMatcher(phrases, caseSensitive);
+            phraseLengths = new int[phrases.size()];
+            for(int i = 0; i < phrases.size(); i++) {
+                phraseLengths[i] = phrases.get(i).length();
+            }
+        }
 
-    public void setAuthor(String author) {
-        this.author = author;
-    }
-        
-    private String[] getFilterKeywords() {
-        List<String> keywords = new ArrayList<String>();
-        final ReviewManager instance = ReviewManager.getInstance(project);
-        if(instance.getAvailableTags().length != 0 && !tagSpecified) {
-            keywords.add(TAG);
+        private void match(Review review, SearchResults results) {
+            if(!root.matches(review)) return;
+            for(ReviewItem item : review.getReviewItems()) {
+                if(!authors.isEmpty() && (item.getAuthor() == null || !authors.contains(item.getAuthor().toLowerCase()))) {
+                    continue;
+                }
+                if(phraseMatcher == null) {
+                    results.reviewitem2searchresult.put(item, new Pair<Integer, Integer>(-2, -2));
+                } else {
+                    final Pair<Integer, Integer> itemResult = findPhrase(item.getText());
+                    if(itemResult != null) {
+                        results.reviewitem2searchresult.put(item, itemResult);
+                    }
+                }
+            }
+            Pair<Integer, Integer> reviewResult = findPhrase(review.getPresentationInfo(false));
+            results.review2searchresult.put(review, reviewResult == null ? new Pair<Integer, Integer>(-2, -2) : reviewResult);
+            results.filteredFileNames.add(review.getFilePath());
         }
-        if(instance.getAuthors().length != 0 && !authorSpecified) {
-            keywords.add(AUTHOR);
+
+        /**
+         * @return range of the leftmost phrase in the text
+         */
+        @Nullable
+        private Pair<Integer, Integer> findPhrase(@Nullable String text) {
+            if(text == null || phraseMatcher == null) return null;
+            final int[] found = {-1, -1};
+            phraseMatcher.search(text, 0, text.length(), new PatternMatcher.MatchProcessor() {
+                public boolean process(int pattern, int start) {
+                    if(found[0] < 0 || start < found[0] || start == found[0] && start + phraseLengths[pattern] > found[1]) {
+                        found[0] = start;
+                        found[1] = start + phraseLengths[pattern];
+                    }
+                    return true;
+                }
+            });
+            return found[0] < 0 ? null : new Pair<Integer, Integer>(found[0], found[1]);
         }
-        return keywords.toArray(new String[keywords.size()]);
     }
 }
-}
-
-
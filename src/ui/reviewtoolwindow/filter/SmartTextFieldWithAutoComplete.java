@@ -25,7 +25,9 @@ import com.intellij.util.Function;
 import com.intellij.util.LocalTimeCounter;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.text.Matcher;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import reviewresult.FacetIndex;
 import reviewresult.ReviewManager;
 import reviewresult.persistent.ReviewStatus;
 import utils.ReviewsBundle;
@@ -35,6 +37,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * User: Alisa.Afonina
@@ -60,22 +63,37 @@ public class SmartTextFieldWithAutoComplete extends EditorTextField implements D
             public void documentChanged(DocumentEvent e) {
                 String text = extractSuffix();
                 String[] variants = null;
-                if (text.endsWith(ReviewsBundle.message("reviews.author"))) {
-                    variants = ReviewManager.getInstance(getProject()).getAuthors();
+                Map<String, Integer> counts = Collections.emptyMap();
+                final ReviewManager reviewManager = ReviewManager.getInstance(getProject());
+                if (text.endsWith(ReviewsBundle.message("reviews.author"))
+                        || text.endsWith(ReviewsBundle.message("reviews.lastCommenter"))) {
+                    variants = reviewManager.getAuthors();
+                    counts = reviewManager.getFacetCounts(FacetIndex.Facet.AUTHOR);
                     setDelimiter("\"");
                 }
 
                 if (text.endsWith(ReviewsBundle.message("reviews.tag"))) {
-                    variants = ReviewManager.getInstance(getProject()).getAvailableTags();
+                    variants = reviewManager.getAvailableTags();
+                    counts = reviewManager.getFacetCounts(FacetIndex.Facet.TAG);
                     setDelimiter("\"");
                 }
+                if (text.endsWith(ReviewsBundle.message("reviews.module"))) {
+                    counts = reviewManager.getFacetCounts(FacetIndex.Facet.MODULE);
+                    variants = counts.keySet().toArray(new String[counts.size()]);
+                    setDelimiter("\"");
+                }
+                if (text.endsWith(ReviewsBundle.message("reviews.status"))) {
+                    variants = ReviewStatus.getVariants();
+                    counts = reviewManager.getFacetCounts(FacetIndex.Facet.STATUS);
+                    setDelimiter(":");
+                }
                 if (text.endsWith(" ") || "".equals(text)) {
                     variants = Searcher.getInstance(project).getFilterKeywords();
                     setDelimiter(" ");
                 }
 
                 if (variants != null) {
-                    setVariants(variants);
+                    setVariants(variants, counts);
                 }
             }
         });
@@ -155,11 +173,20 @@ public class SmartTextFieldWithAutoComplete extends EditorTextField implements D
     }
 
     public void setVariants(@Nullable final String[] variants) {
+        setVariants(variants, Collections.<String, Integer>emptyMap());
+    }
+
+    /**
+     * @param counts numbers of reviews shown next to the variants
+     */
+    public void setVariants(@Nullable final String[] variants, @NotNull final Map<String, Integer> counts) {
         this.variants = (variants == null)
            ? Collections.<LookupElement>emptyList()
            : ContainerUtil.map(variants, new Function<String, LookupElement>() {
             public LookupElement fun(final String s) {
-                return LookupElementBuilder.create(s);
+                final Integer count = counts.get(s);
+                final LookupElementBuilder element = LookupElementBuilder.create(s);
+                return count == null ? element : element.setTypeText(String.valueOf(count));
             }
         });
     }
@@ -6,7 +6,6 @@ import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Iconable;
-import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.pom.Navigatable;
 import com.intellij.psi.PsiDocumentManager;
@@ -16,7 +15,6 @@ import com.intellij.ui.treeStructure.SimpleNode;
 import com.intellij.util.IconUtil;
 import org.jetbrains.annotations.NotNull;
 import reviewresult.Review;
-import reviewresult.ReviewManager;
 import ui.reviewtoolwindow.ReviewToolWindowSettings;
 import ui.reviewtoolwindow.filter.Searcher;
 
@@ -33,6 +31,8 @@ import java.util.List;
 public class FileNode extends PlainNode implements Navigatable{
     private final Project project;
     private final VirtualFile file;
+    private int reviewCount;
+    private int countModificationCount = -1;
 
     public FileNode(Project project, VirtualFile value, ReviewToolWindowSettings settings) {
         super(project, settings);
@@ -49,7 +49,7 @@ public class FileNode extends PlainNode implements Navigatable{
 
     @NotNull
     @Override
-    public SimpleNode[] getChildren() {
+    protected SimpleNode[] computeChildren() {
         List<SimpleNode> newChildren = new ArrayList<SimpleNode>();
         for (PlainNode child : children) {
             if(child instanceof ReviewNode) {
@@ -80,14 +80,10 @@ public class FileNode extends PlainNode implements Navigatable{
     public void update(PresentationData data) {
         data.addText(file.getName(), SimpleTextAttributes.REGULAR_ATTRIBUTES);
         if(!file.isDirectory()) {
-            VirtualFile baseDir = project.getBaseDir();
-            if(baseDir == null) {return;}
-            List<Review> reviews = ReviewManager.getInstance(project).
-                                                getValidReviews(VfsUtil.getRelativePath(file, baseDir, '/'));
-            if(reviews == null || reviews.isEmpty()) {
+            int number = getReviewCount();
+            if(number == 0) {
                 return;
             }
-            int number =  reviews.size();
             String text = " " + String.valueOf(number) + ((number == 1)?" review":" reviews");
             data.addText( text, SimpleTextAttributes.GRAYED_BOLD_ATTRIBUTES);
         }
@@ -97,6 +93,19 @@ public class FileNode extends PlainNode implements Navigatable{
     }
 
 
+    private int getReviewCount() {
+        if(countModificationCount != getModificationCount()) {
+            reviewCount = 0;
+            for(PlainNode child : children) {
+                if(child instanceof ReviewNode && ((Review) child.getObject()).isValid()) {
+                    reviewCount++;
+                }
+            }
+            countModificationCount = getModificationCount();
+        }
+        return reviewCount;
+    }
+
     @Override
     public void navigate(boolean requestFocus) {
         Document document = FileDocumentManager.getInstance().getDocument(file);
@@ -126,6 +135,7 @@ public class FileNode extends PlainNode implements Navigatable{
         if(!children.contains(node)) {
             node.setPlainParent(this);
             children.add(node);
+            invalidate();
         }
     }
 
@@ -45,7 +45,7 @@ public class ModuleNode extends PlainNode implements Navigatable{
 
     @NotNull
     @Override
-    public SimpleNode[] getChildren() {
+    protected SimpleNode[] computeChildren() {
         List<SimpleNode> newChildren = new ArrayList<SimpleNode>();
         if(!getSettings().isGroupByFile()) {
             for (SimpleNode child : children) {
@@ -107,6 +107,7 @@ public class ModuleNode extends PlainNode implements Navigatable{
             if(!children.contains(node)) {
                 node.setPlainParent(this);
                 children.add(node);
+                invalidate();
             }
         }
     }
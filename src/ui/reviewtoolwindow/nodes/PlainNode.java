@@ -3,7 +3,9 @@ package ui.reviewtoolwindow.nodes;
 
 import com.intellij.openapi.project.Project;
 import com.intellij.ui.treeStructure.SimpleNode;
+import org.jetbrains.annotations.NotNull;
 import ui.reviewtoolwindow.ReviewToolWindowSettings;
+import ui.reviewtoolwindow.filter.Searcher;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -18,6 +20,14 @@ public abstract class PlainNode extends SimpleNode {
     protected final List<PlainNode> children = new ArrayList<PlainNode>();
     private PlainNode parent;
     private final ReviewToolWindowSettings settings;
+    static final SimpleNode[] NO_CHILDREN = new SimpleNode[0];
+    //changed with children of this node or of its descendants
+    private int modificationCount;
+    private SimpleNode[] cachedChildren;
+    private int cachedModificationCount;
+    private int cachedSearchModificationCount;
+    private boolean cachedGroupByFile;
+    private boolean cachedGroupByModule;
 
     PlainNode(Project project, ReviewToolWindowSettings settings) {
         super(project);
@@ -31,9 +41,45 @@ public abstract class PlainNode extends SimpleNode {
     void removeChild(PlainNode childToRemove) {
         if(children.contains(childToRemove)) {
             children.remove(childToRemove);
+            invalidate();
         }
     }
 
+    /**
+     * Children are computed again after the structure below the node, the filter or grouping settings are changed
+     */
+    @NotNull
+    @Override
+    public SimpleNode[] getChildren() {
+        final int searchModificationCount = Searcher.getInstance(myProject).getModificationCount();
+        if(cachedChildren == null || cachedModificationCount != modificationCount
+                || cachedSearchModificationCount != searchModificationCount
+                || cachedGroupByFile != settings.isGroupByFile() || cachedGroupByModule != settings.isGroupByModule()) {
+            cachedChildren = computeChildren();
+            cachedModificationCount = modificationCount;
+            cachedSearchModificationCount = searchModificationCount;
+            cachedGroupByFile = settings.isGroupByFile();
+            cachedGroupByModule = settings.isGroupByModule();
+        }
+        return cachedChildren;
+    }
+
+    @NotNull
+    protected abstract SimpleNode[] computeChildren();
+
+    /**
+     * Drops cached children of the node and its ancestors
+     */
+    public void invalidate() {
+        for(PlainNode node = this; node != null; node = node.parent) {
+            node.modificationCount++;
+        }
+    }
+
+    int getModificationCount() {
+        return modificationCount;
+    }
+
     public abstract Object getObject();
 
     public void removeFromParent() {
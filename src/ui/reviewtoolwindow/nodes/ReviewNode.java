@@ -10,12 +10,16 @@ import com.intellij.pom.Navigatable;
 import com.intellij.ui.SimpleTextAttributes;
 import com.intellij.ui.treeStructure.SimpleNode;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import reviewresult.Review;
+import reviewresult.persistent.ReviewItem;
 import ui.reviewtoolwindow.ReviewToolWindowSettings;
 import ui.reviewtoolwindow.filter.Searcher;
 import utils.ReviewsBundle;
 import utils.Util;
 
+import java.util.List;
+
 /**
  * User: Alisa.Afonina
  * Date: 7/13/11
@@ -24,6 +28,66 @@ import utils.Util;
 public class ReviewNode extends PlainNode implements Navigatable{
     private final Review review;
     private final Searcher searcher;
+    @Nullable
+    private SortKey sortKey;
+
+    /**
+     * Values reviews are sorted by, computed in one pass over review items
+     */
+    public static class SortKey {
+        private final Review review;
+        private final String filePath;
+        private final long dateOfCreation;
+        @Nullable
+        private final String firstCommenter;
+        @Nullable
+        private final String lastCommenter;
+
+        public SortKey(@NotNull Review review) {
+            this.review = review;
+            filePath = review.getFilePath();
+            final List<ReviewItem> items = review.getReviewItems();
+            long firstDate = System.currentTimeMillis();
+            long lastDate = 0;
+            String lastAuthor = "";
+            for(ReviewItem item : items) {
+                final long date = item.getDate().getTime();
+                if(date < firstDate) {
+                    firstDate = date;
+                }
+                if(date > lastDate) {
+                    lastDate = date;
+                    lastAuthor = item.getAuthor();
+                }
+            }
+            dateOfCreation = firstDate;
+            firstCommenter = items.isEmpty() ? null : items.get(0).getAuthor();
+            lastCommenter = lastAuthor;
+        }
+
+        @NotNull
+        public Review getReview() {
+            return review;
+        }
+
+        public String getFilePath() {
+            return filePath;
+        }
+
+        public long getDateOfCreation() {
+            return dateOfCreation;
+        }
+
+        @Nullable
+        public String getFirstCommenter() {
+            return firstCommenter;
+        }
+
+        @Nullable
+        public String getLastCommenter() {
+            return lastCommenter;
+        }
+    }
 
     public ReviewNode(Project project, Review review, ReviewToolWindowSettings settings) {
         super(project, settings);
@@ -38,8 +102,8 @@ public class ReviewNode extends PlainNode implements Navigatable{
 
     @NotNull
     @Override
-    public SimpleNode[] getChildren() {
-        return new SimpleNode[0];
+    protected SimpleNode[] computeChildren() {
+        return NO_CHILDREN;
     }
 
     @Override
@@ -88,6 +152,20 @@ public class ReviewNode extends PlainNode implements Navigatable{
         return review;
     }
 
+    @NotNull
+    public SortKey getSortKey() {
+        if(sortKey == null) {
+            sortKey = new SortKey(review);
+        }
+        return sortKey;
+    }
+
+    @Override
+    public void invalidate() {
+        sortKey = null;
+        super.invalidate();
+    }
+
     @Override
     public void navigate(boolean requestFocus) {
 
@@ -118,5 +196,6 @@ public class ReviewNode extends PlainNode implements Navigatable{
     public void addChild(PlainNode node) {
         node.setPlainParent(this);
         children.add(node);
+        invalidate();
     }
 }
\ No newline at end of file
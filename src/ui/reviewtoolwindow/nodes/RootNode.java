@@ -7,6 +7,7 @@ import com.intellij.openapi.module.ModuleManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.ui.SimpleTextAttributes;
 import com.intellij.ui.treeStructure.SimpleNode;
+import org.jetbrains.annotations.NotNull;
 import ui.reviewtoolwindow.ReviewToolWindowSettings;
 import ui.reviewtoolwindow.filter.Searcher;
 import utils.ReviewsBundle;
@@ -30,14 +31,18 @@ public class RootNode extends PlainNode {
         }
     }
 
+    @NotNull
     @Override
-    public SimpleNode[] getChildren() {
+    protected SimpleNode[] computeChildren() {
         List<SimpleNode> newChildren = new ArrayList<SimpleNode>();
         final Searcher searcher = Searcher.getInstance(myProject);
         if(searcher.isEmpty()) return new SimpleNode[]{new SimpleNode() {
             @Override
             protected void update(PresentationData presentation) {
-                if(!searcher.additionalFilterIsSet()) {
+                if(searcher.getParseError() != null) {
+                    presentation.addText(ReviewsBundle.message("reviews.queryError", searcher.getParseError()),
+                                         SimpleTextAttributes.ERROR_ATTRIBUTES);
+                } else if(!searcher.additionalFilterIsSet()) {
                     presentation.addText(ReviewsBundle.message("reviews.noReviewsWithText", searcher.getFilter()),
                                          SimpleTextAttributes.REGULAR_BOLD_ATTRIBUTES);
                 } else {
@@ -49,7 +54,7 @@ public class RootNode extends PlainNode {
 
             @Override
             public SimpleNode[] getChildren() {
-                return new SimpleNode[0];
+                return NO_CHILDREN;
             }
         }};
         if(!getSettings().isGroupByModule()) {
@@ -73,6 +78,7 @@ public class RootNode extends PlainNode {
             node.setPlainParent(this);
             if(!children.contains(node)) {
                 children.add(node);
+                invalidate();
             }
         }
     }
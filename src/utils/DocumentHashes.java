@@ -0,0 +1,256 @@
+package utils;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.event.DocumentAdapter;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.util.Key;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Hashes of every line of a document, updated by a document listener for the changed lines only.
+ * The checksum of the text is combined from line hashes, so it does not copy or rehash the text after an edit.
+ *
+ * The checksum also keeps hashes of blocks of lines, so comparing a saved checksum with the current text
+ * tells which part of the text was changed, see {@link #getChangeSince(String)}.
+ */
+public class DocumentHashes extends DocumentAdapter {
+    private static final Key<DocumentHashes> KEY = Key.create("DocumentHashes");
+    private static final String VERSION = "h1";
+    private static final String SEPARATOR = ":";
+    private static final int MIN_BLOCK_LINES = 64;
+    private static final int MAX_BLOCKS = 128;
+    private static final int BLOCK_HASH_LENGTH = 8;
+
+    private static final long SEED = 0xcbf29ce484222325L;
+    private static final long CHAR_PRIME = 0x100000001b3L;
+    private static final long LINE_MULTIPLIER = 0x9e3779b97f4a7c15L;
+
+    private final Document document;
+    private long[] lineHashes;
+    private int lineCount;
+    private String checksum;
+
+    private DocumentHashes(Document document) {
+        this.document = document;
+        rebuild();
+    }
+
+    @NotNull
+    public static synchronized DocumentHashes getInstance(@NotNull Document document) {
+        DocumentHashes hashes = document.getUserData(KEY);
+        if(hashes == null) {
+            hashes = new DocumentHashes(document);
+            document.putUserData(KEY, hashes);
+            document.addDocumentListener(hashes);
+        }
+        return hashes;
+    }
+
+    @Override
+    public synchronized void documentChanged(DocumentEvent event) {
+        checksum = null;
+        final int newLineCount = document.getLineCount();
+        final int offset = event.getOffset();
+        final int startLine = document.getLineNumber(offset);
+        final int endLine = document.getLineNumber(offset + event.getNewLength());
+        final int inserted = endLine - startLine + 1;
+        final int removed = inserted - (newLineCount - lineCount);
+        if(event.isWholeTextReplaced() || removed < 0 || startLine + removed > lineCount) {
+            rebuild();
+            return;
+        }
+        replaceLines(startLine, removed, inserted);
+        for(int line = startLine; line <= endLine && line < lineCount; line++) {
+            lineHashes[line] = hashLine(line);
+        }
+    }
+
+    @NotNull
+    public synchronized String getChecksum() {
+        if(checksum == null) {
+            final int blockLines = getBlockLines(lineCount);
+            final StringBuilder builder = new StringBuilder();
+            builder.append(VERSION).append(SEPARATOR)
+                   .append(lineCount).append(SEPARATOR)
+                   .append(document.getTextLength()).append(SEPARATOR)
+                   .append(blockLines).append(SEPARATOR)
+                   .append(Long.toHexString(hashLines(0, lineCount))).append(SEPARATOR);
+            for(int start = 0; start < lineCount; start += blockLines) {
+                appendBlockHash(builder, blockHash(start, Math.min(start + blockLines, lineCount)));
+            }
+            checksum = builder.toString();
+        }
+        return checksum;
+    }
+
+    public synchronized int getLineCount() {
+        return lineCount;
+    }
+
+    public synchronized long getLineHash(int line) {
+        return lineHashes[line];
+    }
+
+    /**
+     * @return hash of a line of text, equal to the line hash of a document line with the same text
+     */
+    public static long hashLine(@NotNull CharSequence text, int start, int end) {
+        long hash = SEED;
+        for(int i = start; i < end; i++) {
+            hash ^= text.charAt(i);
+            hash *= CHAR_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Compares the text with the one the saved checksum was computed for
+     * @return changed part of the text or null if the checksum can't tell it
+     */
+    @Nullable
+    public synchronized Change getChangeSince(@Nullable String savedChecksum) {
+        if(savedChecksum == null) return null;
+        if(savedChecksum.equals(getChecksum())) return Change.NONE;
+        final String[] parts = savedChecksum.split(SEPARATOR, -1);
+        if(parts.length != 6 || !VERSION.equals(parts[0])) return null;
+        final int oldLineCount;
+        final int oldLength;
+        final int blockLines;
+        try {
+            oldLineCount = Integer.parseInt(parts[1]);
+            oldLength = Integer.parseInt(parts[2]);
+            blockLines = Integer.parseInt(parts[3]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        final String blocks = parts[5];
+        if(blockLines <= 0 || oldLineCount < 0
+                || blocks.length() != (oldLineCount + blockLines - 1) / blockLines * BLOCK_HASH_LENGTH) return null;
+
+        int prefixLines = 0;
+        int block = 0;
+        while(prefixLines < oldLineCount) {
+            final int end = Math.min(prefixLines + blockLines, oldLineCount);
+            if(end > lineCount || !sameBlock(blocks, block, prefixLines, end)) break;
+            prefixLines = end;
+            block++;
+        }
+
+        final int shiftLines = lineCount - oldLineCount;
+        int suffixStartLine = oldLineCount;
+        for(int i = (oldLineCount + blockLines - 1) / blockLines - 1; i >= block; i--) {
+            final int start = i * blockLines;
+            if(start < prefixLines || start + shiftLines < prefixLines) break;
+            if(!sameBlock(blocks, i, start + shiftLines, Math.min(start + blockLines, oldLineCount) + shiftLines)) break;
+            suffixStartLine = start;
+        }
+
+        final int textLength = document.getTextLength();
+        final int prefixEnd = prefixLines < lineCount ? document.getLineStartOffset(prefixLines) : textLength;
+        if(suffixStartLine >= oldLineCount) {
+            return new Change(prefixEnd, Integer.MAX_VALUE, 0);
+        }
+        final int newSuffixStart = document.getLineStartOffset(suffixStartLine + shiftLines);
+        final int oldSuffixStart = oldLength - (textLength - newSuffixStart);
+        return new Change(prefixEnd, oldSuffixStart, newSuffixStart - oldSuffixStart);
+    }
+
+    private boolean sameBlock(String blocks, int block, int start, int end) {
+        final StringBuilder builder = new StringBuilder(BLOCK_HASH_LENGTH);
+        appendBlockHash(builder, blockHash(start, end));
+        return blocks.regionMatches(block * BLOCK_HASH_LENGTH, builder.toString(), 0, BLOCK_HASH_LENGTH);
+    }
+
+    private void rebuild() {
+        lineCount = document.getLineCount();
+        lineHashes = new long[Math.max(16, lineCount)];
+        for(int line = 0; line < lineCount; line++) {
+            lineHashes[line] = hashLine(line);
+        }
+    }
+
+    private void replaceLines(int start, int removed, int inserted) {
+        final int newLineCount = lineCount - removed + inserted;
+        long[] target = lineHashes;
+        if(newLineCount > lineHashes.length) {
+            target = new long[Math.max(newLineCount, lineHashes.length * 3 / 2)];
+            System.arraycopy(lineHashes, 0, target, 0, start);
+        }
+        System.arraycopy(lineHashes, start + removed, target, start + inserted, lineCount - start - removed);
+        lineHashes = target;
+        lineCount = newLineCount;
+    }
+
+    private long hashLine(int line) {
+        return hashLine(document.getCharsSequence(), document.getLineStartOffset(line), document.getLineEndOffset(line));
+    }
+
+    private long hashLines(int start, int end) {
+        long hash = SEED;
+        for(int line = start; line < end; line++) {
+            hash = (hash + lineHashes[line]) * LINE_MULTIPLIER;
+            hash ^= hash >>> 29;
+        }
+        return hash;
+    }
+
+    private int blockHash(int start, int end) {
+        final long hash = hashLines(start, end);
+        return (int)(hash ^ (hash >>> 32));
+    }
+
+    private static void appendBlockHash(StringBuilder builder, int hash) {
+        final String hex = Integer.toHexString(hash);
+        for(int i = hex.length(); i < BLOCK_HASH_LENGTH; i++) {
+            builder.append('0');
+        }
+        builder.append(hex);
+    }
+
+    private static int getBlockLines(int lineCount) {
+        return Math.max(MIN_BLOCK_LINES, (lineCount + MAX_BLOCKS - 1) / MAX_BLOCKS);
+    }
+
+    /**
+     * Part of the text which was changed, in offsets of the old text: text before the change is not moved,
+     * text after it is moved by {@link #getShift()}
+     */
+    public static class Change {
+        public static final Change NONE = new Change(Integer.MAX_VALUE, Integer.MAX_VALUE, 0);
+
+        private final int start;
+        private final int end;
+        private final int shift;
+
+        private Change(int start, int end, int shift) {
+            this.start = start;
+            this.end = end;
+            this.shift = shift;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        public int getShift() {
+            return shift;
+        }
+
+        public boolean isEmpty() {
+            return this == NONE;
+        }
+
+        public boolean isBeforeChange(int offset) {
+            return offset <= start;
+        }
+
+        public boolean isAfterChange(int offset) {
+            return offset >= end;
+        }
+    }
+}
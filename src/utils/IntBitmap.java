@@ -0,0 +1,386 @@
+package utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Compressed set of non-negative ints in the roaring bitmap layout: values are grouped by their high 16 bits,
+ * a group keeps its low 16 bits in a sorted array while it is small and in a 65536 bit bitmap when it is not.
+ * Operations which combine bitmaps return new bitmaps and don't change their arguments.
+ */
+public class IntBitmap {
+    //groups with more values are kept as bitmaps
+    private static final int ARRAY_LIMIT = 4096;
+    private static final int BITMAP_WORDS = 1024;
+
+    public interface IntProcessor {
+        /**
+         * @return false to stop
+         */
+        boolean process(int value);
+    }
+
+    private char[] keys = new char[0];
+    private Container[] containers = new Container[0];
+    private int size;
+
+    public void add(int value) {
+        final char key = (char)(value >>> 16);
+        final int index = findKey(key);
+        if(index >= 0) {
+            containers[index] = containers[index].add((char)value);
+        } else {
+            final ArrayContainer container = new ArrayContainer(new char[4], 0);
+            insert(-index - 1, key, container.add((char)value));
+        }
+    }
+
+    public void remove(int value) {
+        final int index = findKey((char)(value >>> 16));
+        if(index < 0) return;
+        final Container container = containers[index].remove((char)value);
+        if(container.cardinality == 0) {
+            delete(index);
+        } else {
+            containers[index] = container;
+        }
+    }
+
+    public boolean contains(int value) {
+        final int index = findKey((char)(value >>> 16));
+        return index >= 0 && containers[index].contains((char)value);
+    }
+
+    public int getCardinality() {
+        int cardinality = 0;
+        for(int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality;
+        }
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Calls the processor for values in ascending order
+     * @return false if the processor stopped
+     */
+    public boolean forEach(@NotNull IntProcessor processor) {
+        for(int i = 0; i < size; i++) {
+            if(!containers[i].forEach(keys[i] << 16, processor)) return false;
+        }
+        return true;
+    }
+
+    @NotNull
+    public IntBitmap and(@NotNull IntBitmap other) {
+        final IntBitmap result = new IntBitmap();
+        int i = 0;
+        int j = 0;
+        while(i < size && j < other.size) {
+            if(keys[i] < other.keys[j]) i++;
+            else if(keys[i] > other.keys[j]) j++;
+            else {
+                final Container container = containers[i].and(other.containers[j]);
+                if(container.cardinality > 0) {
+                    result.append(keys[i], container);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    @NotNull
+    public IntBitmap or(@NotNull IntBitmap other) {
+        final IntBitmap result = new IntBitmap();
+        int i = 0;
+        int j = 0;
+        while(i < size || j < other.size) {
+            if(j >= other.size || i < size && keys[i] < other.keys[j]) {
+                result.append(keys[i], containers[i].copy());
+                i++;
+            } else if(i >= size || keys[i] > other.keys[j]) {
+                result.append(other.keys[j], other.containers[j].copy());
+                j++;
+            } else {
+                result.append(keys[i], containers[i].or(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    @NotNull
+    public IntBitmap andNot(@NotNull IntBitmap other) {
+        final IntBitmap result = new IntBitmap();
+        int j = 0;
+        for(int i = 0; i < size; i++) {
+            while(j < other.size && other.keys[j] < keys[i]) j++;
+            final Container container = j < other.size && other.keys[j] == keys[i] ?
+                                        containers[i].andNot(other.containers[j]) : containers[i].copy();
+            if(container.cardinality > 0) {
+                result.append(keys[i], container);
+            }
+        }
+        return result;
+    }
+
+    @NotNull
+    public IntBitmap copy() {
+        final IntBitmap result = new IntBitmap();
+        for(int i = 0; i < size; i++) {
+            result.append(keys[i], containers[i].copy());
+        }
+        return result;
+    }
+
+    private int findKey(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void append(char key, Container container) {
+        insert(size, key, container);
+    }
+
+    private void insert(int index, char key, Container container) {
+        if(size == keys.length) {
+            final int capacity = Math.max(4, size * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            containers = Arrays.copyOf(containers, capacity);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = key;
+        containers[index] = container;
+        size++;
+    }
+
+    private void delete(int index) {
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+        size--;
+        containers[size] = null;
+    }
+
+    private abstract static class Container {
+        protected int cardinality;
+
+        abstract Container add(char value);
+
+        abstract Container remove(char value);
+
+        abstract boolean contains(char value);
+
+        abstract boolean forEach(int high, IntProcessor processor);
+
+        abstract Container copy();
+
+        abstract BitmapContainer toBitmap();
+
+        Container and(Container other) {
+            if(this instanceof ArrayContainer) return ((ArrayContainer)this).filter(other, true);
+            if(other instanceof ArrayContainer) return ((ArrayContainer)other).filter(this, true);
+            final long[] words = ((BitmapContainer)this).words.clone();
+            final long[] otherWords = ((BitmapContainer)other).words;
+            for(int i = 0; i < BITMAP_WORDS; i++) {
+                words[i] &= otherWords[i];
+            }
+            return new BitmapContainer(words).shrink();
+        }
+
+        Container or(Container other) {
+            if(this instanceof ArrayContainer && other instanceof ArrayContainer
+                    && cardinality + other.cardinality <= ARRAY_LIMIT) {
+                return ((ArrayContainer)this).merge((ArrayContainer)other);
+            }
+            final long[] words = toBitmap().words.clone();
+            final long[] otherWords = other.toBitmap().words;
+            for(int i = 0; i < BITMAP_WORDS; i++) {
+                words[i] |= otherWords[i];
+            }
+            return new BitmapContainer(words).shrink();
+        }
+
+        Container andNot(Container other) {
+            if(this instanceof ArrayContainer) return ((ArrayContainer)this).filter(other, false);
+            final long[] words = ((BitmapContainer)this).words.clone();
+            final long[] otherWords = other.toBitmap().words;
+            for(int i = 0; i < BITMAP_WORDS; i++) {
+                words[i] &= ~otherWords[i];
+            }
+            return new BitmapContainer(words).shrink();
+        }
+    }
+
+    private static class ArrayContainer extends Container {
+        private char[] values;
+
+        private ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            final int index = Arrays.binarySearch(values, 0, cardinality, value);
+            if(index >= 0) return this;
+            if(cardinality >= ARRAY_LIMIT) {
+                return toBitmap().add(value);
+            }
+            final int position = -index - 1;
+            if(cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, values.length * 2));
+            }
+            System.arraycopy(values, position, values, position + 1, cardinality - position);
+            values[position] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            final int index = Arrays.binarySearch(values, 0, cardinality, value);
+            if(index < 0) return this;
+            System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+            cardinality--;
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        boolean forEach(int high, IntProcessor processor) {
+            for(int i = 0; i < cardinality; i++) {
+                if(!processor.process(high | values[i])) return false;
+            }
+            return true;
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(1, cardinality)), cardinality);
+        }
+
+        @Override
+        BitmapContainer toBitmap() {
+            final long[] words = new long[BITMAP_WORDS];
+            for(int i = 0; i < cardinality; i++) {
+                words[values[i] >>> 6] |= 1L << values[i];
+            }
+            return new BitmapContainer(words);
+        }
+
+        /**
+         * @return values which are contained or not contained in other
+         */
+        private ArrayContainer filter(Container other, boolean contained) {
+            final char[] result = new char[Math.max(1, cardinality)];
+            int count = 0;
+            for(int i = 0; i < cardinality; i++) {
+                if(other.contains(values[i]) == contained) {
+                    result[count++] = values[i];
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        private ArrayContainer merge(ArrayContainer other) {
+            final char[] result = new char[Math.max(1, cardinality + other.cardinality)];
+            int i = 0;
+            int j = 0;
+            int count = 0;
+            while(i < cardinality || j < other.cardinality) {
+                if(j >= other.cardinality || i < cardinality && values[i] < other.values[j]) {
+                    result[count++] = values[i++];
+                } else if(i >= cardinality || values[i] > other.values[j]) {
+                    result[count++] = other.values[j++];
+                } else {
+                    result[count++] = values[i++];
+                    j++;
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+    }
+
+    private static class BitmapContainer extends Container {
+        private final long[] words;
+
+        private BitmapContainer(long[] words) {
+            this.words = words;
+            for(long word : words) {
+                cardinality += Long.bitCount(word);
+            }
+        }
+
+        @Override
+        Container add(char value) {
+            final long bit = 1L << value;
+            if((words[value >>> 6] & bit) == 0) {
+                words[value >>> 6] |= bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            final long bit = 1L << value;
+            if((words[value >>> 6] & bit) != 0) {
+                words[value >>> 6] &= ~bit;
+                cardinality--;
+            }
+            return shrink();
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        boolean forEach(int high, IntProcessor processor) {
+            for(int i = 0; i < BITMAP_WORDS; i++) {
+                long word = words[i];
+                while(word != 0) {
+                    final int bit = Long.numberOfTrailingZeros(word);
+                    if(!processor.process(high | (i << 6) | bit)) return false;
+                    word &= word - 1;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone());
+        }
+
+        @Override
+        BitmapContainer toBitmap() {
+            return this;
+        }
+
+        private Container shrink() {
+            if(cardinality > ARRAY_LIMIT) return this;
+            final char[] values = new char[Math.max(1, cardinality)];
+            final int[] count = {0};
+            forEach(0, new IntProcessor() {
+                public boolean process(int value) {
+                    values[count[0]++] = (char)value;
+                    return true;
+                }
+            });
+            return new ArrayContainer(values, cardinality);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Set of closed intervals [start, end] ordered by start and augmented with the maximal end of every subtree
+ * (a treap), so that lookups of intervals covering an offset or a range cost O(log n + k).
+ *
+ * Entries are immutable: to move an interval remove its entry and add a new one.
+ */
+public class IntervalTree<T> {
+    private final Random random = new Random();
+    private Node<T> root;
+    private int size;
+    private long nextId;
+
+    public static final class Entry<T> {
+        private final int start;
+        private final int end;
+        private final long id;
+        private final T value;
+
+        private Entry(int start, int end, long id, T value) {
+            this.start = start;
+            this.end = end;
+            this.id = id;
+            this.value = value;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        private int compareTo(Entry<T> o) {
+            if(start != o.start) return start < o.start ? -1 : 1;
+            if(id != o.id) return id < o.id ? -1 : 1;
+            return 0;
+        }
+    }
+
+    private static final class Node<T> {
+        private final Entry<T> entry;
+        private final int priority;
+        private int maxEnd;
+        private Node<T> left;
+        private Node<T> right;
+
+        private Node(Entry<T> entry, int priority) {
+            this.entry = entry;
+            this.priority = priority;
+            this.maxEnd = entry.end;
+        }
+
+        private void update() {
+            int max = entry.end;
+            if(left != null && left.maxEnd > max) max = left.maxEnd;
+            if(right != null && right.maxEnd > max) max = right.maxEnd;
+            maxEnd = max;
+        }
+    }
+
+    @NotNull
+    public Entry<T> add(int start, int end, T value) {
+        final Entry<T> entry = new Entry<T>(start, Math.max(start, end), nextId++, value);
+        root = insert(root, new Node<T>(entry, random.nextInt()));
+        size++;
+        return entry;
+    }
+
+    public boolean remove(@NotNull Entry<T> entry) {
+        final int oldSize = size;
+        root = delete(root, entry);
+        return size < oldSize;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        root = null;
+        size = 0;
+    }
+
+    /**
+     * @return all values ordered by interval start
+     */
+    @NotNull
+    public List<T> getValues() {
+        final List<T> result = new ArrayList<T>(size);
+        collect(root, result);
+        return result;
+    }
+
+    /**
+     * @return values of intervals which start inside [from, to], ordered by start
+     */
+    @NotNull
+    public List<T> findStartingIn(int from, int to) {
+        final List<T> result = new ArrayList<T>();
+        findStartingIn(root, from, to, result);
+        return result;
+    }
+
+    /**
+     * @return values of intervals which intersect [from, to], ordered by start
+     */
+    @NotNull
+    public List<T> findOverlapping(int from, int to) {
+        final List<T> result = new ArrayList<T>();
+        findOverlapping(root, from, to, result);
+        return result;
+    }
+
+    @NotNull
+    public List<T> findCovering(int offset) {
+        return findOverlapping(offset, offset);
+    }
+
+    private Node<T> insert(Node<T> node, Node<T> newNode) {
+        if(node == null) return newNode;
+        if(newNode.entry.compareTo(node.entry) < 0) {
+            node.left = insert(node.left, newNode);
+            if(node.left.priority > node.priority) node = rotateRight(node);
+        } else {
+            node.right = insert(node.right, newNode);
+            if(node.right.priority > node.priority) node = rotateLeft(node);
+        }
+        node.update();
+        return node;
+    }
+
+    private Node<T> delete(Node<T> node, Entry<T> entry) {
+        if(node == null) return null;
+        final int cmp = entry.compareTo(node.entry);
+        if(cmp < 0) {
+            node.left = delete(node.left, entry);
+        } else if(cmp > 0) {
+            node.right = delete(node.right, entry);
+        } else {
+            size--;
+            return merge(node.left, node.right);
+        }
+        node.update();
+        return node;
+    }
+
+    private Node<T> merge(Node<T> left, Node<T> right) {
+        if(left == null) return right;
+        if(right == null) return left;
+        if(left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        }
+        right.left = merge(left, right.left);
+        right.update();
+        return right;
+    }
+
+    private Node<T> rotateRight(Node<T> node) {
+        final Node<T> left = node.left;
+        node.left = left.right;
+        left.right = node;
+        node.update();
+        left.update();
+        return left;
+    }
+
+    private Node<T> rotateLeft(Node<T> node) {
+        final Node<T> right = node.right;
+        node.right = right.left;
+        right.left = node;
+        node.update();
+        right.update();
+        return right;
+    }
+
+    private void collect(Node<T> node, List<T> result) {
+        if(node == null) return;
+        collect(node.left, result);
+        result.add(node.entry.value);
+        collect(node.right, result);
+    }
+
+    private void findStartingIn(Node<T> node, int from, int to, List<T> result) {
+        if(node == null) return;
+        final int start = node.entry.start;
+        if(start >= from) findStartingIn(node.left, from, to, result);
+        if(start >= from && start <= to) result.add(node.entry.value);
+        if(start <= to) findStartingIn(node.right, from, to, result);
+    }
+
+    private void findOverlapping(Node<T> node, int from, int to, List<T> result) {
+        if(node == null || node.maxEnd < from) return;
+        findOverlapping(node.left, from, to, result);
+        final Entry<T> entry = node.entry;
+        if(entry.start > to) return;
+        if(entry.end >= from) result.add(entry.value);
+        findOverlapping(node.right, from, to, result);
+    }
+}
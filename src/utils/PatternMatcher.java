@@ -0,0 +1,191 @@
+package utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton: finds occurrences of all patterns in a single pass over the text.
+ * Case insensitive matching compares folded characters, the text is never copied.
+ */
+public class PatternMatcher {
+    public interface MatchProcessor {
+        /**
+         * @return false to stop the search
+         */
+        boolean process(int pattern, int start);
+    }
+
+    private final boolean caseSensitive;
+    private final int[] patternLengths;
+    //next pattern which ends in the same node
+    private final int[] nextPattern;
+    private boolean hasEmptyPattern;
+
+    private int nodeCount = 1;
+    private char[][] edgeChars = new char[16][];
+    private int[][] edgeTargets = new int[16][];
+    private int[] edgeCounts = new int[16];
+    private int[] output = new int[16];
+    private int[] fail;
+    //nearest node on the fail chain which has output
+    private int[] outputLink;
+
+    public PatternMatcher(@NotNull List<String> patterns, boolean caseSensitive) {
+        this.caseSensitive = caseSensitive;
+        patternLengths = new int[patterns.size()];
+        nextPattern = new int[patterns.size()];
+        output[0] = -1;
+        for(int i = 0; i < patterns.size(); i++) {
+            addPattern(i, patterns.get(i));
+        }
+        buildFailLinks();
+    }
+
+    public boolean isCaseSensitive() {
+        return caseSensitive;
+    }
+
+    /**
+     * Reports every occurrence of every pattern in text[from, to) ordered by end offset
+     */
+    public void search(@NotNull CharSequence text, int from, int to, @NotNull MatchProcessor processor) {
+        int state = 0;
+        for(int i = from; i < to; i++) {
+            final char c = fold(text.charAt(i));
+            int next = getChild(state, c);
+            while(next < 0 && state != 0) {
+                state = fail[state];
+                next = getChild(state, c);
+            }
+            state = next < 0 ? 0 : next;
+            for(int node = output[state] >= 0 ? state : outputLink[state]; node >= 0; node = outputLink[node]) {
+                for(int pattern = output[node]; pattern >= 0; pattern = nextPattern[pattern]) {
+                    if(!processor.process(pattern, i - patternLengths[pattern] + 1)) return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return start of the leftmost occurrence of any pattern or -1
+     */
+    public int findFirst(@NotNull final CharSequence text) {
+        if(hasEmptyPattern) return 0;
+        final int[] first = {-1};
+        int maxLength = 0;
+        for(int length : patternLengths) {
+            maxLength = Math.max(maxLength, length);
+        }
+        final int longest = maxLength;
+        search(text, 0, text.length(), new MatchProcessor() {
+            public boolean process(int pattern, int start) {
+                if(first[0] < 0 || start < first[0]) {
+                    first[0] = start;
+                }
+                //occurrences which end later can't start before start + 1 - longest
+                return first[0] > 0 && first[0] > start + patternLengths[pattern] - longest;
+            }
+        });
+        return first[0];
+    }
+
+    private void addPattern(int index, String pattern) {
+        patternLengths[index] = pattern.length();
+        nextPattern[index] = -1;
+        if(pattern.length() == 0) {
+            hasEmptyPattern = true;
+            return;
+        }
+        int node = 0;
+        for(int i = 0; i < pattern.length(); i++) {
+            final char c = fold(pattern.charAt(i));
+            int child = getChild(node, c);
+            if(child < 0) {
+                child = addChild(node, c);
+            }
+            node = child;
+        }
+        nextPattern[index] = output[node];
+        output[node] = index;
+    }
+
+    private void buildFailLinks() {
+        fail = new int[nodeCount];
+        outputLink = new int[nodeCount];
+        outputLink[0] = -1;
+        final int[] queue = new int[nodeCount];
+        int head = 0;
+        int tail = 0;
+        for(int i = 0; i < edgeCounts[0]; i++) {
+            final int child = edgeTargets[0][i];
+            outputLink[child] = -1;
+            queue[tail++] = child;
+        }
+        while(head < tail) {
+            final int node = queue[head++];
+            for(int i = 0; i < edgeCounts[node]; i++) {
+                final char c = edgeChars[node][i];
+                final int child = edgeTargets[node][i];
+                int state = fail[node];
+                int next = getChild(state, c);
+                while(next < 0 && state != 0) {
+                    state = fail[state];
+                    next = getChild(state, c);
+                }
+                fail[child] = next < 0 ? 0 : next;
+                outputLink[child] = output[fail[child]] >= 0 ? fail[child] : outputLink[fail[child]];
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    private int getChild(int node, char c) {
+        final char[] chars = edgeChars[node];
+        int low = 0;
+        int high = edgeCounts[node] - 1;
+        while(low <= high) {
+            final int middle = (low + high) >>> 1;
+            if(chars[middle] < c) low = middle + 1;
+            else if(chars[middle] > c) high = middle - 1;
+            else return edgeTargets[node][middle];
+        }
+        return -1;
+    }
+
+    private int addChild(int node, char c) {
+        if(nodeCount == output.length) {
+            final int capacity = nodeCount * 2;
+            edgeChars = Arrays.copyOf(edgeChars, capacity);
+            edgeTargets = Arrays.copyOf(edgeTargets, capacity);
+            edgeCounts = Arrays.copyOf(edgeCounts, capacity);
+            output = Arrays.copyOf(output, capacity);
+        }
+        final int child = nodeCount++;
+        output[child] = -1;
+
+        int count = edgeCounts[node];
+        if(edgeChars[node] == null) {
+            edgeChars[node] = new char[2];
+            edgeTargets[node] = new int[2];
+        } else if(count == edgeChars[node].length) {
+            edgeChars[node] = Arrays.copyOf(edgeChars[node], count * 2);
+            edgeTargets[node] = Arrays.copyOf(edgeTargets[node], count * 2);
+        }
+        int position = count;
+        while(position > 0 && edgeChars[node][position - 1] > c) {
+            edgeChars[node][position] = edgeChars[node][position - 1];
+            edgeTargets[node][position] = edgeTargets[node][position - 1];
+            position--;
+        }
+        edgeChars[node][position] = c;
+        edgeTargets[node][position] = child;
+        edgeCounts[node] = count + 1;
+        return child;
+    }
+
+    private char fold(char c) {
+        return caseSensitive ? c : Character.toLowerCase(Character.toUpperCase(c));
+    }
+}
@@ -1,6 +1,7 @@
 package utils;
 
 import com.intellij.openapi.components.AbstractProjectComponent;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.fileEditor.OpenFileDescriptor;
@@ -12,12 +13,14 @@ import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.UnsupportedEncodingException;
-import java.math.BigInteger;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * User: Alisa.Afonina
@@ -25,6 +28,8 @@ import java.security.NoSuchAlgorithmException;
  * Time: 3:01 PM
  */
 public class Util extends AbstractProjectComponent implements DumbAware {
+    private static final Logger LOG = Logger.getInstance(Util.class.getName());
+
     protected Util(Project project) {
         super(project);
     }
@@ -33,63 +38,16 @@ public class Util extends AbstractProjectComponent implements DumbAware {
         return project.getComponent(Util.class);
     }
 
-    private static int[] prefixFunction(String pattern) {
-        int length = pattern.length();
-        int[] p = new int[length];
-        for (int i = 1; i < length; i++) {
-            int k = p[i - 1];
-            while (k > 0 && pattern.charAt(k) != pattern.charAt(i)) {
-                k = p[k - 1];
-            }
-            p[i] = k + (pattern.charAt(k) == pattern.charAt(i) ? 1 : 0);
-        }
-        return p;
-    }
-
     public static int find(String originalText, String originalPattern, boolean caseSensitive) {
         if(originalText == null || originalPattern == null) return -1;
-        String text = caseSensitive ? originalText : originalText.toLowerCase();
-        String pattern = caseSensitive ? originalPattern : originalPattern.toLowerCase();
-        int patternLength = pattern.length();
-        int textLength = text.length();
-        int k = 0;
-        if (patternLength == 0) return 0;
-        int[] prefixFunction = prefixFunction(pattern);
-
-        for (int i = 0; i < textLength; i++) {
-
-            while (k > 0 && text.charAt(i) != pattern.charAt(k)) k = prefixFunction[k - 1];
-
-            if (text.charAt(i) == pattern.charAt(k)) k++;
-
-            if (k == patternLength) return i - patternLength + 1;
-        }
-        return -1;
+        return new PatternMatcher(Collections.singletonList(originalPattern), caseSensitive).findFirst(originalText);
     }
 
     @Nullable
     public String getCheckSum(String filePath) {
-        String text = getFileContents(filePath);
-        try {
-            if(text == null) return null;
-            byte[] textBytes = text.getBytes("UTF-8");
-            MessageDigest messageDigest = MessageDigest.getInstance("MD5");
-            final BigInteger bigInteger = new BigInteger(1, messageDigest.digest(textBytes));
-            return bigInteger.toString(16);
-
-        } catch (NoSuchAlgorithmException e) {
-            //
-        } catch (UnsupportedEncodingException e) {
-            //
-        }
-        return null;
-    }
-
-    @Nullable
-    private String getFileContents(String filePath) {
         Document document = getDocument(filePath);
         if(document == null) return null;
-        return document.getText();
+        return DocumentHashes.getInstance(document).getChecksum();
     }
 
     @Nullable
@@ -114,22 +72,122 @@ public class Util extends AbstractProjectComponent implements DumbAware {
     }
 
 
+    /**
+     * Turns issue references and URLs in the text of the html into links. Tags and text of existing links
+     * are copied as they are
+     */
     public String getHTMLContents(String text) {
-        String result = text;
-        for(IssueNavigationConfiguration.LinkMatch linkMatch :
-                IssueNavigationConfiguration.getInstance(myProject).findIssueLinks(text)) {
-                String target = linkMatch.getRange().substring(text);
-                if("".equals(target)) continue;
-                result = result.replace(target, "<a href=\"" +
-                            linkMatch.getTargetUrl() + "\">" + target + "</a>");
+        final StringWriter writer = new StringWriter(text.length());
+        try {
+            writeHTMLContents(text, writer);
+        } catch (IOException e) {
+            LOG.error(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Writes the html with links in one pass over it
+     */
+    public void writeHTMLContents(@NotNull String text, @NotNull Writer out) throws IOException {
+        writeHTMLContents(text, IssueNavigationConfiguration.getInstance(myProject).findIssueLinks(text), out);
+    }
+
+    /**
+     * Writes the html with links to URLs and to the issues found in it
+     */
+    static void writeHTMLContents(@NotNull String text, @NotNull List<IssueNavigationConfiguration.LinkMatch> links,
+                                  @NotNull Writer out) throws IOException {
+        final List<IssueNavigationConfiguration.LinkMatch> issueLinks =
+                    new ArrayList<IssueNavigationConfiguration.LinkMatch>(links);
+        Collections.sort(issueLinks);
+        int nextLink = 0;
+        //text before this offset is written
+        int written = 0;
+        boolean inLink = false;
+        int pos = 0;
+        final int length = text.length();
+        while(pos < length) {
+            final char c = text.charAt(pos);
+            if(c == '<') {
+                if(isTag(text, pos, "a")) {
+                    inLink = true;
+                } else if(isTag(text, pos, "/a")) {
+                    inLink = false;
+                }
+                final int tagEnd = text.indexOf('>', pos);
+                pos = tagEnd < 0 ? length : tagEnd + 1;
+                continue;
+            }
+            if(Character.isWhitespace(c) || inLink) {
+                pos++;
+                continue;
+            }
+            int tokenEnd = pos;
+            while(tokenEnd < length && !Character.isWhitespace(text.charAt(tokenEnd)) && text.charAt(tokenEnd) != '<') {
+                tokenEnd++;
+            }
+            final URL url = parseURL(text, pos, tokenEnd);
+            if(url != null) {
+                out.write(text, written, pos - written);
+                writeLink(out, url.toString(), url.toString());
+                written = pos = tokenEnd;
+                continue;
+            }
+            //issue references may contain spaces but not tags
+            while(nextLink < issueLinks.size() && issueLinks.get(nextLink).getRange().getStartOffset() < pos) {
+                nextLink++;
+            }
+            final IssueNavigationConfiguration.LinkMatch issueLink =
+                                                    nextLink < issueLinks.size() ? issueLinks.get(nextLink) : null;
+            if(issueLink != null && issueLink.getRange().getStartOffset() < tokenEnd) {
+                final int start = issueLink.getRange().getStartOffset();
+                final int end = issueLink.getRange().getEndOffset();
+                if(end > start && indexOf(text, '<', start, end) < 0) {
+                    out.write(text, written, start - written);
+                    writeLink(out, issueLink.getTargetUrl(), text.substring(start, end));
+                    written = pos = end;
+                    continue;
+                }
+            }
+            pos = tokenEnd;
+        }
+        out.write(text, written, length - written);
+    }
+
+    private static boolean isTag(String text, int offset, String name) {
+        final int nameEnd = offset + 1 + name.length();
+        if(!text.regionMatches(true, offset + 1, name, 0, name.length())) return false;
+        return nameEnd == text.length() || text.charAt(nameEnd) == '>' || Character.isWhitespace(text.charAt(nameEnd));
+    }
+
+    @Nullable
+    private static URL parseURL(String text, int start, int end) {
+        //every URL has a protocol, most words are skipped without an exception
+        if(indexOf(text, ':', start, end) < 0) return null;
+        try {
+            return new URL(text.substring(start, end));
+        } catch (MalformedURLException ignored) {
+            return null;
         }
-        for(String part : text.split("\\s")) {
-            try {
-                URL url = new URL(part);
-                result = result.replace(part, "<a href=\"" + url + "\">"+ url + "</a>");
-            } catch (MalformedURLException ignored) {}
+    }
+
+    /**
+     * @return offset of the char in text[start, end) or -1
+     */
+    private static int indexOf(String text, char c, int start, int end) {
+        for(int i = start; i < end; i++) {
+            if(text.charAt(i) == c) return i;
         }
-        return result;
+        return -1;
+    }
+
+    private static void writeLink(Writer out, String url, String text) throws IOException {
+        out.write("<a href=\"");
+        out.write(url);
+        out.write("\">");
+        out.write(text);
+        out.write("</a>");
     }
 
     private String getFirstInt(String string) {
@@ -6,8 +6,23 @@
 
     <xsl:output method="html" indent="yes" encoding="utf-8"/>
 
+    <!-- reviews of a file without the page around them -->
+    <xsl:param name="fragment" select="false()"/>
+    <!-- written to the body of the page, html of files is put there -->
+    <xsl:param name="placeholder" select="''"/>
 
     <xsl:template match="all_reviews">
+        <xsl:choose>
+            <xsl:when test="$fragment">
+                <xsl:apply-templates/>
+            </xsl:when>
+            <xsl:otherwise>
+                <xsl:call-template name="page"/>
+            </xsl:otherwise>
+        </xsl:choose>
+    </xsl:template>
+
+    <xsl:template name="page">
                 <html>
                     <head>
                         <title>
@@ -48,6 +63,7 @@
                     </head>
                     <body>
                             <xsl:apply-templates/>
+                            <xsl:value-of select="$placeholder" disable-output-escaping="yes"/>
                     </body>
                 </html>
     </xsl:template>
@@ -95,15 +111,30 @@
 
     <xsl:template match="context/Context">
             <div class="context">
-                <!--<xsl:value-of select="line_before_number"/><xsl:value-of select="line_before" disable-output-escaping="yes"/>-->
-                <!--<span class="context_line">-->
-                   <xsl:call-template name="add_line_number">
-                       <xsl:with-param name="list" select="concat(line_before, line, line_after, '&lt;br/&gt;')" />
-                       <xsl:with-param name="starting_number"><xsl:value-of select="line_before_number"/></xsl:with-param>
-                       <xsl:with-param name="beginning_number"><xsl:value-of select="line_before_number"/></xsl:with-param>
-                   </xsl:call-template>
-                <!--</span>-->
-<!--                <xsl:value-of select="line_after_number"/><xsl:value-of select="line_after" disable-output-escaping="yes"/>-->
+                <xsl:variable name="first_number">
+                    <xsl:choose>
+                        <xsl:when test="line_before != ''"><xsl:value-of select="line_before_number"/></xsl:when>
+                        <xsl:otherwise><xsl:value-of select="line_number"/></xsl:otherwise>
+                    </xsl:choose>
+                </xsl:variable>
+                <xsl:variable name="line_number" select="$first_number + string-length(line_before)
+                                                         - string-length(translate(line_before, '&#10;', ''))"/>
+                <xsl:value-of select="$first_number"/><xsl:text>  </xsl:text>
+                <xsl:call-template name="add_line_number">
+                    <xsl:with-param name="text" select="line_before"/>
+                    <xsl:with-param name="number" select="$first_number"/>
+                </xsl:call-template>
+                <span class="context_line">
+                    <xsl:call-template name="add_line_number">
+                        <xsl:with-param name="text" select="line"/>
+                        <xsl:with-param name="number" select="$line_number"/>
+                    </xsl:call-template>
+                </span>
+                <xsl:call-template name="add_line_number">
+                    <xsl:with-param name="text" select="line_after"/>
+                    <xsl:with-param name="number" select="$line_number + string-length(line)
+                                                          - string-length(translate(line, '&#10;', ''))"/>
+                </xsl:call-template>
             </div>
     </xsl:template>
 
@@ -176,24 +207,24 @@
         </xsl:if>
     </xsl:template>
 
+    <!-- text of the document with numbers of the lines after the first one -->
     <xsl:template name="add_line_number">
-        <xsl:param name="list" />
-        <xsl:param name="starting_number" />
-        <xsl:param name="beginning_number" />
-        <xsl:variable name="newlist" select="concat(normalize-space($list), ' ')" />
-        <xsl:variable name="first" select="substring-before($newlist, '&lt;br/&gt;')" />
-        <xsl:variable name="remaining" select="substring-after($newlist, '&lt;br/&gt;')" />
-        <xsl:if test="$remaining">
-            <xsl:if test="$starting_number != $beginning_number">
-            <br/>
-            </xsl:if>
-            <xsl:value-of select="$starting_number"/> <xsl:text>  </xsl:text> <xsl:value-of select="$first" disable-output-escaping="yes"/>
-            <xsl:call-template name="add_line_number">
-                    <xsl:with-param name="list" select="$remaining" />
-                    <xsl:with-param name="starting_number" select="$starting_number + 1" />
-                    <xsl:with-param name="beginning_number" select="$beginning_number" />
-            </xsl:call-template>
-        </xsl:if>
+        <xsl:param name="text" />
+        <xsl:param name="number" />
+        <xsl:choose>
+            <xsl:when test="contains($text, '&#10;')">
+                <xsl:value-of select="substring-before($text, '&#10;')"/>
+                <br/>
+                <xsl:value-of select="$number + 1"/><xsl:text>  </xsl:text>
+                <xsl:call-template name="add_line_number">
+                    <xsl:with-param name="text" select="substring-after($text, '&#10;')" />
+                    <xsl:with-param name="number" select="$number + 1" />
+                </xsl:call-template>
+            </xsl:when>
+            <xsl:otherwise>
+                <xsl:value-of select="$text"/>
+            </xsl:otherwise>
+        </xsl:choose>
     </xsl:template>
 
 </xsl:stylesheet>
\ No newline at end of file
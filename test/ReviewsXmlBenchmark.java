@@ -0,0 +1,130 @@
+import com.intellij.util.xmlb.XmlSerializer;
+import org.jdom.Element;
+import org.jdom.input.SAXBuilder;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+import reviewresult.persistent.*;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares XmlSerializer + JDOM with the streaming ReviewsXmlWriter/ReviewsXmlReader on a generated state.
+ * Usage: ReviewsXmlBenchmark [files] [reviewsPerFile] [iterations]
+ */
+public class ReviewsXmlBenchmark {
+    private static final String[] AUTHORS = {"alice", "bob", "carol", "dave"};
+    private static final String[] TAGS = {"performance", "naming", "todo", "security", "style"};
+
+    public static void main(String[] args) throws Exception {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int reviewsPerFile = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        ReviewsState.State state = createState(files, reviewsPerFile);
+        System.out.println("Reviews: " + files * reviewsPerFile + " in " + files + " files");
+
+        String jdomText = null;
+        String streamText = null;
+        for(int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            jdomText = new XMLOutputter(Format.getPrettyFormat()).outputString(XmlSerializer.serialize(state));
+            long jdomWrite = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            StringWriter writer = new StringWriter();
+            ReviewsXmlWriter.write(state.getReviews(), writer);
+            streamText = writer.toString();
+            long streamWrite = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Element root = new SAXBuilder().build(new StringReader(jdomText)).getRootElement();
+            ReviewsState.State jdomState = XmlSerializer.deserialize(root, ReviewsState.State.class);
+            long jdomRead = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ReviewsState.State streamState = ReviewsXmlReader.read(new StringReader(streamText));
+            long streamRead = System.nanoTime() - start;
+
+            check(state, jdomState);
+            check(state, streamState);
+            System.out.println("#" + i + " write: XmlSerializer " + millis(jdomWrite) + " ms, streaming " + millis(streamWrite) +
+                               " ms; read: XmlSerializer " + millis(jdomRead) + " ms, streaming " + millis(streamRead) + " ms");
+        }
+        System.out.println("Size: XmlSerializer " + jdomText.length() + " chars, streaming " + streamText.length() + " chars");
+        check(state, ReviewsXmlReader.read(new StringReader(jdomText)));
+        Element root = new SAXBuilder().build(new StringReader(streamText)).getRootElement();
+        check(state, XmlSerializer.deserialize(root, ReviewsState.State.class));
+    }
+
+    private static ReviewsState.State createState(int files, int reviewsPerFile) {
+        ReviewsState.State state = new ReviewsState.State();
+        for(int i = 0; i < files; i++) {
+            List<ReviewBean> beans = new ArrayList<ReviewBean>();
+            for(int j = 0; j < reviewsPerFile; j++) {
+                ReviewBean bean = new ReviewBean("review " + j, j * 80 + 1, j * 80 + 60);
+                bean.setStatus(ReviewStatus.values()[j % ReviewStatus.values().length]);
+                bean.setDeleted(j % 7 == 0);
+                bean.getTags().add(TAGS[(i + j) % TAGS.length]);
+                Context context = bean.getContext();
+                context.setLine("    int value" + j + " = compute(" + j + ");");
+                context.setLineBefore("    // line before " + j + "\n");
+                context.setLineAfter("\n    return value" + j + ";");
+                for(int k = 0; k <= j % 3; k++) {
+                    ReviewItem item = new ReviewItem("Comment " + k + " on review " + j + " <see> & fix\nsecond line");
+                    item.setAuthor(AUTHORS[(j + k) % AUTHORS.length]);
+                    bean.addReviewItem(item);
+                }
+                beans.add(bean);
+            }
+            state.getReviews().add(new ReviewsState.FileReviewsList("src/package" + i % 50 + "/File" + i + ".java",
+                                                                   Integer.toHexString(i * 31), beans));
+        }
+        return state;
+    }
+
+    private static void check(ReviewsState.State expected, ReviewsState.State actual) {
+        List<ReviewsState.FileReviewsList> expectedLists = expected.getReviews();
+        List<ReviewsState.FileReviewsList> actualLists = actual.getReviews();
+        if(expectedLists.size() != actualLists.size()) throw new AssertionError("file count differs");
+        for(int i = 0; i < expectedLists.size(); i++) {
+            List<ReviewBean> expectedBeans = expectedLists.get(i).getReviewBeans();
+            List<ReviewBean> actualBeans = actualLists.get(i).getReviewBeans();
+            if(!expectedLists.get(i).getFilePath().equals(actualLists.get(i).getFilePath())
+                    || expectedBeans.size() != actualBeans.size()) throw new AssertionError("file " + i + " differs");
+            for(int j = 0; j < expectedBeans.size(); j++) {
+                ReviewBean expectedBean = expectedBeans.get(j);
+                ReviewBean actualBean = actualBeans.get(j);
+                if(!expectedBean.equals(actualBean) || !expectedBean.hasEqualContents(actualBean)
+                        || expectedBean.isDeleted() != actualBean.isDeleted()
+                        || expectedBean.getStatus() != actualBean.getStatus()
+                        || !expectedBean.getTags().equals(actualBean.getTags())
+                        || !hasEqualContext(expectedBean.getContext(), actualBean.getContext())
+                        || !hasEqualItems(expectedBean.getReviewItems(), actualBean.getReviewItems())) {
+                    throw new AssertionError("review " + expectedBean.getGuid() + " differs");
+                }
+            }
+        }
+    }
+
+    private static boolean hasEqualContext(Context expected, Context actual) {
+        return expected.getLine().equals(actual.getLine())
+                && expected.getLineBefore().equals(actual.getLineBefore())
+                && expected.getLineAfter().equals(actual.getLineAfter());
+    }
+
+    private static boolean hasEqualItems(List<ReviewItem> expected, List<ReviewItem> actual) {
+        if(expected.size() != actual.size()) return false;
+        for(int i = 0; i < expected.size(); i++) {
+            if(!expected.get(i).getText().equals(actual.get(i).getText())
+                    || !expected.get(i).getDate().equals(actual.get(i).getDate())) return false;
+        }
+        return true;
+    }
+
+    private static long millis(long nanos) {
+        return nanos / 1000000;
+    }
+}
@@ -0,0 +1,149 @@
+package reviewresult;
+
+import com.intellij.openapi.project.Project;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import reviewresult.persistent.ReviewBean;
+import reviewresult.persistent.ReviewItem;
+import reviewresult.persistent.ReviewStatus;
+import utils.IntBitmap;
+import utils.Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+/**
+ * Bitmaps of facet values follow added, changed and removed reviews
+ */
+public class FacetIndexTest extends TestCase {
+    private final Map<String, String> modules = new HashMap<String, String>();
+    private int resolved;
+    private FacetIndex index;
+    private Project project;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        project = createProject();
+        modules.put("a/A.java", "first");
+        modules.put("b/B.java", "second");
+        index = new FacetIndex(new FacetIndex.ModuleResolver() {
+            @Nullable
+            public String getModuleName(@NotNull Review review) {
+                resolved++;
+                return modules.get(review.getFilePath());
+            }
+        });
+    }
+
+    public void testValuesAreFoundIgnoringCase() {
+        final Review first = createReview("a/A.java", ReviewStatus.bug, "alice", "Performance");
+        final Review second = createReview("b/B.java", ReviewStatus.comment, "bob", "performance");
+        index.add(first);
+        index.add(second);
+        assertEquals(Arrays.asList(first, second), find(FacetIndex.Facet.TAG, "PERFORMANCE"));
+        assertEquals(Collections.singletonList(first), find(FacetIndex.Facet.AUTHOR, "Alice"));
+        assertEquals(Collections.singletonList(second), find(FacetIndex.Facet.MODULE, "second"));
+        assertEquals(Collections.singletonList(first), find(FacetIndex.Facet.STATUS, ReviewStatus.bug.name()));
+        assertTrue(find(FacetIndex.Facet.AUTHOR, "carol").isEmpty());
+        assertEquals("Performance", index.getValue(FacetIndex.Facet.TAG, second));
+        assertEquals(Integer.valueOf(2), index.getCounts(FacetIndex.Facet.TAG).get("Performance"));
+    }
+
+    public void testRemovedReviewsAreNotFound() {
+        final Review first = createReview("a/A.java", ReviewStatus.bug, "alice", "todo");
+        final Review second = createReview("a/A.java", ReviewStatus.bug, "bob", "todo");
+        index.add(first);
+        index.add(second);
+        index.remove(first);
+        assertEquals(Collections.singletonList(second), find(FacetIndex.Facet.TAG, "todo"));
+        assertEquals(1, index.getAll().getCardinality());
+        assertNull(index.getCounts(FacetIndex.Facet.AUTHOR).get("alice"));
+
+        //ordinal of the removed review is reused
+        final Review third = createReview("b/B.java", ReviewStatus.comment, "carol", "todo");
+        index.add(third);
+        assertEquals(2, index.getAll().getCardinality());
+        assertEquals(Arrays.asList(third, second), find(FacetIndex.Facet.TAG, "todo"));
+    }
+
+    public void testFoundBitmapIsNotChangedByIndex() {
+        final Review first = createReview("a/A.java", ReviewStatus.bug, "alice", "todo");
+        index.add(first);
+        final IntBitmap found = index.find(FacetIndex.Facet.TAG, "todo");
+        final IntBitmap all = index.getAll();
+        found.add(100);
+        all.add(100);
+        index.add(createReview("b/B.java", ReviewStatus.bug, "bob", "todo"));
+        assertEquals(2, found.getCardinality());
+        assertEquals(2, all.getCardinality());
+        assertFalse(index.find(FacetIndex.Facet.TAG, "todo").contains(100));
+    }
+
+    public void testUpdateAddsReviewOnlyIfFacetsChanged() {
+        final Review review = createReview("a/A.java", ReviewStatus.bug, "alice", "todo");
+        index.add(review);
+        assertEquals(1, resolved);
+        review.getReviewBean().getContext().setStart(10);
+        index.update(review);
+        assertEquals(1, resolved);
+
+        review.getTags().add("naming");
+        index.update(review);
+        assertEquals(2, resolved);
+        assertEquals(Collections.singletonList(review), find(FacetIndex.Facet.TAG, "naming"));
+
+        review.getReviewBean().setStatus(ReviewStatus.comment);
+        index.update(review);
+        assertTrue(find(FacetIndex.Facet.STATUS, ReviewStatus.bug.name()).isEmpty());
+        assertEquals(Collections.singletonList(review), find(FacetIndex.Facet.STATUS, ReviewStatus.comment.name()));
+
+        final ReviewItem item = new ReviewItem("reply");
+        item.setAuthor("bob");
+        review.addReviewItem(item);
+        index.update(review);
+        assertEquals(Collections.singletonList(review), find(FacetIndex.Facet.AUTHOR, "bob"));
+
+        review.setFilePath("b/B.java");
+        index.update(review);
+        assertTrue(find(FacetIndex.Facet.MODULE, "first").isEmpty());
+        assertEquals(Collections.singletonList(review), find(FacetIndex.Facet.MODULE, "second"));
+        assertEquals(1, index.getAll().getCardinality());
+    }
+
+    private List<Review> find(FacetIndex.Facet facet, String value) {
+        return index.getReviews(index.find(facet, value));
+    }
+
+    private Review createReview(String filePath, ReviewStatus status, String author, String tag) {
+        final ReviewBean bean = new ReviewBean("review", 1, 2);
+        bean.setStatus(status);
+        bean.getTags().add(tag);
+        final ReviewItem item = new ReviewItem("text");
+        item.setAuthor(author);
+        bean.addReviewItem(item);
+        return new Review(bean, project, filePath);
+    }
+
+    /**
+     * @return project without files, reviews created in it are not valid
+     */
+    private static Project createProject() {
+        final Util[] util = new Util[1];
+        final Project project = (Project)Proxy.newProxyInstance(FacetIndexTest.class.getClassLoader(),
+                                                                new Class[]{Project.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if("getComponent".equals(method.getName()) && args != null && args[0] == Util.class) return util[0];
+                if("equals".equals(method.getName())) return proxy == args[0];
+                if("hashCode".equals(method.getName())) return System.identityHashCode(proxy);
+                if(method.getReturnType() == boolean.class) return false;
+                return null;
+            }
+        });
+        util[0] = new Util(project) {};
+        return project;
+    }
+}
@@ -0,0 +1,90 @@
+package reviewresult;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.impl.DocumentImpl;
+import com.intellij.openapi.util.TextRange;
+import junit.framework.TestCase;
+import reviewresult.persistent.ReviewBean;
+import reviewresult.persistent.ReviewsState;
+import reviewresult.persistent.ReviewsXmlReader;
+import reviewresult.persistent.ReviewsXmlWriter;
+import utils.DocumentHashes;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reviews saved with their context are found again in the edited text
+ */
+public class ReviewAnchoringTest extends TestCase {
+    private static final String TEXT = "class A {\n" +
+                                       "    int a;\n" +
+                                       "    void foo() {\n" +
+                                       "        bar();\n" +
+                                       "    }\n" +
+                                       "}\n";
+
+    public void testSavedReviewFollowsEditedText() throws Exception {
+        final Document document = new DocumentImpl(TEXT);
+        final ReviewBean bean = createBean(document, "bar();");
+        final ReviewsState.FileReviewsList loaded = saveAndLoad(new ReviewsState.FileReviewsList("A.java",
+                                        DocumentHashes.getInstance(document).getChecksum(),
+                                        Collections.singletonList(bean)));
+        final ReviewBean loadedBean = loaded.getReviewBeans().get(0);
+        assertEquals("bar();", loadedBean.getContext().getLine());
+        assertEquals("    void foo() {\n        ", loadedBean.getContext().getLineBefore());
+        assertEquals("\n    }", loadedBean.getContext().getLineAfter());
+
+        final String edited = "class B {\n" +
+                              "    int a;\n" +
+                              "    int b;\n" +
+                              "\n" +
+                              "    void foo() {\n" +
+                              "        bar();\n" +
+                              "    }\n" +
+                              "}\n";
+        final TextRange range = anchor(loaded, edited).get(loadedBean);
+        assertNotNull(range);
+        assertEquals(edited.indexOf("bar();"), range.getStartOffset());
+        assertEquals(edited.indexOf("bar();") + "bar();".length(), range.getEndOffset());
+    }
+
+    public void testSavedReviewIsFoundByTextWhenLinesChanged() throws Exception {
+        final Document document = new DocumentImpl(TEXT);
+        final ReviewBean bean = createBean(document, "bar();");
+        final ReviewsState.FileReviewsList loaded = saveAndLoad(new ReviewsState.FileReviewsList("A.java",
+                                        DocumentHashes.getInstance(document).getChecksum(),
+                                        Collections.singletonList(bean)));
+        final String edited = "interface I {}\n" +
+                              "class A implements I {\n" +
+                              "    void foo() { bar(); }\n" +
+                              "}\n";
+        final TextRange range = anchor(loaded, edited).get(loaded.getReviewBeans().get(0));
+        assertNotNull(range);
+        assertEquals(edited.indexOf("bar();"), range.getStartOffset());
+    }
+
+    private static ReviewBean createBean(Document document, String reviewed) {
+        final int start = document.getText().indexOf(reviewed);
+        final ReviewBean bean = new ReviewBean("review", start, start + reviewed.length());
+        bean.getContext().setContext(document);
+        return bean;
+    }
+
+    private static ReviewsState.FileReviewsList saveAndLoad(ReviewsState.FileReviewsList list) throws Exception {
+        final StringWriter writer = new StringWriter();
+        ReviewsXmlWriter.write(Collections.singletonList(list), writer);
+        final List<ReviewsState.FileReviewsList> lists = ReviewsXmlReader.read(new StringReader(writer.toString())).getReviews();
+        assertEquals(1, lists.size());
+        return lists.get(0);
+    }
+
+    private static Map<ReviewBean, TextRange> anchor(ReviewsState.FileReviewsList list, String text) {
+        final Document edited = new DocumentImpl(text);
+        final DocumentHashes.Change change = DocumentHashes.getInstance(edited).getChangeSince(list.getChecksum());
+        return new ReviewAnchoring(list.getReviewBeans()).anchor(edited, change);
+    }
+}
@@ -0,0 +1,131 @@
+package reviewresult.persistent;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Reviews are read back from the binary storage as they were saved
+ */
+public class BinaryReviewsStorageTest extends TestCase {
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("codeReview", ".bin");
+        assertTrue(file.delete());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        new File(file.getPath() + ".bak").delete();
+        file.delete();
+        super.tearDown();
+    }
+
+    public void testReviewsAreLoadedAsSaved() throws Exception {
+        final List<ReviewsState.FileReviewsList> lists = createLists(3);
+        new BinaryReviewsStorage(file).save(lists);
+        List<ReviewsState.FileReviewsList> loaded = new BinaryReviewsStorage(file).load();
+        assertLists(lists, loaded);
+
+        //loaded lists are saved again without changes of the context
+        final BinaryReviewsStorage storage = new BinaryReviewsStorage(file);
+        loaded = storage.load();
+        final List<ReviewsState.FileReviewsList> changed = new ArrayList<ReviewsState.FileReviewsList>(loaded);
+        changed.set(1, createList(1, "changed"));
+        storage.save(changed);
+        final List<ReviewsState.FileReviewsList> expected = new ArrayList<ReviewsState.FileReviewsList>(lists);
+        expected.set(1, createList(1, "changed"));
+        assertLists(expected, new BinaryReviewsStorage(file).load());
+    }
+
+    public void testBackupKeepsListsWhichWereNotDecoded() throws Exception {
+        final List<ReviewsState.FileReviewsList> lists = createLists(2);
+        new BinaryReviewsStorage(file).save(lists);
+        final BinaryReviewsStorage storage = new BinaryReviewsStorage(file);
+        final List<ReviewsState.FileReviewsList> loaded = storage.load();
+        storage.backup();
+        assertFalse(file.exists());
+        assertTrue(new File(file.getPath() + ".bak").exists());
+        assertLists(lists, loaded);
+    }
+
+    private static List<ReviewsState.FileReviewsList> createLists(int count) {
+        final List<ReviewsState.FileReviewsList> lists = new ArrayList<ReviewsState.FileReviewsList>();
+        for(int i = 0; i < count; i++) {
+            lists.add(createList(i, "review"));
+        }
+        return lists;
+    }
+
+    private static ReviewsState.FileReviewsList createList(int index, String name) {
+        final ReviewBean bean = new ReviewBean(name, 10, 20);
+        bean.setGuid("guid" + index);
+        bean.setStatus(ReviewStatus.values()[index % ReviewStatus.values().length]);
+        bean.setDeleted(index % 2 == 1);
+        bean.getTags().add("tag" + index);
+        final Context context = bean.getContext();
+        context.setLineNumber(3);
+        context.setBeforeLineNumber(2);
+        context.setAfterLineNumber(4);
+        context.setLineBefore("if(a < b) {\n    ");
+        context.setLine("call(\"" + name + "\");");
+        context.setLineAfter("\n}");
+        final ReviewItem item = new ReviewItem("text <b>" + index + "</b>");
+        item.setAuthor("author" + index);
+        item.setDate(new Date(1300000000000L + index));
+        bean.addReviewItem(item);
+        return new ReviewsState.FileReviewsList("src/File" + index + ".java", "checksum" + index,
+                                                Collections.singletonList(bean));
+    }
+
+    static void assertLists(List<ReviewsState.FileReviewsList> expected, List<ReviewsState.FileReviewsList> actual) {
+        //appended blocks are loaded after the others
+        final Map<String, ReviewsState.FileReviewsList> actualByPath = new HashMap<String, ReviewsState.FileReviewsList>();
+        for(ReviewsState.FileReviewsList list : actual) {
+            actualByPath.put(list.getFilePath(), list);
+        }
+        assertEquals(expected.size(), actual.size());
+        for(ReviewsState.FileReviewsList expectedList : expected) {
+            final ReviewsState.FileReviewsList actualList = actualByPath.get(expectedList.getFilePath());
+            assertNotNull(expectedList.getFilePath(), actualList);
+            assertEquals(expectedList.getChecksum(), actualList.getChecksum());
+            final List<ReviewBean> expectedBeans = expectedList.getReviewBeans();
+            final List<ReviewBean> actualBeans = actualList.getReviewBeans();
+            assertEquals(expectedBeans.size(), actualBeans.size());
+            for(int j = 0; j < expectedBeans.size(); j++) {
+                assertBeans(expectedBeans.get(j), actualBeans.get(j));
+            }
+        }
+    }
+
+    static void assertBeans(ReviewBean expected, ReviewBean actual) {
+        assertEquals(expected.getGuid(), actual.getGuid());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getStatus(), actual.getStatus());
+        assertEquals(expected.isValid(), actual.isValid());
+        assertEquals(expected.isDeleted(), actual.isDeleted());
+        assertEquals(expected.getTags(), actual.getTags());
+        final Context expectedContext = expected.getContext();
+        final Context actualContext = actual.getContext();
+        assertEquals(expectedContext.getStart(), actualContext.getStart());
+        assertEquals(expectedContext.getEnd(), actualContext.getEnd());
+        assertEquals(expectedContext.getLine(), actualContext.getLine());
+        assertEquals(expectedContext.getLineBefore(), actualContext.getLineBefore());
+        assertEquals(expectedContext.getLineAfter(), actualContext.getLineAfter());
+        assertEquals(expectedContext.getLineNumber(), actualContext.getLineNumber());
+        assertEquals(expectedContext.getBeforeLineNumber(), actualContext.getBeforeLineNumber());
+        assertEquals(expectedContext.getAfterLineNumber(), actualContext.getAfterLineNumber());
+        final List<ReviewItem> expectedItems = expected.getReviewItems();
+        final List<ReviewItem> actualItems = actual.getReviewItems();
+        assertEquals(expectedItems.size(), actualItems.size());
+        for(int k = 0; k < expectedItems.size(); k++) {
+            assertEquals(expectedItems.get(k).getAuthor(), actualItems.get(k).getAuthor());
+            assertEquals(expectedItems.get(k).getText(), actualItems.get(k).getText());
+            assertEquals(expectedItems.get(k).getDate(), actualItems.get(k).getDate());
+        }
+    }
+}
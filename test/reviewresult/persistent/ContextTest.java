@@ -0,0 +1,49 @@
+package reviewresult.persistent;
+
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Collections;
+
+/**
+ * Context keeps the text of the document, html of older files is removed when it is loaded
+ */
+public class ContextTest extends TestCase {
+    public void testRawTextIsKept() {
+        final Context context = new Context();
+        context.setLineBefore("a <b> c\n");
+        context.setLine("x < y;");
+        context.setLineAfter("\nz;");
+        assertEquals("a <b> c\n", context.getLineBefore());
+        assertEquals("x < y;", context.getLine());
+        assertEquals("\nz;", context.getLineAfter());
+        assertEquals("<span class=\"context_line\">x < y;</span>", context.getLineHtml());
+        assertEquals("a <b> c<br/>", context.getLineBeforeHtml());
+    }
+
+    public void testLegacyMarkupIsRemoved() {
+        final Context context = new Context();
+        context.setLineBefore("before<br/>");
+        context.setLine("<span class=\"context_line\"><span class=\"context_line\">one<br/>two</span></span>");
+        context.setLineAfter("<br/>after");
+        assertEquals("one\ntwo", context.getLine());
+        assertEquals("before\n", context.getLineBefore());
+        assertEquals("\nafter", context.getLineAfter());
+    }
+
+    public void testLegacyContextDoesNotGrowWhenSavedAgain() throws Exception {
+        final ReviewBean bean = new ReviewBean("review", 10, 20);
+        bean.getContext().setLine("<span class=\"context_line\">line</span>");
+        bean.getContext().setLineBefore("before<br/>");
+        ReviewsState.FileReviewsList list = new ReviewsState.FileReviewsList("A.java", "", Collections.singletonList(bean));
+        for(int i = 0; i < 3; i++) {
+            final StringWriter writer = new StringWriter();
+            ReviewsXmlWriter.write(Collections.singletonList(list), writer);
+            list = ReviewsXmlReader.read(new StringReader(writer.toString())).getReviews().get(0);
+        }
+        final Context context = list.getReviewBeans().get(0).getContext();
+        assertEquals("line", context.getLine());
+        assertEquals("before\n", context.getLineBefore());
+    }
+}
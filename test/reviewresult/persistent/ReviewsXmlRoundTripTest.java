@@ -0,0 +1,65 @@
+package reviewresult.persistent;
+
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.*;
+
+/**
+ * Reviews exported with ReviewsXmlWriter are read back by ReviewsXmlReader as they were written
+ */
+public class ReviewsXmlRoundTripTest extends TestCase {
+
+    public void testReviewsAreReadAsWritten() throws Exception {
+        final List<ReviewsState.FileReviewsList> lists = createLists();
+        BinaryReviewsStorageTest.assertLists(lists, writeAndRead(lists));
+    }
+
+    public void testContextDoesNotChangeOnRepeatedRoundTrips() throws Exception {
+        final List<ReviewsState.FileReviewsList> lists = createLists();
+        List<ReviewsState.FileReviewsList> read = lists;
+        for(int i = 0; i < 3; i++) {
+            read = writeAndRead(read);
+        }
+        BinaryReviewsStorageTest.assertLists(lists, read);
+    }
+
+    private static List<ReviewsState.FileReviewsList> writeAndRead(List<ReviewsState.FileReviewsList> lists)
+                                                                                            throws Exception {
+        final StringWriter writer = new StringWriter();
+        ReviewsXmlWriter.write(lists, writer);
+        return ReviewsXmlReader.read(new StringReader(writer.toString())).getReviews();
+    }
+
+    private static List<ReviewsState.FileReviewsList> createLists() {
+        final List<ReviewsState.FileReviewsList> lists = new ArrayList<ReviewsState.FileReviewsList>();
+        for(int i = 0; i < 2; i++) {
+            final List<ReviewBean> beans = new ArrayList<ReviewBean>();
+            for(int j = 0; j < 3; j++) {
+                final ReviewBean bean = new ReviewBean("review " + j, j * 40 + 1, j * 40 + 20);
+                bean.setGuid("guid" + i + "_" + j);
+                bean.setStatus(ReviewStatus.values()[j % ReviewStatus.values().length]);
+                bean.setDeleted(j == 1);
+                bean.getTags().add("tag" + j);
+                bean.getTags().add("common");
+                final Context context = bean.getContext();
+                context.setLineNumber(j * 3 + 2);
+                context.setBeforeLineNumber(j * 3 + 1);
+                context.setAfterLineNumber(j * 3 + 3);
+                context.setLineBefore("    // a < b && c > d\n    ");
+                context.setLine("int value" + j + " = \"" + j + "\";");
+                context.setLineAfter(j == 2 ? "" : "\n    return value" + j + ";");
+                for(int k = 0; k <= j; k++) {
+                    final ReviewItem item = new ReviewItem("Comment " + k + " <see> & fix\nsecond line");
+                    item.setAuthor("author" + k);
+                    item.setDate(new Date(1300000000000L + i * 1000 + j * 10 + k));
+                    bean.addReviewItem(item);
+                }
+                beans.add(bean);
+            }
+            lists.add(new ReviewsState.FileReviewsList("src/File" + i + ".java", "checksum" + i, beans));
+        }
+        return lists;
+    }
+}
@@ -0,0 +1,174 @@
+package ui.reviewtoolwindow.filter;
+
+import com.intellij.openapi.project.Project;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import reviewresult.FacetIndex;
+import reviewresult.Review;
+import reviewresult.persistent.ReviewBean;
+import reviewresult.persistent.ReviewItem;
+import reviewresult.persistent.ReviewStatus;
+import utils.ReviewsBundle;
+import utils.Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * Parsed queries match the reviews the query describes, invalid queries are reported
+ */
+public class QueryParserTest extends TestCase {
+    private Project project;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        project = createProject();
+    }
+
+    public void testEmptyQuery() throws Exception {
+        assertNull(QueryParser.parse(""));
+        assertNull(QueryParser.parse("   "));
+    }
+
+    public void testParseErrors() {
+        assertParseError("\"alpha", "reviews.queryUnclosedQuote");
+        assertParseError("(alpha OR beta", "reviews.queryUnclosedParenthesis");
+        assertParseError("alpha)", "reviews.queryUnexpectedParenthesis");
+        assertParseError("alpha OR", "reviews.queryMissingOperand", "OR");
+        assertParseError("alpha AND OR beta", "reviews.queryMissingOperand", "AND");
+        assertParseError("alpha NOT", "reviews.queryMissingOperand", "NOT");
+        assertParseError("()", "reviews.queryMissingOperand", ")");
+        assertParseError("tag:", "reviews.queryMissingValue", QueryParser.TAG);
+        assertParseError("tag: )", "reviews.queryMissingValue", QueryParser.TAG);
+        assertParseError("status:fixed", "reviews.queryInvalidStatus", "fixed");
+        assertParseError("date:2011-13-01", "reviews.queryInvalidDate", "2011-13-01");
+        assertParseError("date:..", "reviews.queryInvalidDate", "..");
+        assertParseError("date:>=yesterday", "reviews.queryInvalidDate", ">=yesterday");
+    }
+
+    public void testAndBindsTighterThanOr() throws Exception {
+        final QueryNode query = parse("alpha OR beta gamma");
+        assertTrue(query.matches(createReview("alpha")));
+        assertFalse(query.matches(createReview("beta")));
+        assertTrue(query.matches(createReview("beta gamma")));
+        assertTrue(parse("alpha OR beta AND gamma").matches(createReview("alpha")));
+    }
+
+    public void testParenthesesAndNegation() throws Exception {
+        final QueryNode grouped = parse("(alpha OR beta) gamma");
+        assertFalse(grouped.matches(createReview("alpha")));
+        assertTrue(grouped.matches(createReview("alpha gamma")));
+        assertTrue(grouped.matches(createReview("beta gamma")));
+
+        //NOT applies to the next operand only
+        final QueryNode negated = parse("-alpha beta");
+        assertTrue(negated.matches(createReview("beta")));
+        assertFalse(negated.matches(createReview("alpha beta")));
+        assertFalse(negated.matches(createReview("gamma")));
+        assertTrue(parse("NOT (alpha OR beta)").matches(createReview("gamma")));
+        assertFalse(parse("NOT (alpha OR beta)").matches(createReview("beta")));
+        //a dash inside a word is a part of it
+        assertTrue(parse("alpha-beta").matches(createReview("alpha-beta")));
+        assertFalse(parse("alpha-beta").matches(createReview("alpha")));
+    }
+
+    public void testFieldsAndQuotedValues() throws Exception {
+        final Review review = createReview("text", new Date());
+        review.getReviewBean().setStatus(ReviewStatus.bug);
+        review.getTags().add("needs work");
+        assertTrue(parse("tag:\"needs work\" author:Alice").matches(review));
+        assertTrue(parse("status:BUG file:A.java").matches(review));
+        assertFalse(parse("status:info").matches(review));
+        assertFalse(parse("\"needs work\"").matches(review));
+        final ReviewItem reply = new ReviewItem("later");
+        reply.setAuthor("bob");
+        reply.setDate(new Date(System.currentTimeMillis() + 1000));
+        review.addReviewItem(reply);
+        assertTrue(parse("lastcommenter:bob").matches(review));
+    }
+
+    public void testDateRanges() throws Exception {
+        final Review review = createReview("alpha", day(2011, 8, 10, 15));
+        assertTrue(parse("date:2011-08-10").matches(review));
+        assertFalse(parse("date:2011-08-11").matches(review));
+        assertTrue(parse("date:2011-08-01..2011-08-10").matches(review));
+        assertFalse(parse("date:2011-08-01..2011-08-09").matches(review));
+        assertTrue(parse("date:2011-08-10..").matches(review));
+        assertFalse(parse("date:2011-08-11..").matches(review));
+        assertTrue(parse("date:..2011-08-10").matches(review));
+        assertFalse(parse("date:..2011-08-09").matches(review));
+        assertTrue(parse("date:>=2011-08-10").matches(review));
+        assertFalse(parse("date:>2011-08-10").matches(review));
+        assertTrue(parse("date:>2011-08-09").matches(review));
+        assertTrue(parse("date:<=2011-08-10").matches(review));
+        assertFalse(parse("date:<2011-08-10").matches(review));
+        assertTrue(parse("date:<2011-08-11").matches(review));
+    }
+
+    @NotNull
+    private static QueryNode parse(String text) throws QueryParser.ParseException {
+        final QueryNode node = QueryParser.parse(text);
+        assertNotNull(node);
+        node.compile(new ReviewIndex(), new FacetIndex(new FacetIndex.ModuleResolver() {
+            @Nullable
+            public String getModuleName(@NotNull Review review) {
+                return null;
+            }
+        }), false);
+        return node;
+    }
+
+    private static void assertParseError(String query, String key, Object... params) {
+        try {
+            QueryParser.parse(query);
+            fail(query);
+        } catch (QueryParser.ParseException e) {
+            assertEquals(query, ReviewsBundle.message(key, params), e.getMessage());
+        }
+    }
+
+    private Review createReview(String text) {
+        return createReview(text, new Date());
+    }
+
+    private Review createReview(String text, Date date) {
+        final ReviewBean bean = new ReviewBean("review", 1, 2);
+        bean.setStatus(ReviewStatus.comment);
+        final ReviewItem item = new ReviewItem(text);
+        item.setAuthor("alice");
+        item.setDate(date);
+        bean.addReviewItem(item);
+        return new Review(bean, project, "src/A.java");
+    }
+
+    /**
+     * @return project without files, reviews created in it are not valid
+     */
+    private static Project createProject() {
+        final Util[] util = new Util[1];
+        final Project project = (Project)Proxy.newProxyInstance(QueryParserTest.class.getClassLoader(),
+                                                                new Class[]{Project.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if("getComponent".equals(method.getName()) && args != null && args[0] == Util.class) return util[0];
+                if("equals".equals(method.getName())) return proxy == args[0];
+                if("hashCode".equals(method.getName())) return System.identityHashCode(proxy);
+                if(method.getReturnType() == boolean.class) return false;
+                return null;
+            }
+        });
+        util[0] = new Util(project) {};
+        return project;
+    }
+
+    private static Date day(int year, int month, int day, int hour) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, 0);
+        return calendar.getTime();
+    }
+}
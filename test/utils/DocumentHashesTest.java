@@ -0,0 +1,98 @@
+package utils;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.impl.DocumentImpl;
+import junit.framework.TestCase;
+
+/**
+ * A saved checksum tells whether the text was changed and which part of it
+ */
+public class DocumentHashesTest extends TestCase {
+    private static final int LINES = 300;
+
+    public void testSameTextHasNoChange() {
+        final String checksum = hashes(createText(LINES, -1, null)).getChecksum();
+        final DocumentHashes hashes = hashes(createText(LINES, -1, null));
+        assertEquals(checksum, hashes.getChecksum());
+        assertTrue(hashes.getChangeSince(checksum).isEmpty());
+    }
+
+    public void testUnknownChecksum() {
+        final DocumentHashes hashes = hashes(createText(LINES, -1, null));
+        assertNull(hashes.getChangeSince(null));
+        assertNull(hashes.getChangeSince("d41d8cd98f00b204e9800998ecf8427e"));
+        assertNull(hashes.getChangeSince("h1:1:2:3:4"));
+    }
+
+    public void testChangedLineIsInsideChange() {
+        final String oldText = createText(LINES, -1, null);
+        final String newText = createText(LINES, 150, "changed line");
+        final String checksum = hashes(oldText).getChecksum();
+        final DocumentHashes hashes = hashes(newText);
+        assertFalse(checksum.equals(hashes.getChecksum()));
+        final DocumentHashes.Change change = hashes.getChangeSince(checksum);
+        assertNotNull(change);
+        assertFalse(change.isEmpty());
+        assertEquals(newText.length() - oldText.length(), change.getShift());
+        final int changed = oldText.indexOf("line 150\n");
+        assertFalse(change.isBeforeChange(changed + 1));
+        assertFalse(change.isAfterChange(changed));
+        //most of the text is outside of the change
+        assertTrue(change.isBeforeChange(oldText.indexOf("line 50\n")));
+        assertTrue(change.isAfterChange(oldText.indexOf("line 250\n")));
+        assertMoved(oldText, newText, change, "line 250\n");
+    }
+
+    public void testInsertedLinesMoveTextAfterThem() {
+        final String oldText = createText(LINES, -1, null);
+        final String inserted = "first inserted\nsecond inserted\n";
+        final int insertOffset = oldText.indexOf("line 100\n");
+        final String newText = oldText.substring(0, insertOffset) + inserted + oldText.substring(insertOffset);
+        final DocumentHashes.Change change = hashes(newText).getChangeSince(hashes(oldText).getChecksum());
+        assertNotNull(change);
+        assertEquals(inserted.length(), change.getShift());
+        assertTrue(change.isBeforeChange(oldText.indexOf("line 10\n")));
+        assertFalse(change.isAfterChange(insertOffset - 1));
+        assertMoved(oldText, newText, change, "line 200\n");
+        assertMoved(oldText, newText, change, "line 299");
+    }
+
+    public void testChangeAtTheEnd() {
+        final String oldText = createText(LINES, -1, null);
+        final String newText = oldText + "\nappended";
+        final DocumentHashes.Change change = hashes(newText).getChangeSince(hashes(oldText).getChecksum());
+        assertNotNull(change);
+        assertTrue(change.isBeforeChange(oldText.indexOf("line 200\n")));
+        assertFalse(change.isAfterChange(oldText.length()));
+    }
+
+    public void testLineHashes() {
+        final String text = createText(10, -1, null);
+        final DocumentHashes hashes = hashes(text);
+        assertEquals(10, hashes.getLineCount());
+        final int start = text.indexOf("line 3");
+        assertEquals(DocumentHashes.hashLine(text, start, start + "line 3".length()), hashes.getLineHash(3));
+        assertEquals(DocumentHashes.hashLine("line 3", 0, 6), hashes.getLineHash(3));
+        assertFalse(hashes.getLineHash(3) == hashes.getLineHash(4));
+    }
+
+    private static void assertMoved(String oldText, String newText, DocumentHashes.Change change, String line) {
+        final int oldOffset = oldText.indexOf(line);
+        assertTrue(change.isAfterChange(oldOffset));
+        assertTrue(newText.startsWith(line, oldOffset + change.getShift()));
+    }
+
+    private static DocumentHashes hashes(String text) {
+        final Document document = new DocumentImpl(text);
+        return DocumentHashes.getInstance(document);
+    }
+
+    private static String createText(int lines, int changedLine, String changedText) {
+        final StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < lines; i++) {
+            if(i > 0) builder.append('\n');
+            builder.append(i == changedLine ? changedText : "line " + i);
+        }
+        return builder.toString();
+    }
+}
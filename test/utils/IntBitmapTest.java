@@ -0,0 +1,115 @@
+package utils;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bitmaps of small groups kept as arrays and of large groups kept as bits give the same results
+ */
+public class IntBitmapTest extends TestCase {
+
+    public void testAddRemoveContains() {
+        final IntBitmap bitmap = new IntBitmap();
+        assertTrue(bitmap.isEmpty());
+        bitmap.add(5);
+        bitmap.add(70000);
+        bitmap.add(5);
+        assertEquals(2, bitmap.getCardinality());
+        assertTrue(bitmap.contains(5));
+        assertTrue(bitmap.contains(70000));
+        assertFalse(bitmap.contains(6));
+        bitmap.remove(70000);
+        bitmap.remove(100);
+        assertEquals(1, bitmap.getCardinality());
+        assertFalse(bitmap.contains(70000));
+        bitmap.remove(5);
+        assertTrue(bitmap.isEmpty());
+    }
+
+    public void testValuesAreVisitedInOrder() {
+        final IntBitmap bitmap = create(200000, 3, 65536, 65535, 0);
+        assertEquals(Arrays.asList(0, 3, 65535, 65536, 200000), toList(bitmap));
+    }
+
+    public void testLargeGroupBecomesBitsAndBack() {
+        final IntBitmap bitmap = new IntBitmap();
+        for(int i = 0; i < 10000; i++) {
+            bitmap.add(i * 2);
+        }
+        assertEquals(10000, bitmap.getCardinality());
+        assertTrue(bitmap.contains(19998));
+        assertFalse(bitmap.contains(19999));
+        for(int i = 0; i < 9990; i++) {
+            bitmap.remove(i * 2);
+        }
+        assertEquals(10, bitmap.getCardinality());
+        assertEquals(19980, toList(bitmap).get(0).intValue());
+    }
+
+    public void testAndOrAndNot() {
+        final IntBitmap first = new IntBitmap();
+        final IntBitmap second = new IntBitmap();
+        for(int i = 0; i < 10000; i++) {
+            first.add(i);
+            if(i % 3 == 0) second.add(i);
+        }
+        second.add(100000);
+        final IntBitmap and = first.and(second);
+        final IntBitmap or = first.or(second);
+        final IntBitmap andNot = first.andNot(second);
+        assertEquals(3334, and.getCardinality());
+        assertEquals(10001, or.getCardinality());
+        assertEquals(6666, andNot.getCardinality());
+        assertTrue(and.contains(9999));
+        assertFalse(and.contains(100000));
+        assertTrue(or.contains(100000));
+        assertFalse(andNot.contains(3));
+        assertTrue(andNot.contains(4));
+        //arguments are not changed
+        assertEquals(10000, first.getCardinality());
+        assertEquals(3335, second.getCardinality());
+    }
+
+    public void testCopyIsIndependent() {
+        final IntBitmap bitmap = create(1, 2, 3);
+        final IntBitmap copy = bitmap.copy();
+        copy.add(4);
+        copy.remove(1);
+        assertEquals(Arrays.asList(1, 2, 3), toList(bitmap));
+        assertEquals(Arrays.asList(2, 3, 4), toList(copy));
+    }
+
+    public void testForEachStops() {
+        final IntBitmap bitmap = create(1, 2, 3);
+        final List<Integer> visited = new ArrayList<Integer>();
+        assertFalse(bitmap.forEach(new IntBitmap.IntProcessor() {
+            public boolean process(int value) {
+                visited.add(value);
+                return value < 2;
+            }
+        }));
+        assertEquals(Arrays.asList(1, 2), visited);
+    }
+
+    private static IntBitmap create(int... values) {
+        final IntBitmap bitmap = new IntBitmap();
+        for(int value : values) {
+            bitmap.add(value);
+        }
+        return bitmap;
+    }
+
+    private static List<Integer> toList(IntBitmap bitmap) {
+        final List<Integer> values = new ArrayList<Integer>();
+        bitmap.forEach(new IntBitmap.IntProcessor() {
+            public boolean process(int value) {
+                values.add(value);
+                return true;
+            }
+        });
+        return values;
+    }
+}
@@ -0,0 +1,93 @@
+package utils;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+/**
+ * Lookups of the interval tree give the same intervals as a scan of all of them
+ */
+public class IntervalTreeTest extends TestCase {
+
+    public void testOverlappingIntervals() {
+        final IntervalTree<String> tree = new IntervalTree<String>();
+        tree.add(0, 100, "outer");
+        tree.add(10, 20, "first");
+        tree.add(15, 30, "second");
+        tree.add(40, 50, "third");
+        assertEquals(Arrays.asList("outer", "first", "second"), tree.findCovering(15));
+        assertEquals(Arrays.asList("outer", "first", "second"), tree.findCovering(20));
+        assertEquals(Arrays.asList("outer", "second"), tree.findCovering(21));
+        assertEquals(Arrays.asList("outer", "second", "third"), tree.findOverlapping(25, 40));
+        assertEquals(Arrays.asList("second", "third"), tree.findStartingIn(15, 45));
+        assertTrue(tree.findCovering(101).isEmpty());
+        assertEquals(Arrays.asList("outer", "first", "second", "third"), tree.getValues());
+    }
+
+    public void testEmptyIntervals() {
+        final IntervalTree<String> tree = new IntervalTree<String>();
+        tree.add(5, 5, "point");
+        //end before start is an empty interval at start
+        tree.add(8, 3, "reversed");
+        tree.add(5, 5, "same point");
+        assertEquals(Arrays.asList("point", "same point"), tree.findCovering(5));
+        assertEquals(Collections.singletonList("reversed"), tree.findCovering(8));
+        assertTrue(tree.findCovering(6).isEmpty());
+        assertEquals(Arrays.asList("point", "same point", "reversed"), tree.findOverlapping(0, 10));
+        assertTrue(tree.findOverlapping(6, 7).isEmpty());
+    }
+
+    public void testRemoveEntry() {
+        final IntervalTree<String> tree = new IntervalTree<String>();
+        final IntervalTree.Entry<String> first = tree.add(0, 10, "first");
+        final IntervalTree.Entry<String> second = tree.add(0, 10, "second");
+        assertEquals(2, tree.findCovering(5).size());
+        assertTrue(tree.remove(first));
+        assertFalse(tree.remove(first));
+        assertEquals(Collections.singletonList("second"), tree.findCovering(5));
+        assertTrue(tree.remove(second));
+        assertTrue(tree.isEmpty());
+        assertTrue(tree.findCovering(5).isEmpty());
+    }
+
+    public void testLookupsMatchScan() {
+        final Random random = new Random(42);
+        final IntervalTree<Integer> tree = new IntervalTree<Integer>();
+        final Map<Integer, int[]> intervals = new HashMap<Integer, int[]>();
+        final List<IntervalTree.Entry<Integer>> entries = new ArrayList<IntervalTree.Entry<Integer>>();
+        for(int i = 0; i < 500; i++) {
+            final int start = random.nextInt(1000);
+            final int end = start + random.nextInt(50);
+            entries.add(tree.add(start, end, i));
+            intervals.put(i, new int[]{start, end});
+        }
+        for(int i = 0; i < 100; i++) {
+            final IntervalTree.Entry<Integer> entry = entries.get(random.nextInt(entries.size()));
+            if(tree.remove(entry)) {
+                intervals.remove(entry.getValue());
+            }
+        }
+        assertEquals(intervals.size(), tree.size());
+        for(int i = 0; i < 200; i++) {
+            final int from = random.nextInt(1100);
+            final int to = from + random.nextInt(20);
+            final Set<Integer> overlapping = new HashSet<Integer>();
+            final Set<Integer> starting = new HashSet<Integer>();
+            for(Map.Entry<Integer, int[]> interval : intervals.entrySet()) {
+                final int start = interval.getValue()[0];
+                final int end = interval.getValue()[1];
+                if(start <= to && end >= from) overlapping.add(interval.getKey());
+                if(start >= from && start <= to) starting.add(interval.getKey());
+            }
+            assertEquals(overlapping, new HashSet<Integer>(tree.findOverlapping(from, to)));
+            assertEquals(starting, new HashSet<Integer>(tree.findStartingIn(from, to)));
+            assertStartsAscending(tree.findOverlapping(from, to), intervals);
+        }
+    }
+
+    private static void assertStartsAscending(List<Integer> values, Map<Integer, int[]> intervals) {
+        for(int i = 1; i < values.size(); i++) {
+            assertTrue(intervals.get(values.get(i - 1))[0] <= intervals.get(values.get(i))[0]);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package utils;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+/**
+ * Occurrences found by the automaton are the ones found by indexOf() for every pattern
+ */
+public class PatternMatcherTest extends TestCase {
+
+    public void testOverlappingPatterns() {
+        final List<String> patterns = Arrays.asList("he", "she", "his", "hers");
+        assertEquals(Arrays.asList("she@1", "he@2", "hers@2"), search(patterns, true, "ushers"));
+        assertEquals(Arrays.asList("his@0", "she@2", "he@3"), search(patterns, true, "hishe"));
+    }
+
+    public void testPatternInsideAnotherPattern() {
+        final List<String> patterns = Arrays.asList("aa", "a", "aaa");
+        assertEquals(Arrays.asList("a@0", "aa@0", "a@1", "aaa@0", "aa@1", "a@2"), search(patterns, true, "aaa"));
+    }
+
+    public void testCaseFolding() {
+        final List<String> patterns = Arrays.asList("Review", "TODO");
+        assertEquals(Arrays.asList("TODO@0", "Review@5"), search(patterns, false, "todo REVIEW"));
+        assertEquals(Collections.singletonList("Review@5"), search(patterns, true, "todo Review"));
+        //characters are folded one by one, so a character is never matched by two
+        assertTrue(search(Collections.singletonList("stra\u00dfe"), false, "STRASSE").isEmpty());
+        assertEquals(Collections.singletonList("\u00c4\u00d6\u00dc@1"), search(Collections.singletonList("\u00c4\u00d6\u00dc"), false, " \u00e4\u00f6\u00fc"));
+    }
+
+    public void testSearchInRange() {
+        final PatternMatcher matcher = new PatternMatcher(Collections.singletonList("ab"), true);
+        final List<Integer> starts = new ArrayList<Integer>();
+        matcher.search("ab ab ab", 1, 6, new PatternMatcher.MatchProcessor() {
+            public boolean process(int pattern, int start) {
+                starts.add(start);
+                return true;
+            }
+        });
+        assertEquals(Collections.singletonList(3), starts);
+    }
+
+    public void testFindFirst() {
+        assertEquals(2, new PatternMatcher(Arrays.asList("cdef", "c", "de"), true).findFirst("abcdef"));
+        assertEquals(1, new PatternMatcher(Arrays.asList("bcdefgh", "e"), true).findFirst("abcdefgh"));
+        assertEquals(-1, new PatternMatcher(Collections.singletonList("x"), true).findFirst("abc"));
+        assertEquals(0, new PatternMatcher(Arrays.asList("x", ""), true).findFirst("abc"));
+    }
+
+    public void testOccurrencesMatchIndexOf() {
+        final Random random = new Random(7);
+        for(int round = 0; round < 50; round++) {
+            final List<String> patterns = new ArrayList<String>();
+            for(int i = 0; i < 5; i++) {
+                patterns.add(randomText(random, 1 + random.nextInt(4)));
+            }
+            final String text = randomText(random, 200);
+            final Set<String> expected = new HashSet<String>();
+            for(int i = 0; i < patterns.size(); i++) {
+                for(int start = text.indexOf(patterns.get(i)); start >= 0; start = text.indexOf(patterns.get(i), start + 1)) {
+                    expected.add(i + "@" + start);
+                }
+            }
+            final Set<String> found = new HashSet<String>();
+            new PatternMatcher(patterns, true).search(text, 0, text.length(), new PatternMatcher.MatchProcessor() {
+                public boolean process(int pattern, int start) {
+                    found.add(pattern + "@" + start);
+                    return true;
+                }
+            });
+            assertEquals(expected, found);
+        }
+    }
+
+    private static List<String> search(final List<String> patterns, boolean caseSensitive, String text) {
+        final List<String> found = new ArrayList<String>();
+        new PatternMatcher(patterns, caseSensitive).search(text, 0, text.length(), new PatternMatcher.MatchProcessor() {
+            public boolean process(int pattern, int start) {
+                found.add(patterns.get(pattern) + "@" + start);
+                return true;
+            }
+        });
+        return found;
+    }
+
+    private static String randomText(Random random, int length) {
+        final StringBuilder builder = new StringBuilder(length);
+        for(int i = 0; i < length; i++) {
+            builder.append((char)('a' + random.nextInt(3)));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,49 @@
+package utils;
+
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.vcs.IssueNavigationConfiguration;
+import junit.framework.TestCase;
+
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Links are added to URLs and issue references of review html in one pass
+ */
+public class UtilTest extends TestCase {
+
+    public void testUrlsBecomeLinks() throws Exception {
+        assertEquals("see <a href=\"http://example.com/a\">http://example.com/a</a> and <b>this</b>",
+                     write("see http://example.com/a and <b>this</b>"));
+        assertEquals("<a href=\"http://example.com\">http://example.com</a>",
+                     write("<a href=\"http://example.com\">http://example.com</a>"));
+        assertEquals("time: 10:30", write("time: 10:30"));
+    }
+
+    public void testLongTextWithoutColonsEndingWithUrl() throws Exception {
+        final StringBuilder text = new StringBuilder();
+        for(int i = 0; i < 100000; i++) {
+            text.append("word ");
+        }
+        final String prefix = text.toString();
+        text.append("http://example.com/review");
+        assertEquals(prefix + "<a href=\"http://example.com/review\">http://example.com/review</a>",
+                     write(text.toString()));
+    }
+
+    public void testIssueLinks() throws Exception {
+        final String text = "fixes IDEA-123 now";
+        final List<IssueNavigationConfiguration.LinkMatch> links = Collections.singletonList(
+                new IssueNavigationConfiguration.LinkMatch(new TextRange(6, 14), "http://tracker/IDEA-123"));
+        final StringWriter writer = new StringWriter();
+        Util.writeHTMLContents(text, links, writer);
+        assertEquals("fixes <a href=\"http://tracker/IDEA-123\">IDEA-123</a> now", writer.toString());
+    }
+
+    private static String write(String text) throws Exception {
+        final StringWriter writer = new StringWriter();
+        Util.writeHTMLContents(text, Collections.<IssueNavigationConfiguration.LinkMatch>emptyList(), writer);
+        return writer.toString();
+    }
+}